@@ -0,0 +1,206 @@
+/**
+ *  DocMetadataStore holds the static, query-independent document
+ *  properties that the LeToR features 1-3 use, as columns indexed by
+ *  internal docid:
+ *    spam score      one byte per document (0-99; 255 if missing)
+ *    URL depth       one byte per document (the number of '/' in
+ *                    rawUrl; 254 if it is 254 or more, and then the
+ *                    features read rawUrl; 255 if missing)
+ *    from Wikipedia  one bit per document
+ *
+ *  The columns are computed from the stored score and rawUrl fields
+ *  once, written next to the index, and memory-mapped by later runs,
+ *  so the features need no stored-field access.  The file can be
+ *  built offline with
+ *    java DocMetadataStore indexPath [file]
+ *  and otherwise is built the first time that it is opened.
+ *
+ *  File format (all numbers are big-endian), after the
+ *  {@link IndexSideFile} header (magic 0x51454d44, "QEMD"):
+ *    12 bytes unused
+ *    byte[maxDoc]            spam scores
+ *    byte[maxDoc]            URL depths
+ *    long[(maxDoc + 63)/64]  from-Wikipedia bitset
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+
+public class DocMetadataStore {
+
+  static final int MAGIC = 0x51454d44;
+  static final int FORMAT = 1;
+
+  static final int MISSING = 255;
+  static final int OVERFLOW = 254;	// a URL depth that doesn't fit in a byte
+
+  private ByteBuffer[] spamScores;
+  private ByteBuffer[] urlDepths;
+  private ByteBuffer[] fromWiki;
+  private int maxDoc;
+
+  /**
+   *  Build the metadata file of an index.
+   *  @param args The index path, and optionally the file to write.
+   *  @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage:  java DocMetadataStore indexPath [file]");
+      System.exit(1);
+    }
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(args[0])));
+    File file = new File((args.length > 1) ? args[1] : args[0] + ".meta");
+    build(file, reader);
+    reader.close();
+  }
+
+  /**
+   *  Open the metadata file for an index, building it first if it is
+   *  missing or was built from a different version of the index.
+   *  @param file The metadata file.
+   *  @param reader The index.
+   *  @return The store.
+   *  @throws IOException
+   */
+  public static DocMetadataStore open(File file, IndexReader reader) throws IOException {
+    if (!IndexSideFile.isCurrent(file, MAGIC, FORMAT, reader)) {
+      System.out.println("Building document metadata " + file.getPath());
+      build(file, reader);
+    }
+    return new DocMetadataStore(file);
+  }
+
+  /**
+   *  Memory-map a metadata file.
+   *  @param file The metadata file.
+   *  @throws IOException
+   */
+  public DocMetadataStore(File file) throws IOException {
+    ByteBuffer header = IndexSideFile.mapHeader(file, MAGIC, FORMAT);
+    this.maxDoc = header.getInt(16);
+
+    long offset = IndexSideFile.HEADER_LENGTH;
+    this.spamScores = IndexSideFile.map(file, offset, this.maxDoc, IndexSideFile.CHUNK_BYTES);
+    offset += this.maxDoc;
+    this.urlDepths = IndexSideFile.map(file, offset, this.maxDoc, IndexSideFile.CHUNK_BYTES);
+    offset += this.maxDoc;
+    this.fromWiki = IndexSideFile.map(file, offset, 8L * words(this.maxDoc),
+        IndexSideFile.CHUNK_BYTES);
+  }
+
+  /**
+   *  Get the spam score of a document.
+   *  @param docid The internal document id.
+   *  @return The spam score, or -1 if it is missing.
+   */
+  public int getSpamScore(int docid) {
+    int v = byteAt(this.spamScores, docid);
+    return (v == MISSING) ? -1 : v;
+  }
+
+  /**
+   *  Get the URL depth (the number of '/' characters in the URL) of
+   *  a document.
+   *  @param docid The internal document id.
+   *  @return The URL depth, or -1 if the URL is missing or its depth
+   *          is too large for the column (read rawUrl instead).
+   */
+  public int getUrlDepth(int docid) {
+    int v = byteAt(this.urlDepths, docid);
+    return (v == MISSING || v == OVERFLOW) ? -1 : v;
+  }
+
+  /**
+   *  Check whether a document's URL is from wikipedia.org.
+   *  @param docid The internal document id.
+   *  @return true if the document is from Wikipedia.
+   */
+  public boolean isFromWikipedia(int docid) {
+    long i = 8L * (docid >>> 6);
+    long word = this.fromWiki[(int) (i / IndexSideFile.CHUNK_BYTES)]
+        .getLong((int) (i % IndexSideFile.CHUNK_BYTES));
+    return (word & (1L << (docid & 63))) != 0;
+  }
+
+  private static int byteAt(ByteBuffer[] column, int docid) {
+    return column[(int) (docid / IndexSideFile.CHUNK_BYTES)]
+        .get((int) (docid % IndexSideFile.CHUNK_BYTES)) & 0xff;
+  }
+
+  private static int words(int maxDoc) {
+    return (maxDoc + 63) / 64;
+  }
+
+  /**
+   *  Get the URL depth of a URL, i.e., the number of '/' characters
+   *  in it.
+   *  @param rawUrl The URL.
+   *  @return The URL depth.
+   */
+  static int urlDepth(String rawUrl) {
+    int urlDepth = 0;
+    int idTmp = 0;
+    while ((idTmp = rawUrl.indexOf("/", idTmp)) < rawUrl.length() && idTmp != -1) {
+      idTmp ++;
+      urlDepth++;
+    }
+    return urlDepth;
+  }
+
+  /**
+   *  Build a metadata file by reading the stored fields of every
+   *  document in the index once.
+   *  @param file The metadata file to write.
+   *  @param reader The index.
+   *  @throws IOException
+   */
+  public static void build(File file, IndexReader reader) throws IOException {
+    int maxDoc = reader.maxDoc();
+    byte[] spamScores = new byte[maxDoc];
+    byte[] urlDepths = new byte[maxDoc];
+    long[] fromWiki = new long[words(maxDoc)];
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+    for (int docid = 0; docid < maxDoc; docid++) {
+      spamScores[docid] = (byte) MISSING;
+      urlDepths[docid] = (byte) MISSING;
+
+      if (liveDocs != null && !liveDocs.get(docid))
+        continue;
+
+      Document d = reader.document(docid);
+      String score = d.get("score");
+      if (score != null) {
+        spamScores[docid] = (byte) Integer.parseInt(score);
+      }
+      String rawUrl = d.get("rawUrl");
+      if (rawUrl != null) {
+        urlDepths[docid] = (byte) Math.min(OVERFLOW, urlDepth(rawUrl));
+        if (rawUrl.contains("wikipedia.org")) {
+          fromWiki[docid >>> 6] |= 1L << (docid & 63);
+        }
+      }
+    }
+
+    DataOutputStream out = IndexSideFile.create(file, MAGIC, FORMAT, reader);
+    try {
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.write(spamScores);
+      out.write(urlDepths);
+      for (int i = 0; i < fromWiki.length; i++)
+        out.writeLong(fromWiki[i]);
+    } catch (IOException e) {
+      out.close();
+      throw e;
+    }
+    IndexSideFile.commit(out, file);
+  }
+}
@@ -0,0 +1,249 @@
+/**
+ *  DocidDictionary maps external document ids (e.g.,
+ *  clueweb09-enwp00-88-09710) to internal Lucene document ids without
+ *  running a query.
+ *
+ *  The dictionary is built once from the terms of the externalId
+ *  field, which Lucene already keeps in sorted order, and is written
+ *  next to the index.  Later runs memory-map the file, so lookups are
+ *  a binary search over fixed-width records that are already in the
+ *  page cache.
+ *
+ *  File format (all numbers are big-endian), after the
+ *  {@link IndexSideFile} header (magic 0x51454444, "QEDD"):
+ *    int   size         The number of records.
+ *    int   width        The length of the longest external id, in bytes.
+ *    int   unused
+ *    size records of width + 4 bytes, sorted by external id:
+ *      byte[width] external id (UTF-8, padded with 0 bytes)
+ *      int         internal docid
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+public class DocidDictionary {
+
+  static final int MAGIC = 0x51454444;
+  static final int FORMAT = 1;
+
+  private ByteBuffer[] chunks;
+  private int recordsPerChunk;
+  private int recordLength;
+  private int width;
+  private int size;
+
+  /**
+   *  Open the dictionary file for an index, building it first if it is
+   *  missing or was built from a different version of the index.
+   *  @param file The dictionary file.
+   *  @param reader The index.
+   *  @return The dictionary.
+   *  @throws IOException
+   */
+  public static DocidDictionary open(File file, IndexReader reader) throws IOException {
+    if (!IndexSideFile.isCurrent(file, MAGIC, FORMAT, reader)) {
+      System.out.println("Building docid dictionary " + file.getPath());
+      build(file, reader);
+    }
+    return new DocidDictionary(file);
+  }
+
+  /**
+   *  Memory-map a dictionary file.
+   *  @param file The dictionary file.
+   *  @throws IOException
+   */
+  public DocidDictionary(File file) throws IOException {
+    ByteBuffer header = IndexSideFile.mapHeader(file, MAGIC, FORMAT);
+    this.size = header.getInt(20);
+    this.width = header.getInt(24);
+    this.recordLength = this.width + 4;
+
+    //  A record never spans two chunks.
+
+    this.recordsPerChunk = (int) (IndexSideFile.CHUNK_BYTES / this.recordLength);
+    this.chunks = IndexSideFile.map(file, IndexSideFile.HEADER_LENGTH,
+        (long) this.size * this.recordLength, (long) this.recordsPerChunk * this.recordLength);
+  }
+
+  /**
+   *  Get the number of external ids in the dictionary.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   *  Find the internal document id of an external id.
+   *  @param externalId The external document id.
+   *  @return The internal document id, or -1 if there is no such document.
+   */
+  public int lookup(String externalId) {
+    byte[] key = utf8(externalId);
+    int i = search(key, 0, this.size);
+    return (i < 0) ? -1 : docid(i);
+  }
+
+  /**
+   *  Find the internal document ids of a batch of external ids.  The
+   *  ids are looked up in sorted order, so that each binary search
+   *  starts where the previous one ended.
+   *  @param externalIds The external document ids.
+   *  @return The internal document ids, in the same order as
+   *          externalIds.  Ids that aren't found are -1.
+   */
+  public int[] lookup(List<String> externalIds) {
+    int n = externalIds.size();
+    final byte[][] keys = new byte[n][];
+    Integer[] order = new Integer[n];
+
+    for (int i = 0; i < n; i++) {
+      keys[i] = utf8(externalIds.get(i));
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return compareBytes(keys[a], keys[b]);
+      }
+    });
+
+    int[] docids = new int[n];
+    int low = 0;
+    for (int k = 0; k < n; k++) {
+      int i = order[k];
+      int found = search(keys[i], low, this.size);
+      if (found >= 0) {
+        docids[i] = docid(found);
+        low = found;
+      } else {
+        docids[i] = -1;
+        low = -(found + 1);
+      }
+    }
+    return docids;
+  }
+
+  /**
+   *  Binary search for a key in records [low, high).
+   *  @return The record index, or -(insertion point + 1) if not found.
+   */
+  private int search(byte[] key, int low, int high) {
+    high--;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int c = compareRecord(mid, key);
+      if (c < 0)
+        low = mid + 1;
+      else if (c > 0)
+        high = mid - 1;
+      else
+        return mid;
+    }
+    return -(low + 1);
+  }
+
+  /**
+   *  Compare record i's external id to a key, as unsigned bytes.  The
+   *  record's 0 padding sorts before any real byte.
+   */
+  private int compareRecord(int i, byte[] key) {
+    ByteBuffer chunk = this.chunks[i / this.recordsPerChunk];
+    int offset = (i % this.recordsPerChunk) * this.recordLength;
+
+    for (int j = 0; j < this.width; j++) {
+      int a = chunk.get(offset + j) & 0xff;
+      int b = (j < key.length) ? (key[j] & 0xff) : 0;
+      if (a != b)
+        return a - b;
+    }
+    return (key.length > this.width) ? -1 : 0;
+  }
+
+  /**
+   *  Get the internal document id stored in record i.
+   */
+  private int docid(int i) {
+    ByteBuffer chunk = this.chunks[i / this.recordsPerChunk];
+    return chunk.getInt((i % this.recordsPerChunk) * this.recordLength + this.width);
+  }
+
+  static int compareBytes(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    for (int j = 0; j < n; j++) {
+      int c = (a[j] & 0xff) - (b[j] & 0xff);
+      if (c != 0)
+        return c;
+    }
+    return a.length - b.length;
+  }
+
+  static byte[] utf8(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   *  Build a dictionary file from the externalId field of an index.
+   *  The field's terms are enumerated in sorted (unsigned byte) order,
+   *  which is the order that the records are stored in, so no stored
+   *  fields are read and nothing needs to be sorted.
+   *  @param file The dictionary file to write.
+   *  @param reader The index.
+   *  @throws IOException
+   */
+  public static void build(File file, IndexReader reader) throws IOException {
+    Terms terms = MultiFields.getTerms(reader, "externalId");
+    if (terms == null) {
+      throw new IOException("The index has no externalId field.");
+    }
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+    //  The first pass finds the record width and the number of live ids.
+
+    int width = 0;
+    int size = 0;
+    TermsEnum te = terms.iterator(null);
+    DocsEnum docs = null;
+    BytesRef term;
+    while ((term = te.next()) != null) {
+      docs = te.docs(liveDocs, docs, DocsEnum.FLAG_NONE);
+      if (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+        width = Math.max(width, term.length);
+        size++;
+      }
+    }
+
+    DataOutputStream out = IndexSideFile.create(file, MAGIC, FORMAT, reader);
+    try {
+      out.writeInt(size);
+      out.writeInt(width);
+      out.writeInt(0);
+
+      byte[] padding = new byte[width];
+      te = terms.iterator(null);
+      while ((term = te.next()) != null) {
+        docs = te.docs(liveDocs, docs, DocsEnum.FLAG_NONE);
+        int docid = docs.nextDoc();
+        if (docid != DocIdSetIterator.NO_MORE_DOCS) {
+          out.write(term.bytes, term.offset, term.length);
+          out.write(padding, 0, width - term.length);
+          out.writeInt(docid);
+        }
+      }
+    } catch (IOException e) {
+      out.close();
+      throw e;
+    }
+    IndexSideFile.commit(out, file);
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ *  ExternalIdColumn maps internal document ids to external document
+ *  ids without reading stored fields.  It is a dense column indexed by
+ *  internal docid: an array of offsets into a blob of external ids.
+ *
+ *  The column is built once from the terms of the externalId field,
+ *  written next to the index, and memory-mapped by later runs, so a
+ *  lookup is an offset read and a short byte copy.
+ *
+ *  File format (all numbers are big-endian), after the
+ *  {@link IndexSideFile} header (magic 0x51455849, "QEXI"):
+ *    long  blobLength
+ *    int   unused
+ *    blob: one entry per external id, never spanning a 1 GB boundary:
+ *      short  length
+ *      byte[] external id (UTF-8)
+ *    long[maxDoc] offsets into the blob, -1 for deleted documents
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+public class ExternalIdColumn {
+
+  static final int MAGIC = 0x51455849;
+  static final int FORMAT = 1;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private ByteBuffer[] blob;
+  private ByteBuffer[] offsets;
+  private int maxDoc;
+
+  /**
+   *  Open the column file for an index, building it first if it is
+   *  missing or was built from a different version of the index.
+   *  @param file The column file.
+   *  @param reader The index.
+   *  @return The column.
+   *  @throws IOException
+   */
+  public static ExternalIdColumn open(File file, IndexReader reader) throws IOException {
+    if (!IndexSideFile.isCurrent(file, MAGIC, FORMAT, reader)) {
+      System.out.println("Building external id column " + file.getPath());
+      build(file, reader);
+    }
+    return new ExternalIdColumn(file);
+  }
+
+  /**
+   *  Memory-map a column file.
+   *  @param file The column file.
+   *  @throws IOException
+   */
+  public ExternalIdColumn(File file) throws IOException {
+    ByteBuffer header = IndexSideFile.mapHeader(file, MAGIC, FORMAT);
+    this.maxDoc = header.getInt(16);
+    long blobLength = header.getLong(20);
+
+    this.blob = IndexSideFile.map(file, IndexSideFile.HEADER_LENGTH, blobLength,
+        IndexSideFile.CHUNK_BYTES);
+    this.offsets = IndexSideFile.map(file, IndexSideFile.HEADER_LENGTH + blobLength,
+        8L * this.maxDoc, IndexSideFile.CHUNK_BYTES);
+  }
+
+  /**
+   *  Get the external id of a document.
+   *  @param docid The internal document id.
+   *  @return The external id, or null if the document doesn't exist.
+   */
+  public String get(int docid) {
+    if (docid < 0 || docid >= this.maxDoc)
+      return null;
+
+    long i = 8L * docid;
+    long offset = this.offsets[(int) (i / IndexSideFile.CHUNK_BYTES)]
+        .getLong((int) (i % IndexSideFile.CHUNK_BYTES));
+    if (offset < 0)
+      return null;
+
+    ByteBuffer chunk = this.blob[(int) (offset / IndexSideFile.CHUNK_BYTES)];
+    int pos = (int) (offset % IndexSideFile.CHUNK_BYTES);
+    int length = chunk.getShort(pos) & 0xffff;
+
+    byte[] bytes = new byte[length];
+    for (int j = 0; j < length; j++)
+      bytes[j] = chunk.get(pos + 2 + j);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   *  Build a column file from the externalId field of an index.  The
+   *  blob is written in term order while the offsets are collected in
+   *  memory, and the offsets are written after the blob.
+   *  @param file The column file to write.
+   *  @param reader The index.
+   *  @throws IOException
+   */
+  public static void build(File file, IndexReader reader) throws IOException {
+    Terms terms = MultiFields.getTerms(reader, "externalId");
+    if (terms == null) {
+      throw new IOException("The index has no externalId field.");
+    }
+    Bits liveDocs = MultiFields.getLiveDocs(reader);
+
+    long[] offsets = new long[reader.maxDoc()];
+    Arrays.fill(offsets, -1);
+
+    //  The blob length is needed for the header, so the blob is sized
+    //  with a first pass over the terms.
+
+    long blobLength = 0;
+    TermsEnum te = terms.iterator(null);
+    BytesRef term;
+    while ((term = te.next()) != null) {
+      blobLength = entryOffset(blobLength, term.length) + 2 + term.length;
+    }
+
+    DataOutputStream out = IndexSideFile.create(file, MAGIC, FORMAT, reader);
+    try {
+      out.writeLong(blobLength);
+      out.writeInt(0);
+
+      long position = 0;
+      DocsEnum docs = null;
+      te = terms.iterator(null);
+      while ((term = te.next()) != null) {
+        long offset = entryOffset(position, term.length);
+        for (; position < offset; position++)
+          out.writeByte(0);
+
+        out.writeShort(term.length);
+        out.write(term.bytes, term.offset, term.length);
+        position += 2 + term.length;
+
+        docs = te.docs(liveDocs, docs, DocsEnum.FLAG_NONE);
+        int docid;
+        while ((docid = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+          offsets[docid] = offset;
+      }
+
+      for (int i = 0; i < offsets.length; i++)
+        out.writeLong(offsets[i]);
+    } catch (IOException e) {
+      out.close();
+      throw e;
+    }
+    IndexSideFile.commit(out, file);
+  }
+
+  /**
+   *  Get where an entry that would start at position is written, so
+   *  that it doesn't span a chunk boundary.
+   */
+  private static long entryOffset(long position, int length) {
+    long room = IndexSideFile.CHUNK_BYTES - position % IndexSideFile.CHUNK_BYTES;
+    return (room < 2 + length) ? position + room : position;
+  }
+}
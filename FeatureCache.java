@@ -0,0 +1,208 @@
+/**
+ *  FeatureCache keeps the raw (un-normalized) LeToR feature values of
+ *  (query, document) pairs between runs, so that a run that only
+ *  changes letor:featureDisable or the SVM parameters doesn't compute
+ *  the features again.  Normalization is per query and cheap, so it
+ *  is always redone from the raw values.
+ *
+ *  The cache is enabled by letor:featureCachePath.  It is loaded into
+ *  memory when it is opened and written back by {@link #save} if new
+ *  pairs were added.  A read-only cache (see {@link #setReadOnly})
+ *  doesn't keep new pairs, so that a long-running process doesn't
+ *  grow it with every query.  The cache is discarded if it was built from a
+ *  different index version or with different retrieval parameters
+ *  (BM25:*, Indri:*, the PageRank file).  A pair's key includes the
+ *  query text, so editing a query invalidates only that query's pairs.
+ *
+ *  Disabled features aren't computed, so their values are NaN.  Only
+ *  the features that are NaN in a pair's row are computed when the
+ *  pair is used again.
+ *
+ *  File format (all numbers are big-endian), after the
+ *  {@link IndexSideFile} header (magic 0x51454643, "QEFC"):
+ *    long  paramsHash  A hash of the parameters that the values depend on.
+ *    int   size        The number of pairs.
+ *    size keys, each three modified UTF-8 strings: qid, query, external id
+ *    NUM_FEATURES columns of double[size], for features 1..NUM_FEATURES
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.IndexReader;
+
+public class FeatureCache {
+
+  static final int MAGIC = 0x51454643;
+  static final int FORMAT = 1;
+
+  private static final String[] PARAMS = {
+    "BM25:k_1", "BM25:b", "BM25:k_3", "Indri:mu", "Indri:lambda", "letor:pageRankFile"};
+
+  private File file;
+  private IndexReader reader;
+  private long paramsHash;
+  private LinkedHashMap<String, double[]> rows = new LinkedHashMap<String, double[]>();
+  private boolean dirty = false;
+  private boolean readOnly = false;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   *  Open the feature cache named by letor:featureCachePath.
+   *  @param params The parameters read from the parameter file.
+   *  @param reader The index.
+   *  @return The cache, or null if no cache is configured.
+   *  @throws IOException
+   */
+  public static FeatureCache open(Map<String, String> params, IndexReader reader)
+    throws IOException {
+    if (!params.containsKey("letor:featureCachePath"))
+      return null;
+    return new FeatureCache(new File(params.get("letor:featureCachePath")),
+        paramsHash(params), reader);
+  }
+
+  /**
+   *  Load a feature cache, or start an empty one if the file is
+   *  missing or out of date.
+   *  @param file The cache file.
+   *  @param paramsHash The hash of the current parameters.
+   *  @param reader The index.
+   *  @throws IOException
+   */
+  public FeatureCache(File file, long paramsHash, IndexReader reader) throws IOException {
+    this.file = file;
+    this.paramsHash = paramsHash;
+    this.reader = reader;
+
+    if (!IndexSideFile.isCurrent(file, MAGIC, FORMAT, reader))
+      return;
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), 1 << 16));
+    try {
+      in.skipBytes(20);
+      if (in.readLong() != paramsHash) {
+        System.out.println("The feature cache " + file + " has different parameters; " +
+            "it will be rebuilt.");
+        return;
+      }
+
+      int size = in.readInt();
+      String[] keys = new String[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = key(in.readUTF(), in.readUTF(), in.readUTF());
+      }
+      double[][] values = new double[size][LetorFeatures.NUM_FEATURES + 1];
+      for (int j = 1; j <= LetorFeatures.NUM_FEATURES; j++) {
+        for (int i = 0; i < size; i++)
+          values[i][j] = in.readDouble();
+      }
+      for (int i = 0; i < size; i++) {
+        this.rows.put(keys[i], values[i]);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   *  Get the cached raw feature values of a pair.
+   *  @param qid The query id.
+   *  @param query The query text.
+   *  @param exDocID The external document id.
+   *  @return values[j] is the raw value of feature j, or null if the
+   *          pair isn't cached.  The caller must not change it.
+   */
+  public synchronized double[] get(String qid, String query, String exDocID) {
+    double[] values = this.rows.get(key(qid, query, exDocID));
+    if (values == null)
+      this.misses++;
+    else
+      this.hits++;
+    return values;
+  }
+
+  /**
+   *  Add the raw feature values of a pair.
+   *  @param qid The query id.
+   *  @param query The query text.
+   *  @param exDocID The external document id.
+   *  @param values values[j] is the raw value of feature j.
+   */
+  public synchronized void put(String qid, String query, String exDocID, double[] values) {
+    if (this.readOnly)
+      return;
+    this.rows.put(key(qid, query, exDocID), values);
+    this.dirty = true;
+  }
+
+  /**
+   *  Set whether new pairs are ignored instead of added.
+   *  @param readOnly True to only use the pairs that were loaded.
+   */
+  public synchronized void setReadOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+  }
+
+  /**
+   *  Write the cache file, if pairs were added since it was loaded.
+   *  @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    System.out.println("Feature cache:  " + this.hits + " hits, " + this.misses +
+        " misses, " + this.rows.size() + " pairs");
+    if (!this.dirty)
+      return;
+
+    DataOutputStream out = IndexSideFile.create(this.file, MAGIC, FORMAT, this.reader);
+    try {
+      out.writeLong(this.paramsHash);
+      out.writeInt(this.rows.size());
+      for (String key : this.rows.keySet()) {
+        String[] parts = key.split("\t", 3);
+        out.writeUTF(parts[0]);
+        out.writeUTF(parts[1]);
+        out.writeUTF(parts[2]);
+      }
+      for (int j = 1; j <= LetorFeatures.NUM_FEATURES; j++) {
+        for (double[] values : this.rows.values())
+          out.writeDouble(values[j]);
+      }
+    } catch (IOException e) {
+      out.close();
+      throw e;
+    }
+    IndexSideFile.commit(out, this.file);
+    this.dirty = false;
+  }
+
+  private static String key(String qid, String query, String exDocID) {
+    return qid + "\t" + query + "\t" + exDocID;
+  }
+
+  /**
+   *  Hash the parameters that the raw feature values depend on.  The
+   *  PageRank file is identified by its path and modification time.
+   */
+  static long paramsHash(Map<String, String> params) {
+    StringBuilder s = new StringBuilder();
+    for (String key : PARAMS) {
+      s.append(key).append('=').append(params.get(key)).append('\n');
+    }
+    if (params.containsKey("letor:pageRankFile")) {
+      s.append(new File(params.get("letor:pageRankFile")).lastModified());
+    }
+    s.append((QryEval.PAGERANK != null) ? " float" : " double");	// PageRank precision
+
+    //  64-bit FNV-1a.
+
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+}
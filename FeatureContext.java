@@ -0,0 +1,96 @@
+/**
+ *  A FeatureContext holds what the LeToR feature extractors need to
+ *  know about one (query, document) pair.  The document's term vectors
+ *  are decoded at most once per field, the first time that an
+ *  extractor asks for them, and the same TermVector is shared by all
+ *  of the extractors.
+ *  None of the extractors use positions, so the vectors are created in
+ *  frequency-only mode.  They come from the process-wide
+ *  {@link TermVectorCache}, so a document that is a candidate for
+ *  several queries is usually decoded only once per run.
+ *
+ *  The extractors of a query's features run as separate tasks that
+ *  share the query's contexts, so the lazy fetches are synchronized.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.document.Document;
+
+public class FeatureContext {
+
+  int docID;
+  String exDocID;
+  ArrayList<String> queryStems;
+  QueryPostings postings;
+
+  private TermVector[] vectors = new TermVector[LetorFeatures.FIELDS.length];
+  private boolean[] fetched = new boolean[LetorFeatures.FIELDS.length];
+  private Document document;
+
+  /**
+   *  Constructor.
+   *  @param docID The internal id of the document.
+   *  @param exDocID The external id of the document.
+   *  @param queryStems The query's stems.
+   *  @param postings The postings of the query's stems in its
+   *         candidates, which all of the query's contexts share.
+   */
+  public FeatureContext(int docID, String exDocID, ArrayList<String> queryStems,
+      QueryPostings postings) {
+    this.docID = docID;
+    this.exDocID = exDocID;
+    this.queryStems = queryStems;
+    this.postings = postings;
+  }
+
+  /**
+   *  Get the document's term vector for a field.
+   *  @param field One of {@link LetorFeatures#FIELDS}.
+   *  @return The term vector, or null if the document has no such field.
+   *  @throws IOException
+   */
+  public synchronized TermVector getTermVector(String field) throws IOException {
+    int i = fieldIndex(field);
+
+    if (!fetched[i]) {
+      vectors[i] = TermVectorCache.getShared().get(docID, field);
+      fetched[i] = true;
+    }
+    return vectors[i];
+  }
+
+  /**
+   *  Get the postings of the query's stems in a field.
+   *  @param field The field.
+   *  @return The postings; use getTf(docID) for this document.
+   *  @throws IOException
+   */
+  public QueryPostings.FieldPostings getPostings(String field) throws IOException {
+    return postings.get(field);
+  }
+
+  /**
+   *  Get the document's stored fields.
+   *  @return The document.
+   *  @throws IOException
+   */
+  public synchronized Document getDocument() throws IOException {
+    if (document == null) {
+      document = QryEval.READER.document(docID);
+    }
+    return document;
+  }
+
+  /**
+   *  Get the position of a field in {@link LetorFeatures#FIELDS}.
+   */
+  static int fieldIndex(String field) {
+    for (int i = 0; i < LetorFeatures.FIELDS.length; i++) {
+      if (LetorFeatures.FIELDS[i].equals(field))
+        return i;
+    }
+    throw new IllegalArgumentException("Unknown LeToR field " + field);
+  }
+}
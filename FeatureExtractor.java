@@ -0,0 +1,76 @@
+/**
+ *  A FeatureExtractor computes one LeToR feature for a batch of
+ *  candidate documents of one query.  Extractors are registered under
+ *  a feature id in a {@link FeatureRegistry}.  Each feature of a query
+ *  is a separate task, so an extractor may run on several threads at
+ *  once and must not keep per-batch state in fields.
+ *
+ *  An extractor also defines how the per-query min/max reduction that
+ *  normalizes its values starts (see getMaxInit and getMinInit), and
+ *  it counts the documents, time and memory that it uses.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public abstract class FeatureExtractor {
+
+  private AtomicLong docs = new AtomicLong();
+  private AtomicLong nanos = new AtomicLong();
+  private AtomicLong bytes = new AtomicLong();
+
+  /**
+   *  Get the name of the feature, for reports.
+   */
+  public abstract String getName();
+
+  /**
+   *  Compute the raw values of the feature.
+   *  @param batch The candidate documents.
+   *  @param values Where the values are stored; values[i] is the value
+   *         for batch[i].  Double.MAX_VALUE means that the value could
+   *         not be computed (e.g., the document has no such field).
+   *  @throws Exception
+   */
+  protected abstract void extract(FeatureContext[] batch, double[] values) throws Exception;
+
+  /**
+   *  Get the initial max of the min/max reduction.
+   */
+  public double getMaxInit() {
+    return 0;
+  }
+
+  /**
+   *  Get the initial min of the min/max reduction.
+   */
+  public double getMinInit() {
+    return Double.MAX_VALUE;
+  }
+
+  /**
+   *  Compute the raw values of the feature, and count the work.
+   *  @param batch The candidate documents.
+   *  @return values[i] is the value for batch[i].
+   *  @throws Exception
+   */
+  public final double[] run(FeatureContext[] batch) throws Exception {
+    long startBytes = QryMetrics.allocatedBytes();
+    long start = System.nanoTime();
+
+    double[] values = new double[batch.length];
+    extract(batch, values);
+
+    this.nanos.addAndGet(System.nanoTime() - start);
+    this.bytes.addAndGet(QryMetrics.allocatedBytes() - startBytes);
+    this.docs.addAndGet(batch.length);
+    return values;
+  }
+
+  /**
+   *  Get the work counters as a line of text.
+   */
+  public String getStats() {
+    return String.format("%-16s %8d docs %8.1f ms %8.1f MB allocated", getName(),
+        this.docs.get(), this.nanos.get() / 1e6, this.bytes.get() / (1024.0 * 1024.0));
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ *  The BM25 score of a document field (features 5, 8, 11 and 14).
+ */
+
+public class FeatureExtractorBM25 extends FeatureExtractor {
+
+  private String field;
+  private double k_1, b, k_3;
+  private boolean postings;
+
+  /**
+   *  Constructor.
+   *  @param field The field.
+   *  @param k_1 The BM25 k_1 parameter.
+   *  @param b The BM25 b parameter.
+   *  @param k_3 The BM25 k_3 parameter.
+   *  @param postings If true, use the postings of the query's stems
+   *         instead of the documents' term vectors.
+   */
+  public FeatureExtractorBM25(String field, double k_1, double b, double k_3,
+      boolean postings) {
+    this.field = field;
+    this.k_1 = k_1;
+    this.b = b;
+    this.k_3 = k_3;
+    this.postings = postings;
+  }
+
+  public String getName() {
+    return "BM25." + field;
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    for (int i = 0; i < batch.length; i++) {
+      if (postings) {
+        QueryPostings.FieldPostings p = batch[i].getPostings(field);
+        int[] tf = p.getTf(batch[i].docID);
+        values[i] = (tf == null) ? Double.MAX_VALUE :
+            QryEval.getBM25Score(p, tf, batch[i].docID, k_1, b, k_3);
+        continue;
+      }
+
+      TermVector tv = batch[i].getTermVector(field);
+      values[i] = (tv == null) ? Double.MAX_VALUE :
+          QryEval.getBM25Score(tv, batch[i].docID, field, batch[i].queryStems, k_1, b, k_3);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+/**
+ *  Feature 3: 1 if the document is from wikipedia.org, otherwise 0,
+ *  from the {@link DocMetadataStore} or else the stored "rawUrl" field.
+ */
+
+public class FeatureExtractorFromWiki extends FeatureExtractor {
+
+  public String getName() {
+    return "fromWikipedia";
+  }
+
+  public double getMinInit() {
+    return 1;
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    DocMetadataStore meta = QryEval.META;
+    for (int i = 0; i < batch.length; i++) {
+      int docID = batch[i].docID;
+      if (meta != null && meta.getUrlDepth(docID) >= 0) {
+        values[i] = meta.isFromWikipedia(docID) ? 1 : 0;
+      }
+      else {
+        values[i] = batch[i].getDocument().get("rawUrl").contains("wikipedia.org") ? 1 : 0;
+      }
+    }
+  }
+}
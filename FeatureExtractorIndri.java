@@ -0,0 +1,45 @@
+/**
+ *  The Indri score of a document field (features 6, 9, 12 and 15).
+ */
+
+public class FeatureExtractorIndri extends FeatureExtractor {
+
+  private String field;
+  private double mu, lambda;
+  private boolean postings;
+
+  /**
+   *  Constructor.
+   *  @param field The field.
+   *  @param mu The Indri mu parameter.
+   *  @param lambda The Indri lambda parameter.
+   *  @param postings If true, use the postings of the query's stems
+   *         instead of the documents' term vectors.
+   */
+  public FeatureExtractorIndri(String field, double mu, double lambda, boolean postings) {
+    this.field = field;
+    this.mu = mu;
+    this.lambda = lambda;
+    this.postings = postings;
+  }
+
+  public String getName() {
+    return "Indri." + field;
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    for (int i = 0; i < batch.length; i++) {
+      if (postings) {
+        QueryPostings.FieldPostings p = batch[i].getPostings(field);
+        int[] tf = p.getTf(batch[i].docID);
+        values[i] = (tf == null) ? Double.MAX_VALUE :
+            QryEval.getIndriScore(p, tf, batch[i].docID, batch[i].queryStems, mu, lambda);
+        continue;
+      }
+
+      TermVector tv = batch[i].getTermVector(field);
+      values[i] = (tv == null) ? Double.MAX_VALUE :
+          QryEval.getIndriScore(tv, batch[i].docID, field, batch[i].queryStems, mu, lambda);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ *  Feature 17: the lnc.ltc vector space score of the body field.
+ */
+
+public class FeatureExtractorLncLtc extends FeatureExtractor {
+
+  private boolean postings;
+
+  /**
+   *  Constructor.
+   *  @param postings If true, use the postings of the query's stems
+   *         for the dot product.  The document vector's length still
+   *         comes from the term vector.
+   */
+  public FeatureExtractorLncLtc(boolean postings) {
+    this.postings = postings;
+  }
+
+  public String getName() {
+    return "lnc.ltc";
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    for (int i = 0; i < batch.length; i++) {
+      TermVector body = batch[i].getTermVector("body");
+      if (body == null) {
+        values[i] = Double.MAX_VALUE;
+      }
+      else if (postings) {
+        QueryPostings.FieldPostings p = batch[i].getPostings("body");
+        values[i] = QryEval.getLncLtcScore(body, p, p.getTf(batch[i].docID), batch[i].queryStems);
+      }
+      else {
+        values[i] = QryEval.getLncLtcScore(body, batch[i].docID, "body", batch[i].queryStems);
+      }
+    }
+  }
+}
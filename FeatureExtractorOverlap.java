@@ -0,0 +1,67 @@
+/**
+ *  The term overlap of a document field: the fraction of the query's
+ *  stems that occur in it (features 7, 10, 13 and 16).
+ */
+
+import java.util.*;
+
+public class FeatureExtractorOverlap extends FeatureExtractor {
+
+  private String field;
+  private boolean postings;
+
+  /**
+   *  Constructor.
+   *  @param field The field.
+   *  @param postings If true, use the postings of the query's stems
+   *         instead of the documents' term vectors.
+   */
+  public FeatureExtractorOverlap(String field, boolean postings) {
+    this.field = field;
+    this.postings = postings;
+  }
+
+  public String getName() {
+    return "overlap." + field;
+  }
+
+  public double getMinInit() {
+    return 1;
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    for (int i = 0; i < batch.length; i++) {
+      if (postings) {
+        int[] tf = batch[i].getPostings(field).getTf(batch[i].docID);
+        if (tf == null) {
+          values[i] = Double.MAX_VALUE;
+          continue;
+        }
+        int matchCount = 0;
+        for (int k = 0; k < tf.length; k ++) {
+          if (tf[k] > 0) {
+            matchCount ++;
+          }
+        }
+        values[i] = matchCount / (double)batch[i].queryStems.size();
+        continue;
+      }
+
+      TermVector tv = batch[i].getTermVector(field);
+      if (tv == null) {
+        // field doesn't exist!
+        values[i] = Double.MAX_VALUE;
+        continue;
+      }
+
+      ArrayList<String> queryStems = batch[i].queryStems;
+      int matchCount = 0;
+      for (int j = 0; j < tv.stemsLength(); j ++) {
+        if (queryStems.contains(tv.stemString(j))) {
+          matchCount ++;
+        }
+      }
+      values[i] = matchCount / (double)queryStems.size();
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ *  Feature 4: the document's PageRank score, from the
+ *  {@link PageRankStore} or else the PageRank text file's HashMap.
+ */
+
+import java.util.*;
+
+public class FeatureExtractorPageRank extends FeatureExtractor {
+
+  private HashMap<String, Double> pageRanksWhole;
+
+  /**
+   *  Constructor.
+   *  @param pageRanksWhole Maps external document ids to PageRank
+   *         scores.  It is only used if QryEval.PAGERANK is null.
+   */
+  public FeatureExtractorPageRank(HashMap<String, Double> pageRanksWhole) {
+    this.pageRanksWhole = pageRanksWhole;
+  }
+
+  public String getName() {
+    return "pageRank";
+  }
+
+  public double getMaxInit() {
+    return Double.MIN_VALUE;
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    PageRankStore pageRanks = QryEval.PAGERANK;
+    for (int i = 0; i < batch.length; i++) {
+      if (pageRanks != null) {
+        float pageRank = pageRanks.get(batch[i].docID);
+        values[i] = Float.isNaN(pageRank) ? Double.MAX_VALUE : pageRank;
+      }
+      else if (pageRanksWhole.containsKey(batch[i].exDocID)) {
+        values[i] = pageRanksWhole.get(batch[i].exDocID);
+      }
+      else {
+        values[i] = Double.MAX_VALUE;
+      }
+    }
+  }
+}
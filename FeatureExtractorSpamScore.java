@@ -0,0 +1,28 @@
+/**
+ *  Feature 1: the document's spam score (0..99), from the
+ *  {@link DocMetadataStore} or else the stored "score" field.
+ */
+
+public class FeatureExtractorSpamScore extends FeatureExtractor {
+
+  public String getName() {
+    return "spamScore";
+  }
+
+  public double getMinInit() {
+    return 99;
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    DocMetadataStore meta = QryEval.META;
+    for (int i = 0; i < batch.length; i++) {
+      int docID = batch[i].docID;
+      if (meta != null && meta.getSpamScore(docID) >= 0) {
+        values[i] = meta.getSpamScore(docID);
+      }
+      else {
+        values[i] = (double)Integer.parseInt(batch[i].getDocument().get("score"));
+      }
+    }
+  }
+}
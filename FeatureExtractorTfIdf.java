@@ -0,0 +1,37 @@
+/**
+ *  Feature 18: the sum of the tf-idf weights of the query's stems in
+ *  the body field.
+ */
+
+public class FeatureExtractorTfIdf extends FeatureExtractor {
+
+  private boolean postings;
+
+  /**
+   *  Constructor.
+   *  @param postings If true, use the postings of the query's stems
+   *         instead of the documents' term vectors.
+   */
+  public FeatureExtractorTfIdf(boolean postings) {
+    this.postings = postings;
+  }
+
+  public String getName() {
+    return "tf-idf";
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    for (int i = 0; i < batch.length; i++) {
+      if (postings) {
+        QueryPostings.FieldPostings p = batch[i].getPostings("body");
+        int[] tf = p.getTf(batch[i].docID);
+        values[i] = (tf == null) ? Double.MAX_VALUE : QryEval.getTfIdfSum(p, tf);
+        continue;
+      }
+
+      TermVector body = batch[i].getTermVector("body");
+      values[i] = (body == null) ? Double.MAX_VALUE :
+          QryEval.getTfIdfSum(body, batch[i].docID, "body", batch[i].queryStems);
+    }
+  }
+}
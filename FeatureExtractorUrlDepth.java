@@ -0,0 +1,25 @@
+/**
+ *  Feature 2: the depth of the document's URL (the number of '/'
+ *  characters), from the {@link DocMetadataStore} or else the stored
+ *  "rawUrl" field.
+ */
+
+public class FeatureExtractorUrlDepth extends FeatureExtractor {
+
+  public String getName() {
+    return "urlDepth";
+  }
+
+  protected void extract(FeatureContext[] batch, double[] values) throws Exception {
+    DocMetadataStore meta = QryEval.META;
+    for (int i = 0; i < batch.length; i++) {
+      int docID = batch[i].docID;
+      if (meta != null && meta.getUrlDepth(docID) >= 0) {
+        values[i] = meta.getUrlDepth(docID);
+      }
+      else {
+        values[i] = DocMetadataStore.urlDepth(batch[i].getDocument().get("rawUrl"));
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ *  FeatureRegistry maps LeToR feature ids (1..n) to the
+ *  {@link FeatureExtractor}s that compute them.  A new feature is
+ *  added by writing an extractor and registering it under an unused
+ *  id; the scheduling, normalization, caching and output code don't
+ *  change.
+ */
+
+import java.util.*;
+
+public class FeatureRegistry {
+
+  private FeatureExtractor[] extractors = new FeatureExtractor[1];
+
+  /**
+   *  Create the registry of the standard 18 features.
+   *  @param params The parameters read from the parameter file.
+   *  @param pageRanksWhole Maps external document ids to PageRank
+   *         scores.  It is only used if QryEval.PAGERANK is null.
+   *  @return The registry.
+   */
+  public static FeatureRegistry createDefault(Map<String, String> params,
+      HashMap<String, Double> pageRanksWhole) {
+    double k_1 = Double.parseDouble(params.get("BM25:k_1"));
+    double k_3 = Double.parseDouble(params.get("BM25:k_3"));
+    double b = Double.parseDouble(params.get("BM25:b"));
+    double mu = Double.parseDouble(params.get("Indri:mu"));
+    double lambda = Double.parseDouble(params.get("Indri:lambda"));
+
+    //  letor:featureMode=postings reads the query stems' postings
+    //  instead of each candidate's term vectors.
+
+    boolean postings = false;
+    if (params.containsKey("letor:featureMode")) {
+      String mode = params.get("letor:featureMode");
+      if (mode.equals("postings")) {
+        postings = true;
+      } else if (!mode.equals("termvector")) {
+        throw new IllegalArgumentException("Unknown letor:featureMode " + mode);
+      }
+    }
+
+    FeatureRegistry r = new FeatureRegistry();
+    r.register(1, new FeatureExtractorSpamScore());
+    r.register(2, new FeatureExtractorUrlDepth());
+    r.register(3, new FeatureExtractorFromWiki());
+    r.register(4, new FeatureExtractorPageRank(pageRanksWhole));
+    for (int i = 0; i < LetorFeatures.FIELDS.length; i ++) {
+      String field = LetorFeatures.FIELDS[i];
+      r.register(5 + 3 * i, new FeatureExtractorBM25(field, k_1, b, k_3, postings));
+      r.register(6 + 3 * i, new FeatureExtractorIndri(field, mu, lambda, postings));
+      r.register(7 + 3 * i, new FeatureExtractorOverlap(field, postings));
+    }
+    r.register(17, new FeatureExtractorLncLtc(postings));
+    r.register(18, new FeatureExtractorTfIdf(postings));
+    return r;
+  }
+
+  /**
+   *  Register an extractor.
+   *  @param id The feature id (1..n).
+   *  @param extractor The extractor.
+   */
+  public void register(int id, FeatureExtractor extractor) {
+    if (id < 1) {
+      throw new IllegalArgumentException("Feature ids start at 1: " + id);
+    }
+    if (id >= this.extractors.length) {
+      this.extractors = Arrays.copyOf(this.extractors, id + 1);
+    }
+    this.extractors[id] = extractor;
+  }
+
+  /**
+   *  Get the extractor of a feature.
+   *  @param id The feature id.
+   *  @return The extractor, or null if no extractor has the id.
+   */
+  public FeatureExtractor get(int id) {
+    return (id < this.extractors.length) ? this.extractors[id] : null;
+  }
+
+  /**
+   *  Get the largest feature id.
+   */
+  public int maxId() {
+    return this.extractors.length - 1;
+  }
+
+  /**
+   *  Print each extractor's work counters.
+   */
+  public void printStats() {
+    System.out.println("Feature extractors:");
+    for (int id = 1; id < this.extractors.length; id++) {
+      if (this.extractors[id] != null)
+        System.out.println(String.format("  %2d  ", id) + this.extractors[id].getStats());
+    }
+  }
+}
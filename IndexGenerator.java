@@ -0,0 +1,472 @@
+/**
+ *  IndexGenerator writes a synthetic Lucene index with the schema that
+ *  QryEval expects, and the query, qrels and PageRank files that go
+ *  with it, so that the whole pipeline can be run and timed without a
+ *  copy of ClueWeb.
+ *
+ *  Documents:
+ *    body, title, url, inlink  Analyzed with QryEval's analyzer
+ *                  (EnglishAnalyzerConfigurable), with term vectors and
+ *                  positions, and lengths from DocLenStoreSimilarity.
+ *                  The words are drawn from a Zipfian vocabulary of
+ *                  pronounceable pseudo-words, mixed with stopwords.
+ *                  Body lengths are log-normal; titles are short;
+ *                  the url field is the words of the URL; about 40% of
+ *                  the documents have no inlink text, and the rest
+ *                  have a long-tailed amount of it.
+ *    externalId    A ClueWeb09-style id, e.g., clueweb09-en0000-01-00042.
+ *    score         A spam score (percentile) between 0 and 99.
+ *    rawUrl        The URL; a few percent are en.wikipedia.org pages.
+ *
+ *  Each query is a topic of two to four mid-frequency words.  A small
+ *  number of documents per topic are on topic:  their body (and often
+ *  their title and inlink text) repeats most of the topic's words, and
+ *  they are judged relevant (1 or 2).  About as many other documents
+ *  contain some of the words and are judged not relevant (0).  The
+ *  words are also common enough to occur in unjudged documents.
+ *
+ *  The documents are generated in parallel.  Each document is generated
+ *  from its own seed, and the qrels and PageRank files are written in
+ *  a fixed order, so the files are the same for any number of threads;
+ *  only the order of the documents in the index changes.  Nothing but
+ *  the judged documents and each document's PageRank (8 bytes) is kept
+ *  in memory, so the generator scales from thousands to tens of
+ *  millions of documents; for very large indexes, a shorter
+ *  generator:bodyLength keeps the time down.
+ *
+ *  Parameters (the files are only written if their keys are set):
+ *    indexPath                 The index directory.  It is replaced.
+ *    queryFilePath             The test queries, id:query per line.
+ *    eval:qrelsPath            The qrels of the test queries.
+ *    letor:trainingQueryFile   The training queries.
+ *    letor:trainingQrelsFile   The qrels of the training queries.
+ *    letor:pageRankFile        PageRank scores, externalId TAB score,
+ *                              for about 80% of the documents.
+ *    generator:docs            The number of documents.
+ *    generator:queries         The number of queries (default 100).
+ *    generator:trainingQueries The number of them that are training
+ *                              queries (default: half, if
+ *                              letor:trainingQueryFile is set).
+ *    generator:vocabulary      The vocabulary size (default 200000).
+ *    generator:bodyLength      The median body length (default 400).
+ *    generator:seed            The random seed (default 1).
+ *    generator:threads         The number of threads (default: the
+ *                              number of processors).
+ *    generator:ramBufferMB     The IndexWriter buffer (default 256).
+ *    generator:segments        Merge the index down to this many
+ *                              segments (default 1; 0 doesn't merge).
+ *
+ *  Usage:  java IndexGenerator paramFile
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+public class IndexGenerator {
+
+  private static final String[] STOPWORDS = {
+    "the", "of", "and", "to", "a", "in", "is", "for", "that", "on", "with", "as",
+    "by", "it", "was", "at", "from", "this", "be", "or", "are", "an", "not", "you"};
+
+  private static final String CONSONANTS = "bcdfghjklmnprstvz";
+  private static final String VOWELS = "aeiou";
+
+  private static final int RECORDS_PER_FILE = 40000;
+  private static final int FILES_PER_DIRECTORY = 100;
+
+  private int docs;
+  private long seed;
+  private double bodyLength;
+  private String[] vocabulary;
+  private double[] cdf;		// the Zipfian distribution of the vocabulary
+
+  private String[][] topics;	// each query's words
+  private double onTopic;	// the probability that a document is on some topic
+
+  private List<String> qrels = Collections.synchronizedList(new ArrayList<String>());
+  private double[] pageRanks;	// by document number; NaN if none
+
+  /**
+   *  Constructor.  Make the vocabulary and the topics.
+   *  @param params The parameters read from the parameter file.
+   *  @throws IOException
+   */
+  public IndexGenerator(Map<String, String> params) throws IOException {
+    this.docs = Integer.parseInt(params.get("generator:docs"));
+    this.seed = getLong(params, "generator:seed", 1);
+    this.bodyLength = getLong(params, "generator:bodyLength", 400);
+
+    this.vocabulary = makeVocabulary((int) getLong(params, "generator:vocabulary", 200000));
+    this.cdf = new double[this.vocabulary.length];
+    double sum = 0;
+    for (int i = 0; i < this.cdf.length; i++) {
+      sum += 1.0 / (i + 1);
+      this.cdf[i] = sum;
+    }
+    for (int i = 0; i < this.cdf.length; i++)
+      this.cdf[i] /= sum;
+
+    //  Topic words are mid-frequency words.  Each topic has about 60
+    //  documents, but no more than 30% of the collection is on topic.
+
+    int queries = (int) getLong(params, "generator:queries", 100);
+    Random random = new Random(this.seed);
+    int low = Math.min(100, this.vocabulary.length / 4);
+    int high = Math.min(5000, this.vocabulary.length / 2);
+    this.topics = new String[queries][];
+    for (int t = 0; t < queries; t++) {
+      LinkedHashSet<String> words = new LinkedHashSet<String>();
+      int n = 2 + random.nextInt(3);
+      while (words.size() < n)
+        words.add(this.vocabulary[low + random.nextInt(high - low)]);
+      this.topics[t] = words.toArray(new String[n]);
+    }
+    double perTopic = Math.min(60, 0.3 * this.docs / Math.max(1, queries));
+    this.onTopic = (queries == 0) ? 0 : queries * perTopic / this.docs;
+  }
+
+  //  Scramble a seed (the splitmix64 finalizer).  Random's first draws
+  //  are correlated for consecutive seeds.
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static long getLong(Map<String, String> params, String key, long defaultValue) {
+    return params.containsKey(key) ? Long.parseLong(params.get(key)) : defaultValue;
+  }
+
+  /**
+   *  Make a vocabulary of pseudo-words, e.g., "bataku", that the
+   *  analyzer leaves alone, so that a query word matches the indexed
+   *  word.  The words are in order of frequency.
+   */
+  private static String[] makeVocabulary(int size) throws IOException {
+    int syllables = CONSONANTS.length() * VOWELS.length();
+    List<String> words = new ArrayList<String>(size);
+    for (long i = syllables; words.size() < size; i++) {
+      StringBuilder word = new StringBuilder();
+      for (long n = i; n > 0; n /= syllables) {
+        int s = (int) (n % syllables);
+        word.append(CONSONANTS.charAt(s / VOWELS.length())).append(VOWELS.charAt(s % VOWELS.length()));
+      }
+      String[] tokens = QryEval.tokenizeQuery(word.toString());
+      if (tokens.length == 1 && tokens[0].equals(word.toString()))
+        words.add(word.toString());
+    }
+    return words.toArray(new String[size]);
+  }
+
+  //  Draw a word rank from the Zipfian distribution.
+
+  private int zipf(Random random) {
+    int i = Arrays.binarySearch(this.cdf, random.nextDouble());
+    return Math.min((i < 0) ? -i - 1 : i, this.cdf.length - 1);
+  }
+
+  private static int logNormal(Random random, double median, double sigma, int min, int max) {
+    double x = median * Math.exp(sigma * random.nextGaussian());
+    return (int) Math.max(min, Math.min(max, x));
+  }
+
+  //  Fill a field with words.  About 30% of running text is stopwords;
+  //  shift moves the draws away from the most frequent words.
+
+  private String[] text(Random random, int length, double stopwords, int shift) {
+    String[] words = new String[length];
+    for (int i = 0; i < length; i++) {
+      if (random.nextDouble() < stopwords)
+        words[i] = STOPWORDS[random.nextInt(STOPWORDS.length)];
+      else
+        words[i] = this.vocabulary[Math.min(zipf(random) + shift, this.vocabulary.length - 1)];
+    }
+    return words;
+  }
+
+  //  Put each word at tf random places in a field.
+
+  private static String[] plant(Random random, String[] words, String[] topic, int meanTf) {
+    List<String> field = new ArrayList<String>(Arrays.asList(words));
+    for (String word : topic) {
+      int tf = 1 + random.nextInt(2 * meanTf);
+      for (int k = 0; k < tf; k++)
+        field.add(random.nextInt(field.size() + 1), word);
+    }
+    return field.toArray(new String[field.size()]);
+  }
+
+  //  Choose each word with a probability, and at least one word.
+
+  private static String[] some(Random random, String[] words, double p) {
+    List<String> chosen = new ArrayList<String>();
+    for (String word : words)
+      if (random.nextDouble() < p)
+        chosen.add(word);
+    if (chosen.isEmpty())
+      chosen.add(words[random.nextInt(words.length)]);
+    return chosen.toArray(new String[chosen.size()]);
+  }
+
+  private static String join(String[] words) {
+    StringBuilder s = new StringBuilder();
+    for (String word : words) {
+      if (s.length() > 0)
+        s.append(' ');
+      s.append(word);
+    }
+    return s.toString();
+  }
+
+  static String externalId(int d) {
+    int file = d / RECORDS_PER_FILE;
+    return String.format("clueweb09-en%04d-%02d-%05d", file / FILES_PER_DIRECTORY,
+        file % FILES_PER_DIRECTORY, d % RECORDS_PER_FILE);
+  }
+
+  /**
+   *  Generate one document.  Its qrels and PageRank are recorded.
+   *  @param d The document number.
+   *  @param fieldType The type of the analyzed fields.
+   *  @return The document.
+   *  @throws IOException
+   */
+  private Document generate(int d, FieldType fieldType) throws IOException {
+    Random random = new Random(mix(this.seed * 1000003L + d));
+    String externalId = externalId(d);
+
+    //  Is the document on a topic (relevant), or does it only share a
+    //  word with one (judged, not relevant)?
+
+    int topic = -1;
+    int grade = 0;
+    double p = random.nextDouble();
+    if (p < 2 * this.onTopic) {
+      topic = random.nextInt(this.topics.length);
+      grade = (p < this.onTopic) ? ((random.nextInt(10) < 3) ? 2 : 1) : 0;
+    }
+
+    String[] body = text(random, logNormal(random, this.bodyLength, 0.9, 10, 50000), 0.3, 0);
+    String[] title = text(random, (random.nextInt(20) == 0) ? 0 : logNormal(random, 6, 0.4, 1, 30),
+        0.15, 20);
+    String[] inlink = (random.nextInt(10) < 4) ? new String[0] :
+        text(random, logNormal(random, 10, 1.3, 1, 5000), 0.2, 10);
+
+    if (topic >= 0 && grade == 0) {
+      body = plant(random, body, some(random, this.topics[topic], 0.5), 1);
+    } else if (topic >= 0) {
+      body = plant(random, body, some(random, this.topics[topic], 0.6 + 0.2 * grade), 2 * grade);
+      if (random.nextInt(10) < 3 * grade)
+        title = plant(random, title, this.topics[topic], 1);
+      if (inlink.length > 0 && random.nextInt(10) < 3 * grade)
+        inlink = plant(random, inlink, this.topics[topic], grade);
+    }
+
+    String rawUrl;
+    if (random.nextInt(100) < 3) {
+      rawUrl = "http://en.wikipedia.org/wiki/" + this.vocabulary[200 + zipf(random) %
+          (this.vocabulary.length - 200)];
+    } else {
+      StringBuilder url = new StringBuilder("http://www.");
+      url.append(this.vocabulary[zipf(random)]).append(this.vocabulary[zipf(random)]).append(".com");
+      int depth = random.nextInt(5);
+      for (int k = 0; k < depth; k++)
+        url.append('/').append(this.vocabulary[zipf(random)]);
+      if (depth > 0)
+        url.append(".html");
+      rawUrl = url.toString();
+    }
+
+    Document doc = new Document();
+    doc.add(new StringField("externalId", externalId, Field.Store.YES));
+    doc.add(new StoredField("score", Integer.toString(grade > 0 ? 40 + random.nextInt(60) :
+        random.nextInt(100))));
+    doc.add(new StoredField("rawUrl", rawUrl));
+    doc.add(new Field("body", join(body), fieldType));
+    if (title.length > 0)
+      doc.add(new Field("title", join(title), fieldType));
+    doc.add(new Field("url", rawUrl.replaceAll("[^a-z0-9]+", " ").trim(), fieldType));
+    if (inlink.length > 0)
+      doc.add(new Field("inlink", join(inlink), fieldType));
+
+    if (topic >= 0)
+      this.qrels.add((topic + 1) + " 0 " + externalId + " " + grade);
+    if (random.nextInt(10) < 8) {
+      this.pageRanks[d] = Math.exp(1.2 + 0.5 * random.nextGaussian()) +
+          Math.log1p(inlink.length) + grade;
+    }
+    return doc;
+  }
+
+  /**
+   *  Write the index and the other files.
+   *  @param params The parameters read from the parameter file.
+   *  @throws Exception
+   */
+  public void write(Map<String, String> params) throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (params.containsKey("generator:threads")) {
+      threads = Integer.parseInt(params.get("generator:threads"));
+    }
+    threads = Math.max(1, threads);
+
+    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43, QryEval.analyzer);
+    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    config.setSimilarity(new DocLenStoreSimilarity());
+    config.setRAMBufferSizeMB(getLong(params, "generator:ramBufferMB", 256));
+    config.setMaxThreadStates(threads);
+    final IndexWriter writer =
+        new IndexWriter(FSDirectory.open(new File(params.get("indexPath"))), config);
+
+    final FieldType fieldType = new FieldType(TextField.TYPE_NOT_STORED);
+    fieldType.setStoreTermVectors(true);
+    fieldType.setStoreTermVectorPositions(true);
+    fieldType.freeze();
+
+    this.pageRanks = new double[this.docs];
+    Arrays.fill(this.pageRanks, Double.NaN);
+
+    //  Each thread generates every threads'th document.
+
+    final long start = System.currentTimeMillis();
+    final AtomicInteger done = new AtomicInteger();
+    final int step = Math.max(1, this.docs / 10);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+    for (int t = 0; t < threads; t++) {
+      final int first = t;
+      final int stride = threads;
+      tasks.add(pool.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          for (int d = first; d < docs; d += stride) {
+            writer.addDocument(generate(d, fieldType));
+            int n = done.incrementAndGet();
+            if (n % step == 0) {
+              long ms = System.currentTimeMillis() - start;
+              System.out.println("Generated " + n + " documents in " + ms + " ms (" +
+                  (n * 1000L / Math.max(1, ms)) + " documents/s)");
+            }
+          }
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> task : tasks)
+        QryEvalBatch.get(task);
+    } finally {
+      pool.shutdown();
+    }
+    writePageRanks(params.get("letor:pageRankFile"));
+
+    int segments = (int) getLong(params, "generator:segments", 1);
+    if (segments > 0) {
+      writer.forceMerge(segments);
+    }
+    writer.close();
+    System.out.println("Wrote " + this.docs + " documents to " + params.get("indexPath") +
+        " in " + (System.currentTimeMillis() - start) + " ms");
+
+    writeQueries(params);
+  }
+
+  /**
+   *  Write the PageRank scores in document order.
+   *  @param path The PageRank file, or null to skip it.
+   *  @throws IOException
+   */
+  private void writePageRanks(String path) throws IOException {
+    if (path != null) {
+      BufferedWriter out = new BufferedWriter(new FileWriter(path));
+      for (int d = 0; d < this.docs; d++) {
+        if (!Double.isNaN(this.pageRanks[d])) {
+          out.write(externalId(d) + "\t" + this.pageRanks[d]);
+          out.newLine();
+        }
+      }
+      out.close();
+    }
+    this.pageRanks = null;
+  }
+
+  /**
+   *  Write the queries and their qrels.  The first training queries
+   *  are training queries; the rest are test queries.
+   */
+  private void writeQueries(Map<String, String> params) throws IOException {
+    int training = 0;
+    if (params.containsKey("letor:trainingQueryFile")) {
+      training = (int) getLong(params, "generator:trainingQueries", this.topics.length / 2);
+    }
+    training = Math.min(training, this.topics.length);
+
+    //  Sort the qrels by query id and then by document, as
+    //  trec_eval and QryEval expect.
+
+    List<String[]> judgments = new ArrayList<String[]>();
+    for (String line : this.qrels)
+      judgments.add(line.split(" "));
+    Collections.sort(judgments, new Comparator<String[]>() {
+      public int compare(String[] a, String[] b) {
+        int qa = Integer.parseInt(a[0]);
+        int qb = Integer.parseInt(b[0]);
+        return (qa != qb) ? ((qa < qb) ? -1 : 1) : a[2].compareTo(b[2]);
+      }
+    });
+
+    write(params.get("letor:trainingQueryFile"), params.get("letor:trainingQrelsFile"),
+        0, training, judgments);
+    write(params.get("queryFilePath"), params.get("eval:qrelsPath"),
+        training, this.topics.length, judgments);
+  }
+
+  //  Write the queries and qrels of topics [from, to), to the files
+  //  that are set.
+
+  private void write(String queryPath, String qrelsPath, int from, int to,
+      List<String[]> judgments) throws IOException {
+    if (queryPath != null) {
+      BufferedWriter out = new BufferedWriter(new FileWriter(queryPath));
+      for (int t = from; t < to; t++) {
+        out.write((t + 1) + ":" + join(this.topics[t]));
+        out.newLine();
+      }
+      out.close();
+    }
+    if (qrelsPath != null) {
+      BufferedWriter out = new BufferedWriter(new FileWriter(qrelsPath));
+      for (String[] judgment : judgments) {
+        int t = Integer.parseInt(judgment[0]) - 1;
+        if (t >= from && t < to) {
+          out.write(judgment[0] + " " + judgment[1] + " " + judgment[2] + " " + judgment[3]);
+          out.newLine();
+        }
+      }
+      out.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage:  java IndexGenerator paramFile");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+    if (!params.containsKey("indexPath") || !params.containsKey("generator:docs")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+
+    IndexGenerator generator = new IndexGenerator(params);
+    generator.write(params);
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ *  IndexSideFile has the code that is shared by the binary files that
+ *  are built from an index and stored next to it (docid dictionary,
+ *  external id column, etc).  Each file starts with the same header:
+ *    int   magic        Identifies the kind of file.
+ *    int   format       The version of the file format.
+ *    long  indexVersion The index version that the file was built from.
+ *    int   maxDoc       The index's maxDoc when the file was built.
+ *  followed by 12 bytes that each kind of file may use as it likes.
+ *  A file is rebuilt when its header doesn't match the open index.
+ *
+ *  Files are memory-mapped in chunks of at most 1 GB.  Writers lay out
+ *  their records so that no record spans two chunks.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+
+public class IndexSideFile {
+
+  static final int HEADER_LENGTH = 32;
+
+  static final long CHUNK_BYTES = 1L << 30;
+
+  /**
+   *  Get the path of a side file from the parameter file, or the
+   *  default path, which is the index path plus a suffix.
+   *  @param params The parameters read from the parameter file.
+   *  @param key The parameter that overrides the default path.
+   *  @param suffix The suffix of the default path, e.g., ".docids".
+   *  @return The side file.
+   */
+  static File path(Map<String, String> params, String key, String suffix) {
+    if (params.containsKey(key))
+      return new File(params.get(key));
+    return new File(params.get("indexPath") + suffix);
+  }
+
+  /**
+   *  Get the version of an index, or 0 if it isn't a DirectoryReader.
+   */
+  static long indexVersion(IndexReader reader) {
+    if (reader instanceof DirectoryReader)
+      return ((DirectoryReader) reader).getVersion();
+    return 0;
+  }
+
+  /**
+   *  Check whether a side file exists and was built from this index.
+   */
+  static boolean isCurrent(File file, int magic, int format, IndexReader reader)
+    throws IOException {
+
+    if (!file.exists())
+      return false;
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      return in.readInt() == magic && in.readInt() == format &&
+          in.readLong() == indexVersion(reader) && in.readInt() == reader.maxDoc();
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   *  Start writing a side file.  The data is written to a temporary
+   *  file that {@link #commit} renames, so that a crash never leaves
+   *  a partial file behind.  The first 20 bytes of the header are
+   *  written; the caller writes the other 12.
+   */
+  static DataOutputStream create(File file, int magic, int format, IndexReader reader)
+    throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmpFile(file)), 1 << 16));
+    out.writeInt(magic);
+    out.writeInt(format);
+    out.writeLong(indexVersion(reader));
+    out.writeInt(reader.maxDoc());
+    return out;
+  }
+
+  /**
+   *  Close a side file that was started by {@link #create} and move it
+   *  into place.
+   */
+  static void commit(DataOutputStream out, File file) throws IOException {
+    out.close();
+    if ((file.exists() && !file.delete()) || !tmpFile(file).renameTo(file)) {
+      throw new IOException("Can't write " + file.getPath());
+    }
+  }
+
+  private static File tmpFile(File file) {
+    return new File(file.getPath() + ".tmp");
+  }
+
+  /**
+   *  Memory-map the header of a side file and check its magic number
+   *  and format.
+   */
+  static ByteBuffer mapHeader(File file, int magic, int format) throws IOException {
+    ByteBuffer header = map(file, 0, HEADER_LENGTH, HEADER_LENGTH)[0];
+    if (header.getInt(0) != magic || header.getInt(4) != format) {
+      throw new IOException("Not the expected kind of file: " + file.getPath());
+    }
+    return header;
+  }
+
+  /**
+   *  Memory-map a region of a file read-only, in chunks.
+   *  @param file The file.
+   *  @param offset Where the region starts.
+   *  @param length The length of the region.
+   *  @param chunkBytes The length of each chunk (the last may be shorter).
+   *  @return The chunks.
+   *  @throws IOException
+   */
+  static ByteBuffer[] map(File file, long offset, long length, long chunkBytes)
+    throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      int n = (int) ((length + chunkBytes - 1) / chunkBytes);
+      ByteBuffer[] chunks = new ByteBuffer[n];
+      for (int c = 0; c < n; c++) {
+        long start = c * chunkBytes;
+        chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start,
+            Math.min(chunkBytes, length - start));
+      }
+      return chunks;
+    } finally {
+      raf.close();	// The mappings stay valid after the file is closed.
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/**
+ *  IndexWarmer runs an optional warmup phase after the index is open,
+ *  so that the first real queries don't pay for page faults in the
+ *  index files, the loading of the norms, and JIT compilation of the
+ *  query operators.  Each step is enabled separately in the parameter
+ *  file:
+ *
+ *    warmup:files      true to read every index file once, which puts
+ *                      it in the operating system's page cache.
+ *    warmup:norms      true to create the shared DocLengthStore and
+ *                      read the length of every document in every
+ *                      field that has norms.
+ *    warmup:topTerms   N to read the statistics and the postings
+ *                      (with positions) of the N most frequent terms
+ *                      of every field (default 0).
+ *    warmup:queryFile  A query file (id:query per line) that is
+ *                      evaluated with BM25 in rounds, until the time
+ *                      of a round is within warmup:tolerance of the
+ *                      previous one (default 0.1), or until
+ *                      warmup:maxRounds rounds are done (default 5).
+ *                      The {@link QryMetrics} are reset afterwards, so
+ *                      they only count the real queries.
+ *
+ *  The time of each step is printed, and the index counts as warm
+ *  when all of the enabled steps are done.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+public class IndexWarmer {
+
+  /**
+   *  Run the warmup steps that are enabled in the parameter file.  The
+   *  index must already be open.
+   *  @param params The parameters read from the parameter file.
+   *  @throws Exception
+   */
+  public static void warm(Map<String, String> params) throws Exception {
+    long start = System.currentTimeMillis();
+    boolean any = false;
+
+    if ("true".equals(params.get("warmup:files"))) {
+      long t = System.currentTimeMillis();
+      long bytes = readFiles(new File(params.get("indexPath")));
+      System.out.println("Warmup:  read " + (bytes >> 20) + " MB of index files in " +
+          (System.currentTimeMillis() - t) + " ms");
+      any = true;
+    }
+
+    if ("true".equals(params.get("warmup:norms"))) {
+      long t = System.currentTimeMillis();
+      long tokens = readNorms();
+      System.out.println("Warmup:  read the norms (" + tokens + " tokens) in " +
+          (System.currentTimeMillis() - t) + " ms");
+      any = true;
+    }
+
+    if (params.containsKey("warmup:topTerms")) {
+      int n = Integer.parseInt(params.get("warmup:topTerms"));
+      if (n > 0) {
+        long t = System.currentTimeMillis();
+        long postings = readTopTerms(n);
+        System.out.println("Warmup:  read " + postings + " postings of the top " + n +
+            " terms of each field in " + (System.currentTimeMillis() - t) + " ms");
+        any = true;
+      }
+    }
+
+    if (params.containsKey("warmup:queryFile")) {
+      int maxRounds = 5;
+      if (params.containsKey("warmup:maxRounds")) {
+        maxRounds = Integer.parseInt(params.get("warmup:maxRounds"));
+      }
+      double tolerance = 0.1;
+      if (params.containsKey("warmup:tolerance")) {
+        tolerance = Double.parseDouble(params.get("warmup:tolerance"));
+      }
+      replay(new File(params.get("warmup:queryFile")), params, maxRounds, tolerance);
+      QryMetrics.reset();
+      any = true;
+    }
+
+    if (any) {
+      System.out.println("Warmup:  warm after " + (System.currentTimeMillis() - start) + " ms");
+    }
+  }
+
+  /**
+   *  Read every file in the index directory.
+   *  @return The number of bytes read.
+   */
+  private static long readFiles(File dir) throws IOException {
+    long bytes = 0;
+    byte[] buffer = new byte[1 << 20];
+    File[] files = dir.listFiles();
+    if (files == null)
+      return 0;
+    for (File file : files) {
+      if (!file.isFile())
+        continue;
+      InputStream in = new FileInputStream(file);
+      try {
+        int n;
+        while ((n = in.read(buffer)) > 0)
+          bytes += n;
+      } finally {
+        in.close();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   *  Read the length of every document in every field that has norms.
+   *  @return The total length of the documents, over all fields.
+   */
+  private static long readNorms() throws IOException {
+    IndexReader reader = QryEval.READER;
+    DocLengthStore lengths = QryEval.getDocLengthStore();
+    long sum = 0;
+    for (String field : MultiFields.getIndexedFields(reader)) {
+      if (MultiDocValues.getNormValues(reader, field) == null)
+        continue;	// e.g., the external id field omits norms
+      for (int docid = 0; docid < reader.maxDoc(); docid++)
+        sum += lengths.getDocLength(field, docid);
+    }
+    return sum;
+  }
+
+  /**
+   *  Read the statistics and the postings of the n most frequent
+   *  terms of every field.
+   *  @return The number of postings read.
+   */
+  private static long readTopTerms(int n) throws IOException {
+    IndexReader reader = QryEval.READER;
+    long postings = 0;
+
+    for (String field : MultiFields.getIndexedFields(reader)) {
+      Terms terms = MultiFields.getTerms(reader, field);
+      if (terms == null)
+        continue;
+      terms.getSumTotalTermFreq();
+      terms.getDocCount();
+
+      //  Find the top n terms by df with a min-heap.
+
+      PriorityQueue<Object[]> top = new PriorityQueue<Object[]>(n + 1, new Comparator<Object[]>() {
+        public int compare(Object[] a, Object[] b) {
+          return ((Integer) a[0]).compareTo((Integer) b[0]);
+        }
+      });
+      TermsEnum termsEnum = terms.iterator(null);
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        int df = termsEnum.docFreq();
+        if (top.size() < n || df > (Integer) top.peek()[0]) {
+          top.add(new Object[] {df, BytesRef.deepCopyOf(term)});
+          if (top.size() > n)
+            top.poll();
+        }
+      }
+
+      for (Object[] entry : top) {
+        BytesRef bytes = (BytesRef) entry[1];
+        Term t = new Term(field, bytes);
+        reader.docFreq(t);
+        reader.totalTermFreq(t);
+        DocsAndPositionsEnum positions =
+            MultiFields.getTermPositionsEnum(reader, null, field, bytes);
+        if (positions == null)
+          continue;
+        while (positions.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          int freq = positions.freq();
+          for (int k = 0; k < freq; k++)
+            positions.nextPosition();
+          postings++;
+        }
+      }
+    }
+    return postings;
+  }
+
+  /**
+   *  Evaluate the queries of a query file with BM25 in rounds, until
+   *  the time of a round settles.
+   */
+  private static void replay(File queryFile, Map<String, String> params, int maxRounds,
+      double tolerance) throws Exception {
+    ArrayList<String> queries = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new FileReader(queryFile));
+    String line;
+    while ((line = in.readLine()) != null) {
+      int colon = line.indexOf(':');
+      if (colon >= 0)
+        queries.add(line.substring(colon + 1));
+    }
+    in.close();
+
+    RetrievalModel model = new RetrievalModelBM25();
+    model.setParameter("k_1", Double.parseDouble(params.get("BM25:k_1")));
+    model.setParameter("b", Double.parseDouble(params.get("BM25:b")));
+    model.setParameter("k_3", Double.parseDouble(params.get("BM25:k_3")));
+
+    long last = -1;
+    for (int round = 1; round <= maxRounds; round++) {
+      long t = System.nanoTime();
+      for (String query : queries)
+        QryEval.getTopDocs(query, model, 100);
+      long elapsed = System.nanoTime() - t;
+      System.out.printf("Warmup:  round %d of %d queries in %.1f ms%n", round,
+          queries.size(), elapsed / 1e6);
+
+      if (last > 0 && Math.abs(elapsed - last) <= tolerance * last)
+        return;
+      last = elapsed;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/**
+ *  InvListStats holds the statistics of a SCORE operator's inverted
+ *  list that BM25 and Indri scores are computed from: the field, df,
+ *  ctf, and for each posting the document, tf and document length.
+ *  None of them depend on the retrieval model's parameters, so a
+ *  query can be scored with many parameter values from one reading of
+ *  its inverted lists (see {@link RetrievalModel#invListStats}).
+ */
+
+import java.io.*;
+
+public class InvListStats {
+
+  String field;
+  int df;
+  int ctf;
+  int[] docids;
+  int[] tf;
+  long[] doclen;
+
+  /**
+   *  Collect the statistics of an inverted list.
+   *  @param list The inverted list.
+   *  @throws IOException
+   */
+  public InvListStats(InvList list) throws IOException {
+    DocLengthStore dls = QryEval.getDocLengthStore();
+
+    this.field = list.field;
+    this.df = list.df;
+    this.ctf = list.ctf;
+    this.docids = new int[list.df];
+    this.tf = new int[list.df];
+    this.doclen = new long[list.df];
+    for (int i = 0; i < list.df; i++) {
+      InvList.DocPosting posting = list.postings.get(i);
+      this.docids[i] = posting.docid;
+      this.tf[i] = posting.tf;
+      this.doclen[i] = dls.getDocLength(list.field, posting.docid);
+    }
+  }
+}
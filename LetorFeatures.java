@@ -0,0 +1,418 @@
+/**
+ *  LetorFeatures computes learning-to-rank feature vectors for a set
+ *  of queries and their candidate documents, and writes them in the
+ *  SVM-rank format.
+ *
+ *  The features are computed by the {@link FeatureExtractor}s of a
+ *  {@link FeatureRegistry}.  Every (query, feature) pair is an
+ *  independent task that computes the raw values of one feature for
+ *  all of the query's candidates, and disabled features aren't
+ *  computed at all.  The tasks run on a work-stealing pool.  When all
+ *  of the tasks for a query are done, the per-query min/max values are
+ *  found by a reduction over the documents in their original order,
+ *  and the normalized vectors are written.  The reduction and the
+ *  output happen in the same order as a sequential run, so the feature
+ *  file is identical no matter how many threads are used.
+ *
+ *  A query's feature values are a dense matrix of primitive doubles:
+ *  row i is candidate document i, and column j is feature j (column 0
+ *  is unused, so that columns and feature ids are the same).
+ *
+ *  The number of threads is set by letor:featureThreads in the
+ *  parameter file.  It defaults to the number of processors.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LetorFeatures {
+
+  static final String[] FIELDS = {"body", "title", "url", "inlink"};
+
+  static final int NUM_FEATURES = 18;
+
+  private static final QryMetrics.Histogram FEATURES = QryMetrics.stage("features");
+  private static final QryMetrics.Histogram CLASSIFY = QryMetrics.stage("classify");
+  private static final QryMetrics.Counter VALUES_COMPUTED = QryMetrics.counter(
+      "qryeval_feature_values_total", "The feature values computed, by source.",
+      "source", "computed");
+  private static final QryMetrics.Counter VALUES_CACHED = QryMetrics.counter(
+      "qryeval_feature_values_total", "The feature values computed, by source.",
+      "source", "cache");
+
+  private FeatureRegistry registry;
+  private boolean[] disabled = new boolean[NUM_FEATURES + 1];
+  private ForkJoinPool pool;
+  private FeatureCache cache;
+  private boolean verbose = true;
+
+  /**
+   *  Constructor.
+   *  @param params The parameters read from the parameter file.
+   *  @param pageRanksWhole Maps external document ids to PageRank
+   *         scores.  It is only used if QryEval.PAGERANK is null.
+   *  @param disableIDs The ids of the features that are not written.
+   */
+  public LetorFeatures(Map<String, String> params, HashMap<String, Double> pageRanksWhole,
+      ArrayList<Integer> disableIDs) {
+    this.registry = FeatureRegistry.createDefault(params, pageRanksWhole);
+    for (int j = 1; j <= NUM_FEATURES; j ++) {
+      this.disabled[j] = disableIDs.contains(j) || this.registry.get(j) == null;
+    }
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (params.containsKey("letor:featureThreads")) {
+      threads = Integer.parseInt(params.get("letor:featureThreads"));
+    }
+    this.pool = new ForkJoinPool(Math.max(1, threads));
+
+    try {
+      this.cache = FeatureCache.open(params, QryEval.READER);
+    } catch (IOException e) {
+      System.err.println("Warning: Can't open feature cache " +
+          params.get("letor:featureCachePath") + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   *  Set whether each query's id and text are printed when its
+   *  features are done (the default), as a progress report.
+   *  @param verbose True to print the queries.
+   */
+  public void setVerbose(boolean verbose) {
+    this.verbose = verbose;
+  }
+
+  /**
+   *  Set whether the feature cache only serves the pairs that it was
+   *  loaded with.  Pairs that are computed aren't added to it.
+   *  @param readOnly True to stop adding pairs to the cache.
+   */
+  public void setCacheReadOnly(boolean readOnly) {
+    if (this.cache != null) {
+      this.cache.setReadOnly(readOnly);
+    }
+  }
+
+  /**
+   *  Compute and write the feature vectors of a set of queries.
+   *  @param qids The query ids, in output order.
+   *  @param queries Maps each query id to its query string.
+   *  @param qidToExDocIDs Maps each query id to its candidate documents.
+   *  @param qidToRels Maps each query id to the relevance of its
+   *         candidates, or null if relevance is unknown (written as 0).
+   *  @param writer Where the feature vectors are written.
+   *  @throws Exception
+   */
+  public void write(List<String> qids, Map<String, String> queries,
+      Map<String, ArrayList<String>> qidToExDocIDs, Map<String, ArrayList<Integer>> qidToRels,
+      BufferedWriter writer) throws Exception {
+    write(qids, queries, qidToExDocIDs, qidToRels, writer, null);
+  }
+
+  /**
+   *  Compute and write the feature vectors of a set of queries, and
+   *  also give them to a trainer.
+   *  @param qids The query ids, in output order.
+   *  @param queries Maps each query id to its query string.
+   *  @param qidToExDocIDs Maps each query id to its candidate documents.
+   *  @param qidToRels Maps each query id to the relevance of its
+   *         candidates, or null if relevance is unknown (written as 0).
+   *  @param writer Where the feature vectors are written.
+   *  @param trainer The trainer, or null.
+   *  @throws Exception
+   */
+  public void write(List<String> qids, Map<String, String> queries,
+      Map<String, ArrayList<String>> qidToExDocIDs, Map<String, ArrayList<Integer>> qidToRels,
+      BufferedWriter writer, RankSvmTrainer trainer) throws Exception {
+
+    List<QueryJob> jobs = submit(qids, queries, qidToExDocIDs);
+
+    for (int q = 0; q < qids.size(); q++) {
+      String qid = qids.get(q);
+      ArrayList<String> exDocIDs = qidToExDocIDs.get(qid);
+      double[][] matrix = collect(jobs.get(q));
+
+      double[][] vectors = new double[matrix.length][];
+      int[] rels = new int[matrix.length];
+      for (int i = 0; i < matrix.length; i++) {
+        rels[i] = (qidToRels == null) ? 0 : qidToRels.get(qid).get(i);
+        writeVector(writer, rels[i], qid, exDocIDs.get(i), matrix[i]);
+        if (trainer != null) {
+          vectors[i] = getVector(matrix[i], new double[NUM_FEATURES + 1]);
+        }
+      }
+      if (trainer != null) {
+        trainer.addQuery(vectors, rels);
+      }
+    }
+  }
+
+  /**
+   *  Compute the feature vectors of a set of queries and score them
+   *  with a linear model.  Each query is scored as soon as its
+   *  documents' features are done.
+   *  @param qids The query ids, in output order.
+   *  @param queries Maps each query id to its query string.
+   *  @param qidToExDocIDs Maps each query id to its candidate documents.
+   *  @param model The model.
+   *  @param writer Where the feature vectors are written, or null if
+   *         they are not written.
+   *  @return The scores of each query's candidates, in qids order.
+   *  @throws Exception
+   */
+  public List<double[]> score(List<String> qids, Map<String, String> queries,
+      Map<String, ArrayList<String>> qidToExDocIDs, SvmRankModel model,
+      BufferedWriter writer) throws Exception {
+
+    List<QueryJob> jobs = submit(qids, queries, qidToExDocIDs);
+    List<double[]> scores = new ArrayList<double[]>();
+    double[] vector = new double[NUM_FEATURES + 1];
+
+    for (int q = 0; q < qids.size(); q++) {
+      String qid = qids.get(q);
+      ArrayList<String> exDocIDs = qidToExDocIDs.get(qid);
+      double[][] matrix = collect(jobs.get(q));
+
+      long start = System.nanoTime();
+      double[] queryScores = new double[matrix.length];
+      for (int i = 0; i < matrix.length; i++) {
+        queryScores[i] = model.score(getVector(matrix[i], vector));
+
+        if (writer != null) {
+          writeVector(writer, 0, qid, exDocIDs.get(i), matrix[i]);
+        }
+      }
+      CLASSIFY.since(start);
+      scores.add(queryScores);
+    }
+    return scores;
+  }
+
+  //  One query's work.  The matrix starts with the raw values that
+  //  are in the feature cache and NaN for the others.  There is a task
+  //  for each enabled feature that some documents are missing; it
+  //  computes the feature for those documents (rows).
+
+  private static class QueryJob {
+    String qid;
+    String query;
+    ArrayList<String> exDocIDs;
+    double[][] matrix;
+    List<Integer> featureIds = new ArrayList<Integer>();
+    List<int[]> rows = new ArrayList<int[]>();
+    List<Future<double[]>> tasks = new ArrayList<Future<double[]>>();
+  }
+
+  /**
+   *  Submit every (query, feature) pair before waiting for any of
+   *  them, so that the pool always has work to steal.
+   *  @return The work of each query, in qids order.
+   */
+  private List<QueryJob> submit(List<String> qids, Map<String, String> queries,
+      Map<String, ArrayList<String>> qidToExDocIDs) throws Exception {
+
+    List<QueryJob> jobs = new ArrayList<QueryJob>();
+
+    for (String qid : qids) {
+      QueryJob job = new QueryJob();
+      job.qid = qid;
+      job.query = queries.get(qid);
+      job.exDocIDs = qidToExDocIDs.get(qid);
+
+      String[] stems = QryEval.tokenizeQuery(job.query);
+      ArrayList<String> queryStems = new ArrayList<String>(Arrays.asList(stems));
+      int[] docIDs = QryEval.getInternalDocids(job.exDocIDs);
+
+      int n = docIDs.length;
+      QueryPostings postings = new QueryPostings(docIDs, queryStems);
+      FeatureContext[] contexts = new FeatureContext[n];
+      job.matrix = new double[n][];
+      for (int i = 0; i < n; i++) {
+        contexts[i] = new FeatureContext(docIDs[i], job.exDocIDs.get(i), queryStems, postings);
+        double[] cached = (cache == null) ? null : cache.get(qid, job.query, job.exDocIDs.get(i));
+        if (cached != null) {
+          job.matrix[i] = cached.clone();
+        } else {
+          job.matrix[i] = new double[NUM_FEATURES + 1];
+          Arrays.fill(job.matrix[i], Double.NaN);
+        }
+      }
+
+      for (int j = 1; j <= NUM_FEATURES; j ++) {
+        if (disabled[j])
+          continue;
+
+        int[] rows = missingRows(job.matrix, j);
+        VALUES_CACHED.add(n - rows.length);
+        VALUES_COMPUTED.add(rows.length);
+        if (rows.length == 0)
+          continue;
+
+        final FeatureExtractor extractor = registry.get(j);
+        final FeatureContext[] batch = new FeatureContext[rows.length];
+        for (int k = 0; k < rows.length; k++)
+          batch[k] = contexts[rows[k]];
+
+        job.featureIds.add(j);
+        job.rows.add(rows);
+        job.tasks.add(this.pool.submit(new Callable<double[]>() {
+          public double[] call() throws Exception {
+            long start = System.nanoTime();
+            double[] values = extractor.run(batch);
+            FEATURES.since(start);
+            return values;
+          }
+        }));
+      }
+      jobs.add(job);
+    }
+    return jobs;
+  }
+
+  /**
+   *  Get the rows of a matrix that don't have a value for feature j.
+   */
+  private static int[] missingRows(double[][] matrix, int j) {
+    int n = 0;
+    for (int i = 0; i < matrix.length; i++) {
+      if (Double.isNaN(matrix[i][j]))
+        n++;
+    }
+    int[] rows = new int[n];
+    n = 0;
+    for (int i = 0; i < matrix.length; i++) {
+      if (Double.isNaN(matrix[i][j]))
+        rows[n++] = i;
+    }
+    return rows;
+  }
+
+  /**
+   *  Wait for one query's tasks, add the new values to the feature
+   *  cache, and normalize the query's feature values.
+   *  @return The query's normalized feature matrix, in candidate order.
+   */
+  private double[][] collect(QueryJob job) throws Exception {
+    if (this.verbose)
+      System.out.println(job.qid + ":" + job.query);
+
+    double[][] matrix = job.matrix;
+    boolean[] changed = new boolean[matrix.length];
+    for (int t = 0; t < job.tasks.size(); t++) {
+      int j = job.featureIds.get(t);
+      int[] rows = job.rows.get(t);
+      double[] values = QryEvalBatch.get(job.tasks.get(t));
+      for (int k = 0; k < rows.length; k++) {
+        matrix[rows[k]][j] = values[k];
+        changed[rows[k]] = true;
+      }
+    }
+
+    if (cache != null) {
+      for (int i = 0; i < matrix.length; i++) {
+        if (changed[i])
+          cache.put(job.qid, job.query, job.exDocIDs.get(i), matrix[i].clone());
+      }
+    }
+
+    normalize(matrix);
+    return matrix;
+  }
+
+  /**
+   *  Stop the worker threads, and save the feature cache.
+   *  @throws IOException
+   */
+  public void shutdown() throws IOException {
+    this.pool.shutdown();
+    this.registry.printStats();
+    if (this.cache != null) {
+      this.cache.save();
+    }
+  }
+
+  /**
+   *  Normalize the feature values of a query's documents to [0..1],
+   *  in place.  The min/max values of each column are found by
+   *  visiting the documents in order, exactly as a sequential run
+   *  does; because a value can only lower the min if it didn't raise
+   *  the max, the result depends on that order.  Each column's
+   *  reduction starts at its extractor's getMaxInit and getMinInit.
+   *  Missing values (Double.MAX_VALUE) are skipped, and become 0.
+   *  Disabled features are not normalized.
+   *  @param matrix The raw feature values of the query's documents.
+   */
+  void normalize(double[][] matrix) {
+    for (int j = 1; j <= NUM_FEATURES; j ++) {
+      if (disabled[j])
+        continue;
+
+      double max = registry.get(j).getMaxInit();
+      double min = registry.get(j).getMinInit();
+
+      // find the min/max values
+      for (int i = 0; i < matrix.length; i ++) {
+        double v = matrix[i][j];
+        if (v == Double.MAX_VALUE) {
+          continue;
+        }
+        if (v > max) {
+          max = v;
+        }
+        else if (v < min) {
+          min = v;
+        }
+      }
+
+      // normalize feature values
+      for (int i = 0; i < matrix.length; i ++) {
+        matrix[i][j] = normalize(matrix[i][j], min, max);
+      }
+    }
+  }
+
+  /**
+   *  Normalize a value that may be missing (Double.MAX_VALUE).  Missing
+   *  values, and all values when min equals max, become 0.
+   */
+  static double normalize(double value, double min, double max) {
+    if (max != min && value != Double.MAX_VALUE) {
+      return (value - min) / (max - min);
+    }
+    return 0.0;
+  }
+
+  /**
+   *  Get the feature vector of a document: vector[j] is the normalized
+   *  value of feature j, or 0 if feature j is disabled.
+   *  @param values The document's row of the feature matrix.
+   *  @param vector Where the values are stored (length NUM_FEATURES + 1).
+   *  @return vector
+   */
+  double[] getVector(double[] values, double[] vector) {
+    for (int j = 1; j <= NUM_FEATURES; j ++) {
+      vector[j] = disabled[j] ? 0.0 : values[j];
+    }
+    return vector;
+  }
+
+  /**
+   *  Write one feature vector in SVM-rank format.
+   */
+  void writeVector(BufferedWriter writer, int rel, String qid, String exDocID,
+      double[] values) throws IOException {
+    writer.write(rel + " qid:" + qid + " ");
+
+    for (int j = 1; j <= NUM_FEATURES; j ++) {
+      if (!disabled[j]) {
+        writer.write(j + ":" + Double.toString(values[j]));
+        writer.write(" ");
+      }
+    }
+
+    writer.write("# " + exDocID);
+    writer.newLine();
+  }
+}
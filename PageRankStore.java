@@ -0,0 +1,151 @@
+/**
+ *  PageRankStore holds the PageRank score of every document as a
+ *  float column indexed by internal docid.  It replaces reading the
+ *  letor:pageRankFile text file into a HashMap keyed by external id,
+ *  which needs gigabytes of heap for a large collection.
+ *
+ *  The text file (one "externalId<TAB>score" per line) is converted
+ *  once, using the {@link DocidDictionary} to find internal docids.
+ *  The binary file is written next to the index and memory-mapped by
+ *  later runs.  It is rebuilt when the index or the text file changes.
+ *  It can also be converted offline with
+ *    java PageRankStore indexPath pageRankFile [file]
+ *
+ *  File format (all numbers are big-endian), after the
+ *  {@link IndexSideFile} header (magic 0x51455052, "QEPR"):
+ *    long  lastModified  The modification time of the text file.
+ *    int   unused
+ *    float[maxDoc]       PageRank scores, NaN if a document has none.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+
+public class PageRankStore {
+
+  static final int MAGIC = 0x51455052;
+  static final int FORMAT = 1;
+
+  private ByteBuffer[] scores;
+  private int maxDoc;
+
+  /**
+   *  Convert a PageRank text file for an index.
+   *  @param args The index path, the text file, and optionally the
+   *         file to write.
+   *  @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage:  java PageRankStore indexPath pageRankFile [file]");
+      System.exit(1);
+    }
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(args[0])));
+    DocidDictionary docids = DocidDictionary.open(new File(args[0] + ".docids"), reader);
+    File file = new File((args.length > 2) ? args[2] : args[0] + ".pagerank");
+    build(file, new File(args[1]), reader, docids);
+    reader.close();
+  }
+
+  /**
+   *  Open the PageRank file for an index, converting the text file
+   *  first if the binary file is missing or out of date.
+   *  @param file The binary PageRank file.
+   *  @param textFile The PageRank text file.
+   *  @param reader The index.
+   *  @param docids Used to map external ids to internal ids.
+   *  @return The store.
+   *  @throws IOException
+   */
+  public static PageRankStore open(File file, File textFile, IndexReader reader,
+      DocidDictionary docids) throws IOException {
+    if (!IndexSideFile.isCurrent(file, MAGIC, FORMAT, reader) ||
+        (textFile.exists() && textFile.lastModified() != lastModified(file))) {
+      System.out.println("Converting PageRank file " + textFile.getPath());
+      build(file, textFile, reader, docids);
+    }
+    return new PageRankStore(file);
+  }
+
+  /**
+   *  Memory-map a PageRank file.
+   *  @param file The binary PageRank file.
+   *  @throws IOException
+   */
+  public PageRankStore(File file) throws IOException {
+    ByteBuffer header = IndexSideFile.mapHeader(file, MAGIC, FORMAT);
+    this.maxDoc = header.getInt(16);
+    this.scores = IndexSideFile.map(file, IndexSideFile.HEADER_LENGTH, 4L * this.maxDoc,
+        IndexSideFile.CHUNK_BYTES);
+  }
+
+  /**
+   *  Get the PageRank score of a document.
+   *  @param docid The internal document id.
+   *  @return The score, or NaN if the document has none.
+   */
+  public float get(int docid) {
+    if (docid < 0 || docid >= this.maxDoc)
+      return Float.NaN;
+
+    long i = 4L * docid;
+    return this.scores[(int) (i / IndexSideFile.CHUNK_BYTES)]
+        .getFloat((int) (i % IndexSideFile.CHUNK_BYTES));
+  }
+
+  private static long lastModified(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.skipBytes(20);
+      return in.readLong();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   *  Convert a PageRank text file to a binary PageRank file.  Lines
+   *  for documents that aren't in the index are ignored.
+   *  @param file The binary file to write.
+   *  @param textFile The PageRank text file.
+   *  @param reader The index.
+   *  @param docids Used to map external ids to internal ids.
+   *  @throws IOException
+   */
+  public static void build(File file, File textFile, IndexReader reader,
+      DocidDictionary docids) throws IOException {
+    float[] scores = new float[reader.maxDoc()];
+    Arrays.fill(scores, Float.NaN);
+
+    BufferedReader in = new BufferedReader(new FileReader(textFile), 1 << 16);
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab < 0)
+          continue;
+        int docid = docids.lookup(line.substring(0, tab).trim());
+        if (docid >= 0)
+          scores[docid] = Float.parseFloat(line.substring(tab + 1).trim());
+      }
+    } finally {
+      in.close();
+    }
+
+    DataOutputStream out = IndexSideFile.create(file, MAGIC, FORMAT, reader);
+    try {
+      out.writeLong(textFile.lastModified());
+      out.writeInt(0);
+      for (int i = 0; i < scores.length; i++)
+        out.writeFloat(scores[i]);
+    } catch (IOException e) {
+      out.close();
+      throw e;
+    }
+    IndexSideFile.commit(out, file);
+  }
+}
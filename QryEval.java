@@ -31,8 +31,50 @@ public class QryEval {	// NOW HW5
   //  isn't great programming style, but the alternative is for every
   //  query operator to store or pass this value, which creates its
   //  own headaches.
+  //
+  //  READER is opened once, before any query is evaluated, and is
+  //  only read afterwards.  Lucene readers are safe to share between
+  //  threads, so batch evaluation threads use it directly.
 
-  public static IndexReader READER;
+  public static volatile IndexReader READER;
+
+  //  Document lengths are shared by every query operator and every
+  //  thread.  The store is created lazily, after READER is open.
+
+  private static volatile DocLengthStore docLengthStore;
+
+  //  Maps external document ids to internal document ids.  It is null
+  //  if the dictionary file could not be opened or built, in which
+  //  case getInternalDocid searches the index instead.
+
+  static DocidDictionary DOCIDS;
+
+  //  Maps internal document ids to external document ids.  If it is
+  //  null, getExternalDocid reads the stored document instead.
+
+  static ExternalIdColumn EXTIDS;
+
+  //  Static document properties (spam score, URL depth, from
+  //  Wikipedia) for the LeToR features.  If it is null, the features
+  //  read the stored documents instead.
+
+  static DocMetadataStore META;
+
+  //  PageRank scores by internal docid for LeToR feature 4.  If it is
+  //  null, the letor:pageRankFile text file is read into a HashMap.
+
+  static PageRankStore PAGERANK;
+
+  //  The latency of each stage of query evaluation (see QryMetrics).
+
+  static final QryMetrics.Histogram PARSE = QryMetrics.stage("parse");
+  static final QryMetrics.Histogram SCORE = QryMetrics.stage("score");
+  static final QryMetrics.Histogram TOPK = QryMetrics.stage("topk");
+  static final QryMetrics.Histogram IDS = QryMetrics.stage("ids");
+  static final QryMetrics.Histogram TRAIN = QryMetrics.stage("train");
+  static final QryMetrics.Histogram OUTPUT = QryMetrics.stage("output");
+  static final QryMetrics.Counter QUERIES = QryMetrics.counter(
+      "qryeval_queries_total", "The queries evaluated.");
 
   //  Create and configure an English analyzer that will be used for
   //  query parsing.
@@ -50,6 +92,22 @@ public class QryEval {	// NOW HW5
    *  @throws Exception
    */
   public static void main(String[] args) throws Exception {
+    try {
+      run(args);
+    } catch (IllegalArgumentException e) {
+      // e.g., a query syntax error (see fatalError)
+      System.err.println("Error:  " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   *  Run QryEval.  An invalid query or parameter is reported by
+   *  throwing an IllegalArgumentException.
+   *  @param args The only argument is the path to the parameter file.
+   *  @throws Exception
+   */
+  static void run(String[] args) throws Exception {
     
     // set the beginning timer
 	//long beginTime = System.currentTimeMillis();
@@ -61,15 +119,7 @@ public class QryEval {	// NOW HW5
     }
 
     // read in the parameter file; one parameter per line in format of key=value
-    Map<String, String> params = new HashMap<String, String>();
-    Scanner scan = new Scanner(new File(args[0]));
-    String line = null;
-    do {
-      line = scan.nextLine();
-      String[] pair = line.split("=");
-      params.put(pair[0].trim(), pair[1].trim());
-    } while (scan.hasNext());
-    scan.close();
+    Map<String, String> params = readParameters(args[0]);
     
     // parameters required for this example to run
     if (!params.containsKey("indexPath") || !params.containsKey("queryFilePath")
@@ -79,24 +129,18 @@ public class QryEval {	// NOW HW5
       System.exit(1);
     }
 
-    // open the index
-    READER = DirectoryReader.open(FSDirectory.open(new File(params.get("indexPath"))));
+    // open the index and its side files
+    openIndex(params);
 
-    if (READER == null) {
-      System.err.println(usage);
-      System.exit(1);
-    }
-
-    DocLengthStore s = new DocLengthStore(READER);
+    DocLengthStore s = getDocLengthStore();
 
     //RetrievalModel model = null;    
     if (params.get("retrievalAlgorithm").equals("letor")) {
       if (!params.containsKey("letor:trainingQueryFile") || !params.containsKey("letor:trainingQrelsFile") ||
     		  !params.containsKey("letor:trainingFeatureVectorsFile") || !params.containsKey("letor:pageRankFile") ||
-    		  !params.containsKey("letor:svmRankLearnPath") ||
-    		  !params.containsKey("letor:svmRankClassifyPath") || !params.containsKey("letor:svmRankParamC") ||
-    		  !params.containsKey("letor:svmRankModelFile") || !params.containsKey("letor:testingFeatureVectorsFile") ||
-    		  !params.containsKey("letor:testingDocumentScores")) {
+    		  !params.containsKey("letor:svmRankParamC") || !params.containsKey("letor:svmRankModelFile") ||
+    		  (!params.containsKey("letor:svmRankLearnPath") &&
+    		   !"internal".equals(params.get("letor:svmRankTrainer")))) {
 		System.err.println("Error: LeToR parameters were missing.");
 		System.exit(1);
       }
@@ -120,13 +164,13 @@ public class QryEval {	// NOW HW5
     double mu = Double.parseDouble(params.get("Indri:mu"));
     double lambda = Double.parseDouble(params.get("Indri:lambda"));
     
-    ArrayList<Integer> disableIDs = new ArrayList<Integer>();
-    if (params.containsKey("letor:featureDisable")) {
-      String[] disableRaw = params.get("letor:featureDisable").split(",");    
-      for (int i = 0; i < disableRaw.length; i ++) {
-        disableIDs.add(Integer.parseInt(disableRaw[i]));
-      }
-    }
+    ArrayList<Integer> disableIDs = getFeatureDisable(params);
+    
+    TermVectorCache.configure(params);
+    QryProfile.configure(params);
+
+    // warmup:* preloads the index and replays queries, if it is enabled
+    IndexWarmer.warm(params);
 
     /*
      *  The code below is an unorganized set of examples that show
@@ -168,21 +212,18 @@ public class QryEval {	// NOW HW5
     
     BufferedReader brTrainQuery = new BufferedReader(new FileReader(trainQueryFile)); 
     BufferedReader brTrainQrels = new BufferedReader(new FileReader(trainQrelsFile));
-    BufferedReader brPageRank = new BufferedReader(new FileReader(pageRankFile));
     BufferedWriter bwFeatureTrain = new BufferedWriter(new FileWriter(featureFile));
     
     HashMap<String, String> queriesTrain = new HashMap<String, String>();
     //HashMap<String, ArrayList<String>> qidToDocsTrain = new HashMap<String, ArrayList<String>>();
-    HashMap<String, Double> pageRanksWhole = new HashMap<String, Double>(); 
+    HashMap<String, Double> pageRanksWhole = null;
     ArrayList<String> queryIDsTrain = new ArrayList<String>();
     
     
-    // store pagerank into hashmap
-    String linePageRank = null;
-    while ((linePageRank = brPageRank.readLine()) != null) {
-      pageRanksWhole.put(linePageRank.split("\\t")[0].trim(), Double.parseDouble(linePageRank.split("\\t")[1].trim()));
+    // store pagerank into hashmap, unless the binary PageRank file is open
+    if (PAGERANK == null) {
+      pageRanksWhole = readPageRanks(pageRankFile);
     }
-    brPageRank.close();
     
     
     // get training queries
@@ -195,7 +236,6 @@ public class QryEval {	// NOW HW5
     brTrainQuery.close();
     
     // analyze each query and its relevance judgement
-    String fields[] = {"body", "title", "url", "inlink"};
     HashMap<String, ArrayList<String>> qidToDocIDsTrain = new HashMap<String, ArrayList<String>>();
     HashMap<String, ArrayList<Integer>> qidToRels = new HashMap<String, ArrayList<Integer>>();    
     
@@ -220,364 +260,15 @@ public class QryEval {	// NOW HW5
     
     System.out.println("Training: ");
     
-    // for each query
-    for (String qid : queryIDsTrain) {
-      System.out.println(qid + ":" + queriesTrain.get(qid));
-    	
-      String[] stems = QryEval.tokenizeQuery(queriesTrain.get(qid));
-      ArrayList<String> queryStems = new ArrayList<String>();
-      for (int i = 0; i < stems.length; i ++) {
-        queryStems.add(stems[i]);
-      }
-    	
-      ArrayList<String> exDocIDs = qidToDocIDsTrain.get(qid);
-      ArrayList<Integer> rels = qidToRels.get(qid);     
-      ArrayList<Integer> docIDs = new ArrayList<Integer>();
-      
-      for (String exID : exDocIDs) {
-    	docIDs.add(QryEval.getInternalDocid(exID));
-      }
-      
-      // define features for each specific query
-      ArrayList<Double> spamScores = new ArrayList<Double>();
-      ArrayList<Double> urlDepths = new ArrayList<Double>();
-      ArrayList<Double> fromWikis = new ArrayList<Double>();
-      ArrayList<Double> pageRanks = new ArrayList<Double>();
-      ArrayList<HashMap<String, Double>> BM25Scores = new ArrayList<HashMap<String, Double>>();
-      ArrayList<HashMap<String, Double>> IndriScores = new ArrayList<HashMap<String, Double>>();
-      ArrayList<HashMap<String, Double>> overlapScores = new ArrayList<HashMap<String, Double>>();
-      
-      // custom features
-      ArrayList<Double> lncltcScores = new ArrayList<Double>();
-      ArrayList<Double> tfIdfScores = new ArrayList<Double>();
-      
-      double maxSpamScore = 0;
-      double minSpamScore = 99;
-      double maxUrlDepth = 0;
-      double minUrlDepth = Double.MAX_VALUE;
-      double maxPageRank = Double.MIN_VALUE;
-      double minPageRank = Double.MAX_VALUE;
-      double maxFromWiki = 0;
-      double minFromWiki = 1;
-      HashMap<String, Double> maxBM25Score = new HashMap<String, Double>();
-      HashMap<String, Double> minBM25Score = new HashMap<String, Double>();
-      HashMap<String, Double> maxIndriScore = new HashMap<String, Double>();
-      HashMap<String, Double> minIndriScore = new HashMap<String, Double>();
-      HashMap<String, Double> maxOverlapScore = new HashMap<String, Double>();
-      HashMap<String, Double> minOverlapScore = new HashMap<String, Double>();
-      
-      // custom max/min
-      double maxLncltcScore = 0;
-      double minLncltcScore = Double.MAX_VALUE;
-      double maxTfIdfScore = 0;
-      double minTfIdfScore = Double.MAX_VALUE;
-      
-      for (int i = 0; i < fields.length; i ++) {
-        maxBM25Score.put(fields[i], 0.0);
-        minBM25Score.put(fields[i], Double.MAX_VALUE);
-        maxIndriScore.put(fields[i], 0.0);
-        minIndriScore.put(fields[i], Double.MAX_VALUE);
-        maxOverlapScore.put(fields[i], 0.0);
-        minOverlapScore.put(fields[i], 1.0);
-      }    
-      
-      // for each document for this query
-      for (Integer docID : docIDs) {
-        //double pageRank = 0;     
-      
-        String exDocID = QryEval.getExternalDocid(docID);
-             
-        // get page rank
-        if (pageRanksWhole.containsKey(exDocID)) {
-          double rankTmp = pageRanksWhole.get(exDocID);
-          pageRanks.add(rankTmp);
-          if (rankTmp > maxPageRank) {
-            maxPageRank = rankTmp;
-          }
-          else if (rankTmp < minPageRank) {
-            minPageRank = rankTmp;
-          }
-        }
-        else {
-          pageRanks.add(Double.MAX_VALUE);
-        }
-      
-        // get spam score
-        Document d = QryEval.READER.document(docID);
-        double spamScore = (double)Integer.parseInt(d.get("score"));
-        spamScores.add(spamScore);
-        if (spamScore > maxSpamScore) {
-          maxSpamScore = spamScore;
-        }
-        else if (spamScore < minSpamScore) {
-          minSpamScore = spamScore;
-        }
-        
-        /*List<IndexableField> fieldList = d.getFields();
-        for (IndexableField field : fieldList) {
-          System.out.println(field.name());
-        }*/
-        //System.out.println(d.get("date"));
-      
-        // get url depth and FromWikipedia score
-        String rawUrl = d.get("rawUrl");
-        double urlDepth = 0;      
-        int idTmp = 0;      
-        while ((idTmp = rawUrl.indexOf("/", idTmp)) < rawUrl.length() && idTmp != -1) {
-    	  idTmp ++;
-    	  urlDepth++;
-        }
-        urlDepths.add(urlDepth);
-        if (urlDepth > maxUrlDepth) {
-          maxUrlDepth = urlDepth;
-        }
-        else if (urlDepth < minUrlDepth) {
-          minUrlDepth = urlDepth;
-        }        
-        double fromWiki = rawUrl.contains("wikipedia.org") ? 1 : 0;
-        fromWikis.add(fromWiki);
-        if (fromWiki > maxFromWiki) {
-          maxFromWiki = fromWiki;
-        }
-        else if (fromWiki < minFromWiki) {
-          minFromWiki = fromWiki;
-        }
-      
-        // get BM25, Indri and term overlap scores
-        BM25Scores.add(new HashMap<String, Double>());
-        IndriScores.add(new HashMap<String, Double>());
-        overlapScores.add(new HashMap<String, Double>());
-        
-        for (int i = 0; i < fields.length; i ++) {
-          int idForList = BM25Scores.size() - 1;
-          
-          Terms terms = QryEval.READER.getTermVector(docID, fields[i]);
-          if (terms == null) {
-            // field doesn't exist!
-            //System.out.println("Doc missing field: " + docID + " " + fields[i]);
-        	BM25Scores.get(idForList).put(fields[i], Double.MAX_VALUE);
-            IndriScores.get(idForList).put(fields[i], Double.MAX_VALUE);
-            overlapScores.get(idForList).put(fields[i], Double.MAX_VALUE);
-          }  
-          else {
-            TermVector tv = new TermVector(docID, fields[i]);
-          
-            // get BM25 score
-            double totalBM25Score = getBM25Score(docID, fields[i], queryStems, k_1, b, k_3);
-            BM25Scores.get(idForList).put(fields[i], totalBM25Score);
-            if (totalBM25Score > maxBM25Score.get(fields[i])) {
-              maxBM25Score.put(fields[i], totalBM25Score);
-            }
-            else if (totalBM25Score < minBM25Score.get(fields[i])) {
-              minBM25Score.put(fields[i], totalBM25Score);              
-            }
-          
-            // get Indri score
-            double indriScore = getIndriScore(docID, fields[i], queryStems, mu, lambda);
-            IndriScores.get(idForList).put(fields[i], indriScore);
-            if (indriScore > maxIndriScore.get(fields[i])) {
-              maxIndriScore.put(fields[i], indriScore);
-            }
-            else if (indriScore < minIndriScore.get(fields[i])) {
-              minIndriScore.put(fields[i], indriScore);              
-            }
-          
-            // get term overlap score
-            int matchCount = 0;
-            for (int j = 0; j < tv.stemsLength(); j ++) {
-              if (queryStems.contains(tv.stemString(j))) {
-                matchCount ++;                             
-              }
-            }
-            double overScore = matchCount / (double)queryStems.size();
-            overlapScores.get(idForList).put(fields[i], overScore);
-            if (overScore > maxOverlapScore.get(fields[i])) {
-              maxOverlapScore.put(fields[i], overScore);
-            }
-            else if (overScore < minOverlapScore.get(fields[i])) {
-              minOverlapScore.put(fields[i], overScore);              
-            }            
-          }
-        }
-        
-        // get lnc.ltc score and tf-idf score
-        Terms terms = QryEval.READER.getTermVector(docID, "body");
-        if (terms == null) {
-          // field doesn't exist!
-      	  lncltcScores.add(Double.MAX_VALUE);
-      	  tfIdfScores.add(Double.MAX_VALUE);
-        }
-        else {
-    	  double lncltcScore = getLncLtcScore(docID, "body", queryStems);
-    	  double tfIdfScore = getTfIdfSum(docID, "body", queryStems);
-          lncltcScores.add(lncltcScore);
-          tfIdfScores.add(tfIdfScore);
-          if (lncltcScore > maxLncltcScore) {
-            maxLncltcScore = lncltcScore;
-          }
-          else if (lncltcScore < minLncltcScore) {
-            minLncltcScore = lncltcScore;              
-          } 
-          if (tfIdfScore > maxTfIdfScore) {
-            maxTfIdfScore = tfIdfScore;
-          }
-          else if (tfIdfScore < minTfIdfScore) {
-            minTfIdfScore = tfIdfScore;              
-          } 
-        }
-        
-      }
-      
-      // normalize feature values
-      for (int i = 0; i < docIDs.size(); i ++) {
-        // normalize spam score
-        if (maxSpamScore != minSpamScore) {
-          spamScores.set(i, (spamScores.get(i) - minSpamScore) / (maxSpamScore - minSpamScore));
-        }
-        else {
-          spamScores.set(i, 0.0);
-        }        
-        // normalize page rank
-        if (maxPageRank != minPageRank && pageRanks.get(i) != Double.MAX_VALUE) {
-          pageRanks.set(i, (pageRanks.get(i) - minPageRank) / (maxPageRank - minPageRank));
-        }
-        else {
-          pageRanks.set(i, 0.0);
-        }        
-        // normalize url depth
-        if (maxUrlDepth != minUrlDepth) {
-          urlDepths.set(i, (urlDepths.get(i) - minUrlDepth) / (maxUrlDepth - minUrlDepth));
-        }
-        else {
-          urlDepths.set(i, 0.0);
-        }
-        // normalize fromwikipedia score
-        if (maxFromWiki != minFromWiki) {
-          fromWikis.set(i, (fromWikis.get(i) - minFromWiki) / (maxFromWiki - minFromWiki));
-        }
-        else {
-          fromWikis.set(i, 0.0);
-        }
-        // normalize BM25, Indri, overlap scores
-        for (int j = 0; j < fields.length; j ++) {
-          double bm25Tmp = BM25Scores.get(i).get(fields[j]);
-          double bm25Min = minBM25Score.get(fields[j]);
-          double bm25Max = maxBM25Score.get(fields[j]);
-          if (bm25Max != bm25Min && bm25Tmp != Double.MAX_VALUE) {
-            BM25Scores.get(i).put(fields[j], (bm25Tmp - bm25Min) / (bm25Max - bm25Min));
-          }
-          else {
-        	BM25Scores.get(i).put(fields[j], 0.0);
-          }
-          double indriTmp = IndriScores.get(i).get(fields[j]);
-          double indriMin = minIndriScore.get(fields[j]);
-          double indriMax = maxIndriScore.get(fields[j]);
-          if (indriMax != indriMin && indriTmp != Double.MAX_VALUE) {
-            IndriScores.get(i).put(fields[j], (indriTmp - indriMin) / (indriMax - indriMin));
-          }
-          else {
-        	IndriScores.get(i).put(fields[j], 0.0);
-          }
-          double overlapTmp = overlapScores.get(i).get(fields[j]);
-          double overlapMin = minOverlapScore.get(fields[j]);
-          double overlapMax = maxOverlapScore.get(fields[j]);
-          if (overlapMax != overlapMin && overlapTmp != Double.MAX_VALUE) {
-            overlapScores.get(i).put(fields[j], (overlapTmp - overlapMin) / (overlapMax - overlapMin));
-          }
-          else {
-        	overlapScores.get(i).put(fields[j], 0.0);
-          }          
-        }
-        
-        // normalize lnc.ltc scores
-        if (maxLncltcScore != minLncltcScore && lncltcScores.get(i) != Double.MAX_VALUE) {
-          lncltcScores.set(i, (lncltcScores.get(i) - minLncltcScore) / (maxLncltcScore - minLncltcScore));
-        }
-        else {
-          lncltcScores.set(i, 0.0);
-        } 
-        
-        // normalize tf-idf scores
-        if (maxTfIdfScore != minTfIdfScore && tfIdfScores.get(i) != Double.MAX_VALUE) {
-          tfIdfScores.set(i, (tfIdfScores.get(i) - minTfIdfScore) / (maxTfIdfScore - minTfIdfScore));
-        }
-        else {
-          tfIdfScores.set(i, 0.0);
-        } 
-        
-      }
-      
-      // write the feature vectors to file
-      for (int i = 0; i < docIDs.size(); i ++) {
-        bwFeatureTrain.write(rels.get(i) + " qid:" + qid + " ");
-        
-        for (int j = 1; j <= 18; j ++) {
-          if (!disableIDs.contains(j)) {
-        	bwFeatureTrain.write(j + ":" + "");
-            switch (j) {
-            case 1: 
-              bwFeatureTrain.write(spamScores.get(i).toString());
-              break;
-            case 2:
-              bwFeatureTrain.write(urlDepths.get(i).toString());
-              break;
-            case 3:
-              bwFeatureTrain.write(fromWikis.get(i).toString());
-              break;
-            case 4:
-              bwFeatureTrain.write(pageRanks.get(i).toString());
-              break;
-            case 5:
-              bwFeatureTrain.write(BM25Scores.get(i).get("body").toString());
-              break;
-            case 6:
-              bwFeatureTrain.write(IndriScores.get(i).get("body").toString());
-              break;
-            case 7:
-              bwFeatureTrain.write(overlapScores.get(i).get("body").toString());
-              break;
-            case 8:
-              bwFeatureTrain.write(BM25Scores.get(i).get("title").toString());
-              break;
-            case 9:
-              bwFeatureTrain.write(IndriScores.get(i).get("title").toString());
-              break;
-            case 10:
-              bwFeatureTrain.write(overlapScores.get(i).get("title").toString());
-              break;
-            case 11:
-              bwFeatureTrain.write(BM25Scores.get(i).get("url").toString());
-              break;
-            case 12:
-              bwFeatureTrain.write(IndriScores.get(i).get("url").toString());
-              break;
-            case 13:
-              bwFeatureTrain.write(overlapScores.get(i).get("url").toString());
-              break;
-            case 14:
-              bwFeatureTrain.write(BM25Scores.get(i).get("inlink").toString());
-              break;
-            case 15:
-              bwFeatureTrain.write(IndriScores.get(i).get("inlink").toString());
-              break;
-            case 16:
-              bwFeatureTrain.write(overlapScores.get(i).get("inlink").toString());
-              break;
-            case 17:  
-              bwFeatureTrain.write(lncltcScores.get(i).toString());
-              break;
-            case 18:  
-              bwFeatureTrain.write(tfIdfScores.get(i).toString());
-              break;
-            }
-            bwFeatureTrain.write(" ");
-          }
-        }
-        
-        bwFeatureTrain.write("# " + exDocIDs.get(i));
-        bwFeatureTrain.newLine();
-      }     
-    }    
+    // letor:svmRankTrainer=internal trains in the JVM on the vectors
+    // that are kept in memory, instead of running svm_rank_learn
+    RankSvmTrainer trainer = null;
+    if ("internal".equals(params.get("letor:svmRankTrainer"))) {
+      trainer = new RankSvmTrainer(params);
+    }
+    
+    LetorFeatures features = new LetorFeatures(params, pageRanksWhole, disableIDs);
+    features.write(queryIDsTrain, queriesTrain, qidToDocIDsTrain, qidToRels, bwFeatureTrain, trainer);
     brTrainQrels.close();
     bwFeatureTrain.close();
     
@@ -588,22 +279,29 @@ public class QryEval {	// NOW HW5
     String featureOutputName = params.get("letor:trainingFeatureVectorsFile");
     String modelFileName = params.get("letor:svmRankModelFile");
     
-    Process cmdProc = Runtime.getRuntime().exec(
-    		new String[] {learnPath, "-c", paramC, featureOutputName, modelFileName});
-    BufferedReader stdoutReader = new BufferedReader(
-    		new InputStreamReader(cmdProc.getInputStream()));
-    while ((line = stdoutReader.readLine()) != null) {
-      System.out.println(line);
-    }
-    BufferedReader stderrReader = new BufferedReader(
-    		new InputStreamReader(cmdProc.getErrorStream()));
-    while ((line = stderrReader.readLine()) != null) {
-      System.out.println(line);
-    }        
-    int retValue = cmdProc.waitFor();
-    if (retValue != 0) {
-      throw new Exception("SVM Rank crashed.");
+    long trainStart = System.nanoTime();
+    if (trainer != null) {
+      trainer.writeModel(new File(modelFileName), trainer.train());
+    } else {
+      Process cmdProc = Runtime.getRuntime().exec(
+      		new String[] {learnPath, "-c", paramC, featureOutputName, modelFileName});
+      BufferedReader stdoutReader = new BufferedReader(
+      		new InputStreamReader(cmdProc.getInputStream()));
+      String line = null;
+      while ((line = stdoutReader.readLine()) != null) {
+        System.out.println(line);
+      }
+      BufferedReader stderrReader = new BufferedReader(
+      		new InputStreamReader(cmdProc.getErrorStream()));
+      while ((line = stderrReader.readLine()) != null) {
+        System.out.println(line);
+      }        
+      int retValue = cmdProc.waitFor();
+      if (retValue != 0) {
+        throw new Exception("SVM Rank crashed.");
+      }
     }
+    TRAIN.since(trainStart);
     
     ///////////////////////////////////////
     ///////////////////////////////////////
@@ -615,8 +313,12 @@ public class QryEval {	// NOW HW5
     HashMap<String, String> queriesTest = new HashMap<String, String>();
     HashMap<String, ArrayList<String>> qidToDocIDsTest = new HashMap<String, ArrayList<String>>();
     ArrayList<String> queryIDsTest = new ArrayList<String>();
-    File featureFileTest = new File(params.get("letor:testingFeatureVectorsFile"));
-    BufferedWriter bwFeatureTest = new BufferedWriter(new FileWriter(featureFileTest));
+    // the testing feature vectors are only written if they are wanted
+    BufferedWriter bwFeatureTest = null;
+    if (params.containsKey("letor:testingFeatureVectorsFile")) {
+      File featureFileTest = new File(params.get("letor:testingFeatureVectorsFile"));
+      bwFeatureTest = new BufferedWriter(new FileWriter(featureFileTest));
+    }
     
     RetrievalModel model = new RetrievalModelBM25();
     model.setParameter("k_1", k_1);
@@ -628,435 +330,53 @@ public class QryEval {	// NOW HW5
     File queryFile = new File(params.get("queryFilePath"));
     BufferedReader br = new BufferedReader(new FileReader(queryFile));
     
-    // use BM25 to create initial ranking
     while((tmp = br.readLine()) != null) {
-      Qryop qTree;
-      String[] query = new String[2];
-      query = tmp.split(":");
-      String qid = query[0];
-      queriesTest.put(qid, query[1]);
-      queryIDsTest.add(qid);
-      qidToDocIDsTest.put(qid, new ArrayList<String>());
-      
-      qTree = parseQuery (query[1], model);
-      System.out.println(query[0] + ":" + query[1]);
-      QryResult result = qTree.evaluate (model);
-      //outputResults(BufferedWriter writer, qid, result, nDoc, model);
-      int sz = result.docScores.scores.size();
-      
-      List resultList = new ArrayList();  // list of query results     
-      for (int i = 0; i < sz; i ++) {
-    	// add doc id and score into the resultList
-    	resultList.add(new ResultElement(getExternalDocid (result.docScores.getDocid(i)), result.docScores.getDocidScore(i)));
-      }
-      Collections.sort(resultList, new ResultComparatorRanked());
-      
-      for (int i = 0; i < nDoc && i < sz; i ++) {
-    	ResultElement elemTmp = (ResultElement)resultList.get(i);
-        qidToDocIDsTest.get(qid).add(elemTmp.getId());
-        //System.out.println("Score: " + elemTmp.getScore() + "  ID: " + elemTmp.getId());
-      }      
+      String[] query = tmp.split(":");
+      queriesTest.put(query[0], query[1]);
+      queryIDsTest.add(query[0]);
     }
     br.close();
     
+    // use BM25 to create initial ranking. The queries are independent,
+    // so they are evaluated as a batch and collected in file order.
+    QryEvalBatch batch = QryEvalBatch.create(params);
+    List<ArrayList<String>> topDocs;
+    try {
+      topDocs = batch.evaluate(queryIDsTest, queriesTest, model, nDoc);
+    } finally {
+      batch.shutdown();
+    }
     
-    
-    // for each query
-    for (String qid : queryIDsTest) {
-      System.out.println(qid + ":" + queriesTest.get(qid));
-    	
-      String[] stems = QryEval.tokenizeQuery(queriesTest.get(qid));
-      ArrayList<String> queryStems = new ArrayList<String>();
-      for (int i = 0; i < stems.length; i ++) {
-        queryStems.add(stems[i]);
-      }
-    	
-      ArrayList<String> exDocIDs = qidToDocIDsTest.get(qid);
-      //ArrayList<Integer> rels = qidToRels.get(qid);     
-      ArrayList<Integer> docIDs = new ArrayList<Integer>();
-      
-      /*for (String exID : exDocIDs) {
-    	docIDs.add(QryEval.getInternalDocid(exID));
-      }*/
-      
-      for (int i = 0; i < exDocIDs.size(); i ++) {
-        docIDs.add(QryEval.getInternalDocid(exDocIDs.get(i)));
-      }
-      
-      // define features for each specific query
-      ArrayList<Double> spamScores = new ArrayList<Double>();
-      ArrayList<Double> urlDepths = new ArrayList<Double>();
-      ArrayList<Double> fromWikis = new ArrayList<Double>();
-      ArrayList<Double> pageRanks = new ArrayList<Double>();
-      ArrayList<HashMap<String, Double>> BM25Scores = new ArrayList<HashMap<String, Double>>();
-      ArrayList<HashMap<String, Double>> IndriScores = new ArrayList<HashMap<String, Double>>();
-      ArrayList<HashMap<String, Double>> overlapScores = new ArrayList<HashMap<String, Double>>();
-      
-      // custom features
-      ArrayList<Double> lncltcScores = new ArrayList<Double>();
-      ArrayList<Double> tfIdfScores = new ArrayList<Double>();
-      
-      double maxSpamScore = 0;
-      double minSpamScore = 99;
-      double maxUrlDepth = 0;
-      double minUrlDepth = Double.MAX_VALUE;
-      double maxPageRank = Double.MIN_VALUE;
-      double minPageRank = Double.MAX_VALUE;
-      double maxFromWiki = 0;
-      double minFromWiki = 1;
-      HashMap<String, Double> maxBM25Score = new HashMap<String, Double>();
-      HashMap<String, Double> minBM25Score = new HashMap<String, Double>();
-      HashMap<String, Double> maxIndriScore = new HashMap<String, Double>();
-      HashMap<String, Double> minIndriScore = new HashMap<String, Double>();
-      HashMap<String, Double> maxOverlapScore = new HashMap<String, Double>();
-      HashMap<String, Double> minOverlapScore = new HashMap<String, Double>();
-      
-      // custom max/min
-      double maxLncltcScore = 0;
-      double minLncltcScore = Double.MAX_VALUE;
-      double maxTfIdfScore = 0;
-      double minTfIdfScore = Double.MAX_VALUE;
-      
-      for (int i = 0; i < fields.length; i ++) {
-        maxBM25Score.put(fields[i], 0.0);
-        minBM25Score.put(fields[i], Double.MAX_VALUE);
-        maxIndriScore.put(fields[i], 0.0);
-        minIndriScore.put(fields[i], Double.MAX_VALUE);
-        maxOverlapScore.put(fields[i], 0.0);
-        minOverlapScore.put(fields[i], 1.0);
-      }    
-      
-      // for each document for this query
-      for (int cnt = 0; cnt < docIDs.size(); cnt ++) {
-    	int docID = docIDs.get(cnt);
-        //double pageRank = 0;     
-      
-        String exDocID = QryEval.getExternalDocid(docID);
-      
-        // get page rank
-        if (pageRanksWhole.containsKey(exDocID)) {
-          double rankTmp = pageRanksWhole.get(exDocID);
-          pageRanks.add(rankTmp);
-          if (rankTmp > maxPageRank) {
-            maxPageRank = rankTmp;
-          }
-          else if (rankTmp < minPageRank) {
-            minPageRank = rankTmp;
-          }
-        }
-        else {
-          pageRanks.add(Double.MAX_VALUE);
-        }
-      
-        // get spam score
-        Document d = QryEval.READER.document(docID);
-        double spamScore = (double)Integer.parseInt(d.get("score"));
-        spamScores.add(spamScore);
-        if (spamScore > maxSpamScore) {
-          maxSpamScore = spamScore;
-        }
-        else if (spamScore < minSpamScore) {
-          minSpamScore = spamScore;
-        }
-        
-        //System.out.println(d.get("date"));
-      
-        // get url depth and FromWikipedia score
-        String rawUrl = d.get("rawUrl");
-        double urlDepth = 0;
-        int idTmp = 0;      
-        while ((idTmp = rawUrl.indexOf("/", idTmp)) < rawUrl.length() && idTmp != -1) {
-    	  idTmp ++;
-    	  urlDepth++;
-        }
-        urlDepths.add(urlDepth);
-        if (urlDepth > maxUrlDepth) {
-          maxUrlDepth = urlDepth;
-        }
-        else if (urlDepth < minUrlDepth) {
-          minUrlDepth = urlDepth;
-        }
-        
-        double fromWiki = rawUrl.contains("wikipedia.org") ? 1 : 0;
-        fromWikis.add(fromWiki);
-        if (fromWiki > maxFromWiki) {
-          maxFromWiki = fromWiki;
-        }
-        else if (fromWiki < minFromWiki) {
-          minFromWiki = fromWiki;
-        }
-      
-        // get BM25, Indri and term overlap scores
-        BM25Scores.add(new HashMap<String, Double>());
-        IndriScores.add(new HashMap<String, Double>());
-        overlapScores.add(new HashMap<String, Double>());
-        
-        for (int i = 0; i < fields.length; i ++) {
-          int idForList = BM25Scores.size() - 1;
-          
-          Terms terms = QryEval.READER.getTermVector(docID, fields[i]);
-          if (terms == null) {
-            // field doesn't exist!
-            //System.out.println("Doc missing field: " + docID + " " + fields[i]);
-        	BM25Scores.get(idForList).put(fields[i], Double.MAX_VALUE);
-            IndriScores.get(idForList).put(fields[i], Double.MAX_VALUE);
-            overlapScores.get(idForList).put(fields[i], Double.MAX_VALUE);
-          }  
-          else {
-            TermVector tv = new TermVector(docID, fields[i]);
-          
-            // get BM25 score
-            double totalBM25Score = getBM25Score(docID, fields[i], queryStems, k_1, b, k_3);
-            BM25Scores.get(idForList).put(fields[i], totalBM25Score);
-            if (totalBM25Score > maxBM25Score.get(fields[i])) {
-              maxBM25Score.put(fields[i], totalBM25Score);
-            }
-            else if (totalBM25Score < minBM25Score.get(fields[i])) {
-              minBM25Score.put(fields[i], totalBM25Score);              
-            }
-          
-            // get Indri score            
-            double indriScore = getIndriScore(docID, fields[i], queryStems, mu, lambda);
-            IndriScores.get(idForList).put(fields[i], indriScore);
-            if (indriScore > maxIndriScore.get(fields[i])) {
-              maxIndriScore.put(fields[i], indriScore);
-            }
-            else if (indriScore < minIndriScore.get(fields[i])) {
-              minIndriScore.put(fields[i], indriScore);              
-            }
-          
-            // get term overlap score
-            int matchCount = 0;
-            for (int j = 0; j < tv.stemsLength(); j ++) {
-              if (queryStems.contains(tv.stemString(j))) {
-                matchCount ++;                             
-              }
-            }
-            double overScore = matchCount / (double)queryStems.size();
-            overlapScores.get(idForList).put(fields[i], overScore);
-            if (overScore > maxOverlapScore.get(fields[i])) {
-              maxOverlapScore.put(fields[i], overScore);
-            }
-            else if (overScore < minOverlapScore.get(fields[i])) {
-              minOverlapScore.put(fields[i], overScore);              
-            }            
-          }
-        }
-        
-        // get lnc.ltc score and tf-idf score
-        Terms terms = QryEval.READER.getTermVector(docID, "body");
-        if (terms == null) {
-          // field doesn't exist!
-      	  lncltcScores.add(Double.MAX_VALUE);
-      	  tfIdfScores.add(Double.MAX_VALUE);
-        }
-        else {
-    	  double lncltcScore = getLncLtcScore(docID, "body", queryStems);
-    	  double tfIdfScore = getTfIdfSum(docID, "body", queryStems);
-          lncltcScores.add(lncltcScore);
-          tfIdfScores.add(tfIdfScore);
-          if (lncltcScore > maxLncltcScore) {
-            maxLncltcScore = lncltcScore;
-          }
-          else if (lncltcScore < minLncltcScore) {
-            minLncltcScore = lncltcScore;              
-          } 
-          if (tfIdfScore > maxTfIdfScore) {
-            maxTfIdfScore = tfIdfScore;
-          }
-          else if (tfIdfScore < minTfIdfScore) {
-            minTfIdfScore = tfIdfScore;              
-          } 
-        }
-        
-      }
-      
-      // normalize feature values
-      for (int i = 0; i < docIDs.size(); i ++) {
-        // normalize spam score
-        if (maxSpamScore != minSpamScore) {
-          spamScores.set(i, (spamScores.get(i) - minSpamScore) / (maxSpamScore - minSpamScore));
-        }
-        else {
-          spamScores.set(i, 0.0);
-        }        
-        // normalize page rank
-        if (maxPageRank != minPageRank && pageRanks.get(i) != Double.MAX_VALUE) {
-          pageRanks.set(i, (pageRanks.get(i) - minPageRank) / (maxPageRank - minPageRank));
-        }
-        else {
-          pageRanks.set(i, 0.0);
-        }        
-        // normalize url depth
-        if (maxUrlDepth != minUrlDepth) {
-          urlDepths.set(i, (urlDepths.get(i) - minUrlDepth) / (maxUrlDepth - minUrlDepth));
-        }
-        else {
-          urlDepths.set(i, 0.0);
-        }
-        // normalize fromwikipedia score
-        if (maxFromWiki != minFromWiki) {
-          fromWikis.set(i, (fromWikis.get(i) - minFromWiki) / (maxFromWiki - minFromWiki));
-        }
-        else {
-          fromWikis.set(i, 0.0);
-        }
-        // normalize BM25, Indri, overlap scores
-        for (int j = 0; j < fields.length; j ++) {
-          double bm25Tmp = BM25Scores.get(i).get(fields[j]);
-          double bm25Min = minBM25Score.get(fields[j]);
-          double bm25Max = maxBM25Score.get(fields[j]);
-          if (bm25Max != bm25Min && bm25Tmp != Double.MAX_VALUE) {
-            BM25Scores.get(i).put(fields[j], (bm25Tmp - bm25Min) / (bm25Max - bm25Min));
-          }
-          else {
-        	BM25Scores.get(i).put(fields[j], 0.0);
-          }
-          double indriTmp = IndriScores.get(i).get(fields[j]);
-          double indriMin = minIndriScore.get(fields[j]);
-          double indriMax = maxIndriScore.get(fields[j]);
-          if (indriMax != indriMin && indriTmp != Double.MAX_VALUE) {
-            IndriScores.get(i).put(fields[j], (indriTmp - indriMin) / (indriMax - indriMin));
-          }
-          else {
-        	IndriScores.get(i).put(fields[j], 0.0);
-          }
-          double overlapTmp = overlapScores.get(i).get(fields[j]);
-          double overlapMin = minOverlapScore.get(fields[j]);
-          double overlapMax = maxOverlapScore.get(fields[j]);
-          if (overlapMax != overlapMin && overlapTmp != Double.MAX_VALUE) {
-            overlapScores.get(i).put(fields[j], (overlapTmp - overlapMin) / (overlapMax - overlapMin));
-          }
-          else {
-        	overlapScores.get(i).put(fields[j], 0.0);
-          }          
-        }
-        
-        // normalize lnc.ltc scores
-        if (maxLncltcScore != minLncltcScore && lncltcScores.get(i) != Double.MAX_VALUE) {
-          lncltcScores.set(i, (lncltcScores.get(i) - minLncltcScore) / (maxLncltcScore - minLncltcScore));
-        }
-        else {
-          lncltcScores.set(i, 0.0);
-        } 
-        
-        // normalize tf-idf scores
-        if (maxTfIdfScore != minTfIdfScore && tfIdfScores.get(i) != Double.MAX_VALUE) {
-          tfIdfScores.set(i, (tfIdfScores.get(i) - minTfIdfScore) / (maxTfIdfScore - minTfIdfScore));
-        }
-        else {
-          tfIdfScores.set(i, 0.0);
-        } 
-        
-      }
-      
-      // write the feature vectors to file
-      for (int i = 0; i < docIDs.size(); i ++) {
-        bwFeatureTest.write("0 qid:" + qid + " ");
-        
-        for (int j = 1; j <= 18; j ++) {
-          if (!disableIDs.contains(j)) {
-        	bwFeatureTest.write(j + ":" + "");
-            switch (j) {
-            case 1: 
-              bwFeatureTest.write(spamScores.get(i).toString());
-              break;
-            case 2:
-              bwFeatureTest.write(urlDepths.get(i).toString());
-              break;
-            case 3:
-              bwFeatureTest.write(fromWikis.get(i).toString());
-              break;
-            case 4:
-              bwFeatureTest.write(pageRanks.get(i).toString());
-              break;
-            case 5:
-              bwFeatureTest.write(BM25Scores.get(i).get("body").toString());
-              break;
-            case 6:
-              bwFeatureTest.write(IndriScores.get(i).get("body").toString());
-              break;
-            case 7:
-              bwFeatureTest.write(overlapScores.get(i).get("body").toString());
-              break;
-            case 8:
-              bwFeatureTest.write(BM25Scores.get(i).get("title").toString());
-              break;
-            case 9:
-              bwFeatureTest.write(IndriScores.get(i).get("title").toString());
-              break;
-            case 10:
-              bwFeatureTest.write(overlapScores.get(i).get("title").toString());
-              break;
-            case 11:
-              bwFeatureTest.write(BM25Scores.get(i).get("url").toString());
-              break;
-            case 12:
-              bwFeatureTest.write(IndriScores.get(i).get("url").toString());
-              break;
-            case 13:
-              bwFeatureTest.write(overlapScores.get(i).get("url").toString());
-              break;
-            case 14:
-              bwFeatureTest.write(BM25Scores.get(i).get("inlink").toString());
-              break;
-            case 15:
-              bwFeatureTest.write(IndriScores.get(i).get("inlink").toString());
-              break;
-            case 16:
-              bwFeatureTest.write(overlapScores.get(i).get("inlink").toString());
-              break;
-            case 17:  
-              bwFeatureTest.write(lncltcScores.get(i).toString());
-              break;
-            case 18:  
-              bwFeatureTest.write(tfIdfScores.get(i).toString());
-              break;
-            }
-            bwFeatureTest.write(" ");
-          }
-        }
-        
-        bwFeatureTest.write("# " + exDocIDs.get(i));
-        bwFeatureTest.newLine();
-      }     
-    }    
-    bwFeatureTest.close();
+    for (int i = 0; i < queryIDsTest.size(); i ++) {
+      qidToDocIDsTest.put(queryIDsTest.get(i), topDocs.get(i));
+    }
     
     
-    // test
-    String classifyPath = params.get("letor:svmRankClassifyPath");
-    //String paramC = params.get("letor:svmRankParamC");
-    String featureInputName = params.get("letor:testingFeatureVectorsFile");
-    //String modelFileName = params.get("letor:svmRankModelFile");
-    String scoresFileName = params.get("letor:testingDocumentScores");
     
-    Process cmdProcTest = Runtime.getRuntime().exec(
-    		new String[] {classifyPath, featureInputName, modelFileName, scoresFileName});
-    BufferedReader stdoutReaderTest = new BufferedReader(
-    		new InputStreamReader(cmdProcTest.getInputStream()));
-    while ((line = stdoutReaderTest.readLine()) != null) {
-      System.out.println(line);
-    }
-    BufferedReader stderrReaderTest = new BufferedReader(
-    		new InputStreamReader(cmdProcTest.getErrorStream()));
-    while ((line = stderrReaderTest.readLine()) != null) {
-      System.out.println(line);
-    }        
-    int retValueTest = cmdProcTest.waitFor();
-    if (retValueTest != 0) {
-      throw new Exception("SVM Rank crashed.");
+    // test: score the testing feature vectors in memory with the
+    // linear model that svm_rank_learn wrote
+    SvmRankModel rankModel = new SvmRankModel(new File(modelFileName));
+    List<double[]> testScores =
+        features.score(queryIDsTest, queriesTest, qidToDocIDsTest, rankModel, bwFeatureTest);
+    features.shutdown();
+    if (bwFeatureTest != null) {
+      bwFeatureTest.close();
     }
     
     // re-rank and output
     File outputFile = new File(params.get("trecEvalOutputPath"));
-    File scoresFile = new File(params.get("letor:testingDocumentScores"));
     
     BufferedWriter bwOut = new BufferedWriter(new FileWriter(outputFile));
-    BufferedReader brScore = new BufferedReader(new FileReader(scoresFile));
     
-    for (String qid : queryIDsTest) {
-      List resultList = new ArrayList();  // list of query results     
+    // eval:qrelsPath evaluates the reranked test queries in the JVM
+    TrecEval eval = TrecEval.create(params);
+    List<int[]> rankings = new ArrayList<int[]>();
+    
+    for (int q = 0; q < queryIDsTest.size(); q ++) {
+      long outputStart = System.nanoTime();
+      String qid = queryIDsTest.get(q);
+      double[] scores = testScores.get(q);
+      List<ResultElement> resultList = new ArrayList<ResultElement>();  // list of query results     
         /*for (int i = 0; i < sz; i ++) {
       	// add doc id and score into the resultList
       	resultList.add(new ResultElement(getExternalDocid (result.docScores.getDocid(i)), result.docScores.getDocidScore(i)));
@@ -1064,35 +384,133 @@ public class QryEval {	// NOW HW5
         Collections.sort(resultList, new ResultComparatorRanked());*/
       ArrayList<String> exDocIDs = qidToDocIDsTest.get(qid);
       for (int i = 0; i < exDocIDs.size(); i ++) {
-    	line = brScore.readLine();
-    	double score = Double.parseDouble(line);
-    	resultList.add(new ResultElement(exDocIDs.get(i), score));
+    	resultList.add(new ResultElement(exDocIDs.get(i), scores[i]));
       }
       Collections.sort(resultList, new ResultComparatorRanked());
       
       for (int i = 0; i < resultList.size(); i++) {
-    	ResultElement elemTmp = (ResultElement)resultList.get(i); 
+    	ResultElement elemTmp = resultList.get(i); 
     	bwOut.write(qid + " Q0 " + elemTmp.getId()
     			+ " " + (i+1) + " " + elemTmp.getScore()
     			+ " run-1");
     	bwOut.newLine();
       }
+      OUTPUT.since(outputStart);
       
+      if (eval != null) {
+        List<String> ranked = new ArrayList<String>();
+        for (int i = 0; i < resultList.size(); i++) {
+          ranked.add(resultList.get(i).getId());
+        }
+        rankings.add(getInternalDocids(ranked));
+      }
     }
-    brScore.close();
     bwOut.close();    
+    
+    if (eval != null) {
+      System.out.println("Evaluation:  " + eval.format(eval.evaluate(queryIDsTest, rankings)));
+    }
 
     
     // Later HW assignments will use more RAM, so you want to be aware
     // of how much memory your program uses.
 
+    QryProfile.close();
+    TermVectorCache.getShared().printStats();
+    ResidencyDirectory.printReport(READER);
     printMemoryUsage(false);
+    QryMetrics.write(params);
 
   }
 
   
+  /**
+   *  Read a parameter file; one parameter per line in format of key=value.
+   *  @param path The path to the parameter file.
+   *  @return The parameters.
+   *  @throws IOException
+   */
+  static Map<String, String> readParameters(String path) throws IOException {
+    Map<String, String> params = new HashMap<String, String>();
+    Scanner scan = new Scanner(new File(path));
+    String line = null;
+    do {
+      line = scan.nextLine();
+      String[] pair = line.split("=");
+      params.put(pair[0].trim(), pair[1].trim());
+    } while (scan.hasNext());
+    scan.close();
+    return params;
+  }
+
+  /**
+   *  Open the index in READER, and open (or build) its side files.  A
+   *  side file that can't be opened is skipped with a warning.
+   *  @param params The parameters read from the parameter file.
+   *  @throws IOException
+   */
+  static void openIndex(Map<String, String> params) throws IOException {
+    // residency:* chooses per file whether it is in the heap, mapped, or read from disk
+    READER = DirectoryReader.open(ResidencyDirectory.open(params));
+
+    if (READER == null) {
+      System.err.println(usage);
+      System.exit(1);
+    }
+
+    // open (or build) the docid dictionary and the external id column
+    File docidsFile = IndexSideFile.path(params, "docidDictionaryPath", ".docids");
+    try {
+      DOCIDS = DocidDictionary.open(docidsFile, READER);
+    } catch (IOException e) {
+      System.err.println("Warning: Can't open docid dictionary " + docidsFile +
+          ": " + e.getMessage());
+    }
+    File extidsFile = IndexSideFile.path(params, "externalIdColumnPath", ".extids");
+    try {
+      EXTIDS = ExternalIdColumn.open(extidsFile, READER);
+    } catch (IOException e) {
+      System.err.println("Warning: Can't open external id column " + extidsFile +
+          ": " + e.getMessage());
+    }
+    File metaFile = IndexSideFile.path(params, "letor:docMetadataPath", ".meta");
+    try {
+      META = DocMetadataStore.open(metaFile, READER);
+    } catch (IOException e) {
+      System.err.println("Warning: Can't open document metadata " + metaFile +
+          ": " + e.getMessage());
+    }
+    File pageRankStoreFile = IndexSideFile.path(params, "letor:pageRankStorePath", ".pagerank");
+    if (DOCIDS != null && params.containsKey("letor:pageRankFile")) {
+      try {
+        PAGERANK = PageRankStore.open(pageRankStoreFile,
+            new File(params.get("letor:pageRankFile")), READER, DOCIDS);
+      } catch (IOException e) {
+        System.err.println("Warning: Can't open PageRank file " + pageRankStoreFile +
+            ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   *  Get the ids of the LeToR features that letor:featureDisable lists.
+   *  @param params The parameters read from the parameter file.
+   *  @return The feature ids.
+   */
+  static ArrayList<Integer> getFeatureDisable(Map<String, String> params) {
+    ArrayList<Integer> disableIDs = new ArrayList<Integer>();
+    if (params.containsKey("letor:featureDisable")) {
+      String[] disableRaw = params.get("letor:featureDisable").split(",");    
+      for (int i = 0; i < disableRaw.length; i ++) {
+        disableIDs.add(Integer.parseInt(disableRaw[i]));
+      }
+    }
+    return disableIDs;
+  }
+
   /**
    * Get BM25 score
+   * @param tv The document's term vector for the field
    * @param docID
    * @param field
    * @param queryStems
@@ -1102,11 +520,10 @@ public class QryEval {	// NOW HW5
    * @return
    * @throws IOException
    */
-  static double getBM25Score(int docID, String field, ArrayList<String> queryStems, 
+  static double getBM25Score(TermVector tv, int docID, String field, ArrayList<String> queryStems, 
 		  double k_1, double b, double k_3) throws IOException {
 	  // get BM25 score
-	  TermVector tv = new TermVector(docID, field);
-	  DocLengthStore s = new DocLengthStore(READER);
+	  DocLengthStore s = getDocLengthStore();
       //int N = QryEval.READER.getDocCount(field);
 	  int N = QryEval.READER.numDocs();
       //long lengthC = QryEval.READER.getSumTotalTermFreq(field);
@@ -1116,23 +533,38 @@ public class QryEval {	// NOW HW5
       double totalBM25Score = 0.0;
       for (int j = 1; j < tv.stemsLength(); j ++) {
         if (queryStems.contains(tv.stemString(j))) {
-          int tf = tv.stemFreq(j);
-          int df = tv.stemDf(j);
-          int qtf = 1;
-          double idf = Math.log((N - df + 0.5) / (df + 0.5));
-          double tfWeight = tf / (tf + k_1 * ((1 - b) + b * doclen / avg_doclen));
-          double userWeight = (k_3 + 1) * qtf / (double)(k_3 + qtf);          
-          totalBM25Score += idf * tfWeight * userWeight;
-          /*totalBM25Score += Math.log((N - df + 0.5) / (df + 0.5)) * 
-        		  tf / (tf + k_1 * (1 - b + b * (doclen / (double) avg_doclen))) *
-        		  (k_3 + 1) / (double)(k_3 + 1);*/
+          totalBM25Score += bm25Term(tv.stemFreq(j), tv.stemDf(j), N, doclen, avg_doclen,
+              k_1, b, k_3);
         }
       }
       return totalBM25Score;
   }
   
+  /**
+   * Get one stem's BM25 score in a document.  Both the term vector
+   * and the postings versions of getBM25Score use it.
+   * @param tf The stem's frequency in the document
+   * @param df The stem's document frequency
+   * @param N The number of documents
+   * @param doclen The length of the document's field
+   * @param avg_doclen The average length of the field
+   * @param k_1
+   * @param b
+   * @param k_3
+   * @return
+   */
+  static double bm25Term(int tf, int df, int N, long doclen, double avg_doclen,
+		  double k_1, double b, double k_3) {
+    int qtf = 1;
+    double idf = Math.log((N - df + 0.5) / (df + 0.5));
+    double tfWeight = tf / (tf + k_1 * ((1 - b) + b * doclen / avg_doclen));
+    double userWeight = (k_3 + 1) * qtf / (k_3 + qtf);
+    return idf * tfWeight * userWeight;
+  }
+  
   /**
    * Get Indri score
+   * @param tv The document's term vector for the field
    * @param docID
    * @param field
    * @param queryStems
@@ -1141,14 +573,13 @@ public class QryEval {	// NOW HW5
    * @return
    * @throws IOException
    */
-  static double getIndriScore(int docID, String field, ArrayList<String> queryStems, 
+  static double getIndriScore(TermVector tv, int docID, String field, ArrayList<String> queryStems, 
 		  double mu, double lambda) throws IOException {
 	  double indriScore = 1.0;
       boolean matchFlag = false;
       HashMap<String, Integer> stemToTf = new HashMap<String, Integer>();
       long lengthC = QryEval.READER.getSumTotalTermFreq(field);
-      TermVector tv = new TermVector(docID, field);
-      DocLengthStore s = new DocLengthStore(READER);
+      DocLengthStore s = getDocLengthStore();
       long doclen = s.getDocLength(field, docID);
       
       for (int j = 1; j < tv.stemsLength(); j ++) {
@@ -1156,48 +587,66 @@ public class QryEval {	// NOW HW5
       }
       for (String stem : queryStems) {
         long ctf = QryEval.READER.totalTermFreq (new Term (field, new BytesRef(stem)));
-        double p_qi_C = ctf / (double) lengthC;
         int tf = 0;
         if (stemToTf.containsKey(stem)) {
       	matchFlag = true;
           tf = stemToTf.get(stem);
         }
-        double p_qi_d = (tf + mu * p_qi_C) / (double)(doclen + mu);
-        indriScore *= lambda * p_qi_d + (1 - lambda) * p_qi_C;
+        indriScore *= indriTerm(tf, ctf, lengthC, doclen, mu, lambda);
       }
-
-      if (matchFlag) {
-        indriScore = Math.pow(indriScore, 1/(double)queryStems.size());
-      }
-      else {
-        indriScore = 0.0;
-      }
-      return indriScore;
+      return indriCombine(indriScore, matchFlag, queryStems.size());
+  }
+  
+  /**
+   * Get one stem's smoothed Indri probability in a document.  Both the
+   * term vector and the postings versions of getIndriScore use it.
+   * @param tf The stem's frequency in the document
+   * @param ctf The stem's collection frequency
+   * @param lengthC The length of the field in the collection
+   * @param doclen The length of the document's field
+   * @param mu
+   * @param lambda
+   * @return
+   */
+  static double indriTerm(int tf, long ctf, long lengthC, long doclen, double mu, double lambda) {
+    double p_qi_C = ctf / (double) lengthC;
+    double p_qi_d = (tf + mu * p_qi_C) / (doclen + mu);
+    return lambda * p_qi_d + (1 - lambda) * p_qi_C;
+  }
+  
+  /**
+   * Combine the product of the stems' Indri probabilities into the
+   * document's score:  their geometric mean, or 0 if no stem matched.
+   * @param product The product of the probabilities
+   * @param matched Whether any stem occurs in the document
+   * @param n The number of stems
+   * @return
+   */
+  static double indriCombine(double product, boolean matched, int n) {
+    if (matched) {
+      return Math.pow(product, 1/(double)n);
+    }
+    return 0.0;
   }
   
   /**
    * Get lnc.ltc score
+   * @param tv The document's term vector for the field
    * @param docID
    * @param queryStems
    * @return
    * @throws IOException
    */
-  static double getLncLtcScore(int docID, String field, ArrayList<String> queryStems) throws IOException {
-	TermVector tv = new TermVector(docID, field);
+  static double getLncLtcScore(TermVector tv, int docID, String field, ArrayList<String> queryStems) throws IOException {
     //DocLengthStore s = new DocLengthStore(READER);
     int N = QryEval.READER.getDocCount(field);
     
-    double docVecLen = 0.0;
-    for (int i = 1; i < tv.stemsLength(); i ++) {
-      docVecLen += Math.pow(Math.log(tv.stemFreq(i)) + 1.0, 2.0);
-    }
-    docVecLen = Math.sqrt(docVecLen);
+    double docVecLen = lncDocVecLen(tv);
     
     double qryVecLen = 0.0;
     for (String stem : queryStems) {
       int df = QryEval.READER.docFreq(new Term (field, new BytesRef(stem)));
-      int qtf = 1;
-      qryVecLen += Math.pow((Math.log(qtf) + 1.0) * Math.log(N / (double)df), 2.0);
+      qryVecLen += Math.pow(ltcWeight(df, N), 2.0);
     }
     qryVecLen = Math.sqrt(qryVecLen);
     
@@ -1205,50 +654,349 @@ public class QryEval {	// NOW HW5
     for (int i = 1; i < tv.stemsLength(); i ++) {
       if (queryStems.contains(tv.stemString(i))) {
     	int df = QryEval.READER.docFreq(new Term (field, new BytesRef(tv.stemString(i))));
-    	int qtf = 1;
-        scoreRaw += (Math.log(tv.stemFreq(i)) + 1.0) * 
-        		((Math.log(qtf) + 1.0) * Math.log(N / (double)df)); 
+        scoreRaw += lncWeight(tv.stemFreq(i)) * ltcWeight(df, N);
       }
     }    
     double score = scoreRaw / (docVecLen * qryVecLen);   
     return score;
   }
   
+  /**
+   * Get the lnc weight of a stem in a document.
+   * @param tf The stem's frequency in the document
+   * @return
+   */
+  static double lncWeight(int tf) {
+    return Math.log(tf) + 1.0;
+  }
+  
+  /**
+   * Get the ltc weight of a query stem (which occurs once in the query).
+   * @param df The stem's document frequency
+   * @param N The number of documents with the field
+   * @return
+   */
+  static double ltcWeight(int df, int N) {
+    int qtf = 1;
+    return (Math.log(qtf) + 1.0) * Math.log(N / (double)df);
+  }
+  
+  /**
+   * Get the length of a document's lnc vector.  It needs the whole
+   * vocabulary of the document, so it comes from the term vector.
+   * @param tv The document's term vector for the field
+   * @return
+   */
+  static double lncDocVecLen(TermVector tv) {
+    double docVecLen = 0.0;
+    for (int i = 1; i < tv.stemsLength(); i ++) {
+      docVecLen += Math.pow(lncWeight(tv.stemFreq(i)), 2.0);
+    }
+    return Math.sqrt(docVecLen);
+  }
+  
   /**
    * Get the sum of tf-idf scores
+   * @param tv The document's term vector for the field
    * @param docID
    * @param field
    * @param queryStems
    * @return
    * @throws IOException
    */
-  static double getTfIdfSum (int docID, String field, ArrayList<String> queryStems) throws IOException {
-    TermVector tv = new TermVector(docID, field);
+  static double getTfIdfSum (TermVector tv, int docID, String field, ArrayList<String> queryStems) throws IOException {
     int N = QryEval.READER.getDocCount(field);
     
     double tfIdfSum = 0.0;
     for (int i = 1; i < tv.stemsLength(); i ++) {
       if (queryStems.contains(tv.stemString(i))) {
         int df = QryEval.READER.docFreq(new Term (field, new BytesRef(tv.stemString(i))));
-        int tf = tv.stemFreq(i);
-        double idf = Math.log(N / (double)df);
-        tfIdfSum += tf * idf;
+        tfIdfSum += tfIdf(tv.stemFreq(i), df, N);
       }
     }
     return tfIdfSum;
   }
   
+  /**
+   * Get one stem's tf-idf score in a document.
+   * @param tf The stem's frequency in the document
+   * @param df The stem's document frequency
+   * @param N The number of documents with the field
+   * @return
+   */
+  static double tfIdf(int tf, int df, int N) {
+    double idf = Math.log(N / (double)df);
+    return tf * idf;
+  }
   
   /**
-   *  Write an error message and exit.  This can be done in other
-   *  ways, but I wanted something that takes just one statement so
-   *  that it is easy to insert checks without cluttering the code.
-   *  @param message The error message to write before exiting.
-   *  @return void
+   * Get BM25 score from the postings of the query's stems.  The result
+   * is the same as getBM25Score(tv, ...).
+   * @param p The postings of the query's stems in the field
+   * @param tf The frequencies of p's stems in the document
+   * @param docID
+   * @param k_1
+   * @param b
+   * @param k_3
+   * @return
+   * @throws IOException
+   */
+  static double getBM25Score(QueryPostings.FieldPostings p, int[] tf, int docID,
+		  double k_1, double b, double k_3) throws IOException {
+    DocLengthStore s = getDocLengthStore();
+    int N = QryEval.READER.numDocs();
+    double avg_doclen = QryEval.READER.getSumTotalTermFreq(p.field) / (double)QryEval.READER.getDocCount(p.field);
+    long doclen = s.getDocLength(p.field, docID);
+    
+    double totalBM25Score = 0.0;
+    for (int k = 0; k < p.stems.length; k ++) {
+      if (tf[k] > 0) {
+        totalBM25Score += bm25Term(tf[k], p.df[k], N, doclen, avg_doclen, k_1, b, k_3);
+      }
+    }
+    return totalBM25Score;
+  }
+  
+  /**
+   * Get Indri score from the postings of the query's stems.  The result
+   * is the same as getIndriScore(tv, ...).
+   * @param p The postings of the query's stems in the field
+   * @param tf The frequencies of p's stems in the document
+   * @param docID
+   * @param queryStems
+   * @param mu
+   * @param lambda
+   * @return
+   * @throws IOException
+   */
+  static double getIndriScore(QueryPostings.FieldPostings p, int[] tf, int docID,
+		  ArrayList<String> queryStems, double mu, double lambda) throws IOException {
+    double indriScore = 1.0;
+    boolean matchFlag = false;
+    long lengthC = QryEval.READER.getSumTotalTermFreq(p.field);
+    DocLengthStore s = getDocLengthStore();
+    long doclen = s.getDocLength(p.field, docID);
+    
+    for (String stem : queryStems) {
+      int k = p.indexOf(stem);
+      if (tf[k] > 0) {
+        matchFlag = true;
+      }
+      indriScore *= indriTerm(tf[k], p.ctf[k], lengthC, doclen, mu, lambda);
+    }
+    return indriCombine(indriScore, matchFlag, queryStems.size());
+  }
+  
+  /**
+   * Get lnc.ltc score from the postings of the query's stems.  The
+   * document vector's length needs the whole vocabulary of the
+   * document, so it still comes from the term vector.  The result is
+   * the same as getLncLtcScore(tv, ...).
+   * @param tv The document's term vector for the field
+   * @param p The postings of the query's stems in the field
+   * @param tf The frequencies of p's stems in the document
+   * @param queryStems
+   * @return
+   * @throws IOException
+   */
+  static double getLncLtcScore(TermVector tv, QueryPostings.FieldPostings p, int[] tf,
+		  ArrayList<String> queryStems) throws IOException {
+    int N = QryEval.READER.getDocCount(p.field);
+    
+    double docVecLen = lncDocVecLen(tv);
+    
+    double qryVecLen = 0.0;
+    for (String stem : queryStems) {
+      qryVecLen += Math.pow(ltcWeight(p.df[p.indexOf(stem)], N), 2.0);
+    }
+    qryVecLen = Math.sqrt(qryVecLen);
+    
+    double scoreRaw = 0.0;
+    for (int k = 0; k < p.stems.length; k ++) {
+      if (tf[k] > 0) {
+        scoreRaw += lncWeight(tf[k]) * ltcWeight(p.df[k], N);
+      }
+    }    
+    double score = scoreRaw / (docVecLen * qryVecLen);   
+    return score;
+  }
+  
+  /**
+   * Get the sum of tf-idf scores from the postings of the query's
+   * stems.  The result is the same as getTfIdfSum(tv, ...).
+   * @param p The postings of the query's stems in the field
+   * @param tf The frequencies of p's stems in the document
+   * @return
+   * @throws IOException
+   */
+  static double getTfIdfSum (QueryPostings.FieldPostings p, int[] tf) throws IOException {
+    int N = QryEval.READER.getDocCount(p.field);
+    
+    double tfIdfSum = 0.0;
+    for (int k = 0; k < p.stems.length; k ++) {
+      if (tf[k] > 0) {
+        tfIdfSum += tfIdf(tf[k], p.df[k], N);
+      }
+    }
+    return tfIdfSum;
+  }
+  
+  
+  /**
+   *  Evaluate a query and return the external ids of its top nDoc
+   *  documents, best first.  This method only reads shared state, so
+   *  it may be called from several threads at once.
+   *  @param qString The query string.
+   *  @param model The retrieval model used to evaluate the query.
+   *  @param nDoc The number of documents to return.
+   *  @return The external ids of the top documents.
+   *  @throws IOException
+   */
+  static ArrayList<String> getTopDocs(String qString, RetrievalModel model, int nDoc) throws IOException {
+    List<ResultElement> resultList = getRankedResults(qString, model, nDoc);
+    
+    ArrayList<String> topDocs = new ArrayList<String>();
+    for (int i = 0; i < resultList.size(); i ++) {
+      topDocs.add(resultList.get(i).getId());
+    }
+    return topDocs;
+  }
+  
+  /**
+   *  Evaluate a query and get its top documents with their scores.
+   *  @param qString The query string.
+   *  @param model The retrieval model.
+   *  @param nDoc The number of documents to return.
+   *  @return The top documents, best first.
+   *  @throws IOException
+   */
+  static List<ResultElement> getRankedResults(String qString, RetrievalModel model, int nDoc) throws IOException {
+    Qryop qTree = parseQuery (qString, model);
+    long start = System.nanoTime();
+    QryResult result = QryProfile.evaluateQuery (qString, qTree, model);
+    SCORE.since(start);
+    QUERIES.inc();
+    int sz = result.docScores.scores.size();
+    
+    start = System.nanoTime();
+    List<ResultElement> resultList = new ArrayList<ResultElement>();  // list of query results     
+    for (int i = 0; i < sz; i ++) {
+      // add doc id and score into the resultList
+      resultList.add(new ResultElement(getExternalDocid (result.docScores.getDocid(i)), result.docScores.getDocidScore(i)));
+    }
+    IDS.since(start);
+    start = System.nanoTime();
+    Collections.sort(resultList, new ResultComparatorRanked());
+    List<ResultElement> top = new ArrayList<ResultElement>(resultList.subList(0, Math.min(nDoc, sz)));
+    TOPK.since(start);
+    
+    return top;
+  }
+  
+  /**
+   *  Rank the documents of a score list the way ResultComparatorRanked
+   *  does (by score, then by external id), without looking up the
+   *  external ids of documents that aren't tied with another one.
+   *  @param scores The score list.
+   *  @param nDoc The number of documents to rank.
+   *  @return The positions in the score list of the top documents,
+   *          best first.
+   *  @throws IOException
+   */
+  static int[] rankScoreList(final ScoreList scores, int nDoc) throws IOException {
+    long start = System.nanoTime();
+    int sz = scores.scores.size();
+    Integer[] order = new Integer[sz];
+    for (int i = 0; i < sz; i ++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        double sa = scores.getDocidScore(a);
+        double sb = scores.getDocidScore(b);
+        return (sa < sb) ? 1 : ((sa > sb) ? -1 : 0);
+      }
+    });
+    
+    // break the ties among the ranked documents by external id
+    int n = Math.min(nDoc, sz);
+    for (int i = 0; i < n; ) {
+      int j = i + 1;
+      while (j < sz && !(scores.getDocidScore(order[j]) < scores.getDocidScore(order[i]))) {
+        j ++;
+      }
+      if (j - i > 1) {
+        final Map<Integer, String> ids = new HashMap<Integer, String>();
+        for (int k = i; k < j; k ++) {
+          ids.put(order[k], getExternalDocid(scores.getDocid(order[k])));
+        }
+        Arrays.sort(order, i, j, new Comparator<Integer>() {
+          public int compare(Integer a, Integer b) {
+            return ids.get(a).compareTo(ids.get(b));
+          }
+        });
+      }
+      i = j;
+    }
+    
+    int[] top = new int[n];
+    for (int i = 0; i < n; i ++) {
+      top[i] = order[i];
+    }
+    TOPK.since(start);
+    return top;
+  }
+  
+  /**
+   *  Read a PageRank text file; one document per line in format of
+   *  external id, tab, score.
+   *  @param pageRankFile The PageRank file.
+   *  @return Maps external document ids to PageRank scores.
+   *  @throws IOException
+   */
+  static HashMap<String, Double> readPageRanks(File pageRankFile) throws IOException {
+    BufferedReader brPageRank = new BufferedReader(new FileReader(pageRankFile));
+    HashMap<String, Double> pageRanksWhole = new HashMap<String, Double>();
+    String linePageRank = null;
+    while ((linePageRank = brPageRank.readLine()) != null) {
+      pageRanksWhole.put(linePageRank.split("\\t")[0].trim(), Double.parseDouble(linePageRank.split("\\t")[1].trim()));
+    }
+    brPageRank.close();
+    return pageRanksWhole;
+  }
+  
+  /**
+   *  Get the DocLengthStore that is shared by all query operators and
+   *  threads.  It is created the first time that it is requested.
+   *  @return The shared {@link DocLengthStore}.
+   *  @throws IOException
+   */
+  static DocLengthStore getDocLengthStore() throws IOException {
+    DocLengthStore store = docLengthStore;
+    if (store == null) {
+      synchronized (QryEval.class) {
+        store = docLengthStore;
+        if (store == null) {
+          store = new DocLengthStore(READER);
+          docLengthStore = store;
+        }
+      }
+    }
+    return store;
+  }
+  
+  
+  /**
+   *  Report an invalid query.  This can be done in other ways, but I
+   *  wanted something that takes just one statement so that it is
+   *  easy to insert checks without cluttering the code.  It throws
+   *  instead of exiting, so that a bad query can't stop the server;
+   *  main reports it and exits.
+   *  @param message The error message.
+   *  @throws IllegalArgumentException Always.
    */
   static void fatalError (String message) {
-    System.err.println (message);
-    System.exit(1);
+    throw new IllegalArgumentException (message);
   }
 
   /**
@@ -1259,6 +1007,10 @@ public class QryEval {	// NOW HW5
    * @throws IOException 
    */
   static String getExternalDocid (int iid) throws IOException {
+    if (EXTIDS != null) {
+      return EXTIDS.get(iid);
+    }
+
     Document d = QryEval.READER.document (iid);
     String eid = d.get ("externalId");
     return eid;
@@ -1274,6 +1026,14 @@ public class QryEval {	// NOW HW5
    * @throws Exception
    */
   static int getInternalDocid (String externalId) throws Exception {
+    if (DOCIDS != null) {
+      int docid = DOCIDS.lookup(externalId);
+      if (docid < 0) {
+        throw new Exception("External id not found.");
+      }
+      return docid;
+    }
+
     Query q = new TermQuery(new Term("externalId", externalId));
     
     IndexSearcher searcher = new IndexSearcher(QryEval.READER);
@@ -1288,6 +1048,35 @@ public class QryEval {	// NOW HW5
     }
   }
 
+  /**
+   *  Finds the internal document ids for a batch of external ids.  If
+   *  any of the documents doesn't exist, it throws an exception.
+   *
+   * @param externalIds The external document ids.
+   * @return The internal doc ids, in the same order as externalIds.
+   * @throws Exception
+   */
+  static int[] getInternalDocids (List<String> externalIds) throws Exception {
+    long start = System.nanoTime();
+    int[] docids;
+
+    if (DOCIDS != null) {
+      docids = DOCIDS.lookup(externalIds);
+      for (int i = 0; i < docids.length; i++) {
+        if (docids[i] < 0) {
+          throw new Exception("External id not found.");
+        }
+      }
+    } else {
+      docids = new int[externalIds.size()];
+      for (int i = 0; i < docids.length; i++) {
+        docids[i] = getInternalDocid(externalIds.get(i));
+      }
+    }
+    IDS.since(start);
+    return docids;
+  }
+
   /**
    * parseQuery converts a query string into a query tree.
    * 
@@ -1298,6 +1087,13 @@ public class QryEval {	// NOW HW5
    * @throws IOException
    */
   static Qryop parseQuery(String qString, RetrievalModel r) throws IOException {
+    long start = System.nanoTime();
+    Qryop qTree = parseQueryTree(qString, r);
+    PARSE.since(start);
+    return qTree;
+  }
+
+  private static Qryop parseQueryTree(String qString, RetrievalModel r) throws IOException {
 
     Qryop currentOp = null;
     Stack<Qryop> stack = new Stack<Qryop>();
@@ -1558,7 +1354,7 @@ public class QryEval {	// NOW HW5
       writer.write(queryID + " Q0 dummy 1 0 run-1");
       writer.newLine();
     } else {
-      List resultList = new ArrayList();  // list of query results     
+      List<ResultElement> resultList = new ArrayList<ResultElement>();  // list of query results     
       for (int i = 0; i < s; i ++) {
     	// add doc id and score into the resultList
     	resultList.add(new ResultElement(getExternalDocid (result.docScores.getDocid(i)), result.docScores.getDocidScore(i)));
@@ -1570,7 +1366,7 @@ public class QryEval {	// NOW HW5
       }
       
       for (int i = 0; i < s && i < nDoc; i++) {
-    	ResultElement elemTmp = (ResultElement)resultList.get(i); 
+    	ResultElement elemTmp = resultList.get(i); 
     	writer.write(queryID + " Q0 " + elemTmp.getId()
     			+ " " + (i+1) + " " + elemTmp.getScore()
     			+ " run-1");
@@ -1582,55 +1378,6 @@ public class QryEval {	// NOW HW5
 }
 
 
-/**
- * The element of a result list for output. Includes the doc id and score.
- *
- */
-class ResultElement {
-  public String id;
-  public double score;
-  
-  public ResultElement(String id, double score) {
-	this.id = id;
-	this.score = score;
-  }
-  
-  public String getId() {
-	return id;
-  }
-  
-  public double getScore() {
-	return score;
-  }
-}
-
-
-/**
- * Two specified comparator for Collections.sort(). 
- */
-class ResultComparatorRanked implements Comparator {
-  public int compare(Object o1, Object o2) {
-  	
-    ResultElement res1 = (ResultElement)o1;
-    ResultElement res2 = (ResultElement)o2;
-
-    if (res1.score < res2.score)  return 1;
-    else if (res1.score > res2.score)  return -1;
-    else  return res1.id.compareTo(res2.id);
-  }
-}
-
-class ResultComparatorUnranked implements Comparator {
-  public int compare(Object o1, Object o2) {
-  	
-    ResultElement res1 = (ResultElement)o1;
-    ResultElement res2 = (ResultElement)o2;
-
-    return res1.id.compareTo(res2.id);
-  }
-}
-
-
 class TermMapComparator implements Comparator<String> {
 
     Map<String, Double> base;
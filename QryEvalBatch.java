@@ -0,0 +1,144 @@
+/**
+ *  QryEvalBatch evaluates a batch of independent queries on a pool of
+ *  worker threads.  Each query gets its own query tree, so the only
+ *  state that the workers share is the index reader and the document
+ *  length store, which are both read-only during evaluation.  Results
+ *  are always returned in the original query order, no matter which
+ *  query finishes first.
+ *
+ *  The pool is configured in the parameter file:
+ *    batch:threads     The number of worker threads (default 1).
+ *    batch:threadType  "platform" (default) or "virtual".  Virtual
+ *                      threads need Java 21 or later; on older JVMs
+ *                      platform threads are used instead.
+ */
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class QryEvalBatch {
+
+  private ExecutorService pool;
+
+  /**
+   *  Constructor.
+   *  @param threads The number of worker threads.  Ignored for virtual
+   *         threads, which use one thread per query.
+   *  @param threadType "platform" or "virtual".
+   */
+  public QryEvalBatch(int threads, String threadType) {
+    if (threadType.equals("virtual")) {
+      this.pool = newVirtualThreadPool();
+    }
+    if (this.pool == null) {
+      this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+  }
+
+  /**
+   *  Create a batch evaluator from the batch:* entries of a parameter map.
+   *  @param params The parameters read from the parameter file.
+   *  @return The {@link QryEvalBatch}.
+   */
+  public static QryEvalBatch create(Map<String, String> params) {
+    int threads = 1;
+    String threadType = "platform";
+
+    if (params.containsKey("batch:threads")) {
+      threads = Integer.parseInt(params.get("batch:threads"));
+    }
+    if (params.containsKey("batch:threadType")) {
+      threadType = params.get("batch:threadType").toLowerCase();
+      if (!threadType.equals("platform") && !threadType.equals("virtual")) {
+        System.err.println("Error: Unknown batch:threadType " + threadType);
+        System.exit(1);
+      }
+    }
+    return new QryEvalBatch(threads, threadType);
+  }
+
+  /**
+   *  Evaluate a batch of queries and get the top documents of each one.
+   *  The query id and text are printed in query order as the results
+   *  are collected.  If a query fails, the others are cancelled and
+   *  its exception is thrown.
+   *  @param qids The query ids, in the order that results are wanted.
+   *  @param queries Maps each query id to its query string.
+   *  @param model The retrieval model used to evaluate the queries.
+   *  @param nDoc The number of documents to keep for each query.
+   *  @return The external ids of the top documents, one list per query id.
+   *  @throws Exception
+   */
+  public List<ArrayList<String>> evaluate(List<String> qids, final Map<String, String> queries,
+      final RetrievalModel model, final int nDoc) throws Exception {
+
+    List<Future<ArrayList<String>>> futures = new ArrayList<Future<ArrayList<String>>>();
+
+    for (final String qid : qids) {
+      futures.add(this.pool.submit(new Callable<ArrayList<String>>() {
+        public ArrayList<String> call() throws Exception {
+          return QryEval.getTopDocs(queries.get(qid), model, nDoc);
+        }
+      }));
+    }
+
+    List<ArrayList<String>> results = new ArrayList<ArrayList<String>>();
+    try {
+      for (int i = 0; i < qids.size(); i++) {
+        System.out.println(qids.get(i) + ":" + queries.get(qids.get(i)));
+        results.add(get(futures.get(i)));
+      }
+    } catch (Exception e) {
+
+      //  The batch has failed, so the queries that haven't finished
+      //  aren't needed.
+
+      for (Future<ArrayList<String>> f : futures)
+        f.cancel(true);
+      throw e;
+    }
+    return results;
+  }
+
+  /**
+   *  Stop the worker threads.  Call this when the batch is finished.
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+  /**
+   *  Wait for a task and return its result.  If the task failed, its
+   *  original exception is thrown instead of an ExecutionException.
+   *  @param f The task's future.
+   *  @return The task's result.
+   *  @throws Exception
+   */
+  static <T> T get(Future<T> f) throws Exception {
+    try {
+      return f.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+      throw e;
+    }
+  }
+
+  /**
+   *  Create an executor that starts a virtual thread for each task, if
+   *  this JVM supports virtual threads.
+   *  @return The executor, or null if virtual threads are not available.
+   */
+  static ExecutorService newVirtualThreadPool() {
+    try {
+      Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) m.invoke(null);
+    } catch (Exception e) {
+      System.err.println("Warning: Virtual threads are not supported by this JVM. " +
+          "Using platform threads.");
+      return null;
+    }
+  }
+}
@@ -0,0 +1,349 @@
+/**
+ *  QryEvalServer is a resident alternative to running QryEval once per
+ *  batch.  It opens the index, its side files, the PageRank scores and
+ *  the LeToR model once, and then answers queries over HTTP until it
+ *  is stopped, so that a query pays only for its own evaluation.  The
+ *  document length store and the term vector cache stay warm between
+ *  requests.  The feature cache is read-only:  the pairs that it was
+ *  loaded with are used, but new ones aren't kept, since there is no
+ *  bound on the number of distinct queries that the server sees.
+ *
+ *  The server only listens on the loopback interface.  Requests are
+ *  handled concurrently by a pool of threads; the index and the
+ *  caches are shared by all of them.
+ *
+ *  Requests (the parameters are URL-encoded):
+ *    GET /search?q=QUERY[&n=100][&id=0][&model=bm25|indri]
+ *        The top n documents of the query.
+ *    GET /rerank?q=QUERY[&n=100][&id=0]
+ *        The top n BM25 documents of the query, reranked by the LeToR
+ *        model in letor:svmRankModelFile.
+ *    GET /explain?q=QUERY[&model=bm25|indri][&format=text|json]
+ *        The {@link QryProfile} of evaluating the query.
+ *    GET /residency
+ *        The {@link ResidencyDirectory} report of the index.
+ *    GET /metrics
+ *        The {@link QryMetrics} in the Prometheus text format, with
+ *        the latency and status of the requests by path.
+ *  The response is the ranking in trec_eval format, one document per
+ *  line:  id Q0 externalDocid rank score run-1
+ *  The X-Allocated-Bytes header of a response is the memory that the
+ *  request allocated (see {@link QryLoadTest}).  Garbage collection
+ *  time isn't reported per request, since a pause stops all of the
+ *  requests in progress; it is in /metrics.
+ *
+ *  The warmup:* steps of {@link IndexWarmer} run before the server
+ *  starts listening.
+ *
+ *  Parameters, in addition to the ones that QryEval uses:
+ *    server:port     The port (default 8080).
+ *    server:threads  The number of request threads (default: the
+ *                    number of processors).
+ *
+ *  Usage:  java QryEvalServer paramFile
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.sun.net.httpserver.*;
+
+import org.apache.lucene.index.DirectoryReader;
+
+public class QryEvalServer {
+
+  private static final int DEFAULT_RESULTS = 100;
+
+  private RetrievalModel bm25;
+  private RetrievalModel indri;
+  private LetorFeatures features;
+  private SvmRankModel rankModel;
+  private HttpServer server;
+  private ExecutorService pool;
+
+  /**
+   *  Load the models.  The index must already be open.
+   *  @param params The parameters read from the parameter file.
+   *  @throws Exception
+   */
+  public QryEvalServer(Map<String, String> params) throws Exception {
+    this.bm25 = new RetrievalModelBM25();
+    this.bm25.setParameter("k_1", Double.parseDouble(params.get("BM25:k_1")));
+    this.bm25.setParameter("b", Double.parseDouble(params.get("BM25:b")));
+    this.bm25.setParameter("k_3", Double.parseDouble(params.get("BM25:k_3")));
+
+    if (params.containsKey("Indri:mu") && params.containsKey("Indri:lambda")) {
+      this.indri = new RetrievalModelIndri();
+      this.indri.setParameter("mu", Double.parseDouble(params.get("Indri:mu")));
+      this.indri.setParameter("lambda", Double.parseDouble(params.get("Indri:lambda")));
+    }
+
+    //  /rerank is only available if there is a trained model.
+
+    if (params.containsKey("letor:svmRankModelFile")
+        && new File(params.get("letor:svmRankModelFile")).exists()) {
+      HashMap<String, Double> pageRanksWhole = null;
+      if (QryEval.PAGERANK == null && params.containsKey("letor:pageRankFile")) {
+        pageRanksWhole = QryEval.readPageRanks(new File(params.get("letor:pageRankFile")));
+      }
+      this.rankModel = new SvmRankModel(new File(params.get("letor:svmRankModelFile")));
+      this.features = new LetorFeatures(params, pageRanksWhole,
+          QryEval.getFeatureDisable(params));
+      this.features.setVerbose(false);
+      this.features.setCacheReadOnly(true);
+    } else {
+      System.err.println("Warning: No letor:svmRankModelFile; /rerank is disabled.");
+    }
+  }
+
+  /**
+   *  Start accepting requests.
+   *  @param port The port on the loopback interface.
+   *  @param threads The number of request threads.
+   *  @throws IOException
+   */
+  public void start(int port, int threads) throws IOException {
+
+    //  Without TCP_NODELAY, a response's body waits for the client to
+    //  acknowledge its headers, which adds up to 40 ms to each request.
+
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    this.server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.server.createContext("/search", new Handler() {
+      String answer(Map<String, String> request) throws Exception {
+        return search(request);
+      }
+    });
+    this.server.createContext("/rerank", new Handler() {
+      String answer(Map<String, String> request) throws Exception {
+        return rerank(request);
+      }
+    });
+    this.server.createContext("/explain", new Handler() {
+      String answer(Map<String, String> request) throws Exception {
+        return explain(request);
+      }
+    });
+    this.server.createContext("/residency", new Handler() {
+      String answer(Map<String, String> request) throws Exception {
+        if (!(QryEval.READER instanceof DirectoryReader)
+            || !(((DirectoryReader) QryEval.READER).directory() instanceof ResidencyDirectory)) {
+          return "The index wasn't opened with residency:* parameters.\n";
+        }
+        return ((ResidencyDirectory) ((DirectoryReader) QryEval.READER).directory()).report();
+      }
+    });
+    this.server.createContext("/metrics", new Handler() {
+      String answer(Map<String, String> request) throws Exception {
+        return QryMetrics.format();
+      }
+    });
+    this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    this.server.setExecutor(this.pool);
+    QryProfile.enable();
+    this.server.start();
+  }
+
+  /**
+   *  Stop accepting requests, wait for the requests in progress, and
+   *  stop the feature threads.
+   *  @throws IOException
+   */
+  public void stop() throws IOException {
+    this.server.stop(1);
+    this.pool.shutdown();
+    if (this.features != null) {
+      this.features.shutdown();
+    }
+  }
+
+  /**
+   *  Answer a /search request.
+   */
+  private String search(Map<String, String> request) throws Exception {
+    List<ResultElement> results =
+        QryEval.getRankedResults(query(request), model(request), results(request));
+    return format(request, results);
+  }
+
+  /**
+   *  Answer an /explain request.
+   */
+  private String explain(Map<String, String> request) throws Exception {
+    RetrievalModel model = model(request);
+    String query = query(request);
+    QryProfile profile = QryProfile.record(query, QryEval.parseQuery(query, model), model);
+    return "json".equals(request.get("format")) ? profile.toJson() + "\n" : profile.toText();
+  }
+
+  /**
+   *  Answer a /rerank request.
+   */
+  private String rerank(Map<String, String> request) throws Exception {
+    if (this.rankModel == null) {
+      throw new IllegalStateException("There is no LeToR model");
+    }
+    String query = query(request);
+    String qid = qid(request);
+
+    ArrayList<String> exDocIDs = QryEval.getTopDocs(query, this.bm25, results(request));
+    List<String> qids = Collections.singletonList(qid);
+    Map<String, String> queries = Collections.singletonMap(qid, query);
+    Map<String, ArrayList<String>> qidToExDocIDs = Collections.singletonMap(qid, exDocIDs);
+    double[] scores = this.features.score(qids, queries, qidToExDocIDs, this.rankModel, null).get(0);
+
+    List<ResultElement> results = new ArrayList<ResultElement>();
+    for (int i = 0; i < exDocIDs.size(); i++) {
+      results.add(new ResultElement(exDocIDs.get(i), scores[i]));
+    }
+    Collections.sort(results, new ResultComparatorRanked());
+    return format(request, results);
+  }
+
+  private RetrievalModel model(Map<String, String> request) {
+    RetrievalModel model = this.bm25;
+    String name = request.containsKey("model") ? request.get("model") : "bm25";
+    if (name.equalsIgnoreCase("indri")) {
+      model = this.indri;
+    } else if (!name.equalsIgnoreCase("bm25")) {
+      throw new IllegalArgumentException("Unknown model " + name);
+    }
+    if (model == null) {
+      throw new IllegalArgumentException("The Indri:* parameters aren't set");
+    }
+    return model;
+  }
+
+  private static String query(Map<String, String> request) {
+    String query = request.get("q");
+    if (query == null || query.trim().length() == 0) {
+      throw new IllegalArgumentException("Missing q");
+    }
+    return query;
+  }
+
+  private static String qid(Map<String, String> request) {
+    return request.containsKey("id") ? request.get("id") : "0";
+  }
+
+  private static int results(Map<String, String> request) {
+    return request.containsKey("n") ? Integer.parseInt(request.get("n")) : DEFAULT_RESULTS;
+  }
+
+  private static String format(Map<String, String> request, List<ResultElement> results) {
+    String qid = qid(request);
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < results.size(); i++) {
+      ResultElement r = results.get(i);
+      s.append(qid).append(" Q0 ").append(r.getId()).append(' ').append(i + 1)
+          .append(' ').append(r.getScore()).append(" run-1\n");
+    }
+    return s.toString();
+  }
+
+  //  Decodes a request's parameters, and turns a bad request into a
+  //  400 response and any other failure into a 500 response.  The
+  //  latency and status of each request are recorded in QryMetrics,
+  //  and its allocation is returned in a header.
+
+  private static abstract class Handler implements HttpHandler {
+
+    abstract String answer(Map<String, String> request) throws Exception;
+
+    public void handle(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      String path = exchange.getHttpContext().getPath();
+      int status = 200;
+      String body;
+      long startBytes = QryMetrics.allocatedBytes();
+      try {
+        body = answer(decode(exchange.getRequestURI().getRawQuery()));
+      } catch (IllegalArgumentException e) {
+        status = 400;
+        body = "Error: " + e.getMessage() + "\n";
+      } catch (Exception e) {
+        status = 500;
+        body = "Error: " + e + "\n";
+        e.printStackTrace();
+      }
+
+      byte[] bytes = body.getBytes("UTF-8");
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.getResponseHeaders().set("X-Allocated-Bytes",
+          Long.toString(QryMetrics.allocatedBytes() - startBytes));
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(bytes);
+      out.close();
+
+      QryMetrics.histogram("qryeval_http_request_seconds", "The latency of the requests.",
+          "path", path).since(start);
+      QryMetrics.counter("qryeval_http_requests_total", "The requests, by response status.",
+          "path", path, "status", Integer.toString(status)).inc();
+    }
+
+    private static Map<String, String> decode(String rawQuery)
+      throws UnsupportedEncodingException {
+      Map<String, String> request = new HashMap<String, String>();
+      if (rawQuery == null)
+        return request;
+      for (String pair : rawQuery.split("&")) {
+        int eq = pair.indexOf('=');
+        if (eq > 0) {
+          request.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+              URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+      }
+      return request;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage:  java QryEvalServer paramFile");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+    if (!params.containsKey("indexPath") || !params.containsKey("BM25:k_1")
+        || !params.containsKey("BM25:b") || !params.containsKey("BM25:k_3")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+
+    QryEval.openIndex(params);
+    QryEval.getDocLengthStore();
+    TermVectorCache.configure(params);
+    QryProfile.configure(params);
+    IndexWarmer.warm(params);
+    ResidencyDirectory.printReport(QryEval.READER);
+
+    int port = 8080;
+    if (params.containsKey("server:port")) {
+      port = Integer.parseInt(params.get("server:port"));
+    }
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (params.containsKey("server:threads")) {
+      threads = Integer.parseInt(params.get("server:threads"));
+    }
+
+    final QryEvalServer server = new QryEvalServer(params);
+    server.start(port, threads);
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+        try {
+          server.stop();
+        } catch (IOException e) {
+          System.err.println("Warning: " + e.getMessage());
+        }
+      }
+    });
+    System.out.println("Listening on http://" + InetAddress.getLoopbackAddress().getHostAddress()
+        + ":" + port + "/");
+  }
+}
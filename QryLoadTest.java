@@ -0,0 +1,506 @@
+/**
+ *  QryLoadTest replays a query log against QryEval, in this JVM or
+ *  against a running {@link QryEvalServer}, and reports the throughput
+ *  and latency of the queries by query class:
+ *
+ *    flat        Only terms, e.g., obama family tree.
+ *    structured  Query operators, but no positional ones.
+ *    positional  #NEAR or #WINDOW.
+ *
+ *  For each class it reports the queries per second, the 50th, 95th,
+ *  99th and 99.9th percentile and the maximum latency, and the memory
+ *  that the queries allocated.  In server mode, the server measures
+ *  the allocation of each request and returns it in a header.  The
+ *  garbage collection time is reported for the whole run:  a pause
+ *  stops every query in progress, so it can't be charged to one.
+ *
+ *  The log can be run at a fixed concurrency (closed loop:  each client
+ *  sends its next query when the previous one is answered), or at a
+ *  target rate (open loop:  queries are started on a schedule whether
+ *  or not the earlier ones are done).  In the open loop, a query's
+ *  latency is measured from the time that it was due, so the time that
+ *  it waits behind slow queries counts.
+ *
+ *  Parameters:
+ *    queryFilePath     The query log, one per line in format of
+ *                      id:query, e.g., cw09testing.query or one that
+ *                      IndexGenerator wrote.
+ *    load:shapes       A comma-separated list of query classes.  If it
+ *                      is set, each flat query of the log is replayed
+ *                      in each of them:  structured matches each term
+ *                      in the body and the title, #SUM(#SUM(obama
+ *                      obama.title) ...) (#AND with Indri), and
+ *                      positional makes the first two terms a phrase,
+ *                      #NEAR/1(obama family) tree.  (A one-term query
+ *                      has no positional shape.)  By default, the
+ *                      queries are replayed as they are.
+ *    load:target       inprocess (default), or the URL of a server,
+ *                      e.g., http://127.0.0.1:8080.
+ *    load:model        bm25 (default) or indri.
+ *    load:nDoc         The number of documents per query (default 100).
+ *    load:qps          If it is set, the queries are started at this
+ *                      rate (open loop).
+ *    load:concurrency  The number of clients (closed loop), or, with
+ *                      load:qps, the most queries in progress at once
+ *                      (default: the number of processors, or 64 with
+ *                      load:qps).
+ *    load:requests     The number of queries that are measured (default:
+ *                      one pass through the log).  The log is replayed
+ *                      from its start as often as needed.
+ *    load:warmup       The number of queries that are run first, at
+ *                      the same concurrency, and not measured (default:
+ *                      one pass through the log).  In process, the
+ *                      {@link QryMetrics} are reset after the warmup.
+ *    metrics:path      If it is set, the {@link QryMetrics} are written
+ *                      to this file at the end, including the latency
+ *                      histograms qryeval_load_latency_seconds{class}.
+ *  In process, the BM25:* or Indri:* parameters of the model and the
+ *  index parameters are the ones that QryEval uses.
+ *
+ *  Usage:  java QryLoadTest paramFile
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class QryLoadTest {
+
+  static final String[] CLASSES = {"flat", "structured", "positional"};
+
+  private static final int FLAT = 0;
+  private static final int STRUCTURED = 1;
+  private static final int POSITIONAL = 2;
+
+  //  One query of the replayed log.
+
+  private static class Query {
+    String qid;
+    String text;
+    int queryClass;
+  }
+
+  //  The measurements of one query class.
+
+  private static class Stats {
+    QryMetrics.Histogram latency;
+    AtomicLong bytes = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+
+    Stats(QryMetrics.Histogram latency) {
+      this.latency = latency;
+    }
+  }
+
+  //  Where the queries are evaluated.
+
+  private static abstract class Target {
+
+    //  Evaluate a query, and return the bytes that it allocated.
+
+    abstract long run(Query query) throws Exception;
+
+    //  The garbage collection time of the JVM that evaluates the
+    //  queries, in milliseconds.
+
+    abstract long gcMillis() throws IOException;
+
+    abstract String name();
+  }
+
+  private static class InProcess extends Target {
+    private RetrievalModel model;
+    private int nDoc;
+
+    InProcess(RetrievalModel model, int nDoc) {
+      this.model = model;
+      this.nDoc = nDoc;
+    }
+
+    long run(Query query) throws Exception {
+      long startBytes = QryMetrics.allocatedBytes();
+      QryEval.getRankedResults(query.text, this.model, this.nDoc);
+      return QryMetrics.allocatedBytes() - startBytes;
+    }
+
+    long gcMillis() {
+      return QryMetrics.gcMillis();
+    }
+
+    String name() {
+      return "in process";
+    }
+  }
+
+  private static class Server extends Target {
+    private String url;
+    private String model;
+    private int nDoc;
+
+    Server(String url, String model, int nDoc) {
+      this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+      this.model = model;
+      this.nDoc = nDoc;
+    }
+
+    long run(Query query) throws Exception {
+      HttpURLConnection connection = (HttpURLConnection) new URL(this.url + "/search?q=" +
+          URLEncoder.encode(query.text, "UTF-8") + "&id=" + URLEncoder.encode(query.qid, "UTF-8") +
+          "&n=" + this.nDoc + "&model=" + this.model).openConnection();
+      int status = connection.getResponseCode();
+      String body = read(status == 200 ? connection.getInputStream() :
+          connection.getErrorStream());
+      if (status != 200) {
+        throw new IOException("HTTP " + status + ": " + body.trim());
+      }
+      return header(connection, "X-Allocated-Bytes");
+    }
+
+    //  The server's GC time, from its /metrics.
+
+    long gcMillis() throws IOException {
+      HttpURLConnection connection =
+          (HttpURLConnection) new URL(this.url + "/metrics").openConnection();
+      double seconds = 0;
+      for (String line : read(connection.getInputStream()).split("\n")) {
+        if (line.startsWith("qryeval_gc_seconds_total"))
+          seconds += Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+      }
+      return Math.round(seconds * 1000);
+    }
+
+    String name() {
+      return this.url;
+    }
+
+    private static long header(HttpURLConnection connection, String name) {
+      String value = connection.getHeaderField(name);
+      return (value == null) ? 0 : Long.parseLong(value);
+    }
+
+    //  Read a response to the end, so that the connection is reused.
+
+    private static String read(InputStream in) throws IOException {
+      if (in == null)
+        return "";
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0)
+        bytes.write(buffer, 0, n);
+      in.close();
+      return bytes.toString("UTF-8");
+    }
+  }
+
+  private Target target;
+  private List<Query> log;
+  private double qps;
+  private int concurrency;
+  private AtomicBoolean warned = new AtomicBoolean();
+
+  /**
+   *  Constructor.
+   *  @param target Where the queries are evaluated.
+   *  @param log The queries.
+   *  @param qps The target rate, or 0 for a closed loop.
+   *  @param concurrency The number of clients, or the most queries in
+   *         progress at once.
+   */
+  QryLoadTest(Target target, List<Query> log, double qps, int concurrency) {
+    this.target = target;
+    this.log = log;
+    this.qps = qps;
+    this.concurrency = concurrency;
+  }
+
+  /**
+   *  Get the class of a query.
+   *  @param query The query string.
+   *  @return FLAT, STRUCTURED or POSITIONAL.
+   */
+  static int classify(String query) {
+    String s = query.toLowerCase();
+    if (s.contains("#near/") || s.contains("#window/"))
+      return POSITIONAL;
+    if (s.indexOf('#') >= 0)
+      return STRUCTURED;
+    return FLAT;
+  }
+
+  /**
+   *  Rewrite a flat query in a class.
+   *  @param terms The terms of the query.
+   *  @param queryClass FLAT, STRUCTURED or POSITIONAL.
+   *  @param op The model's default operator, e.g., #SUM for BM25.
+   *  @return The query, or null if it has no shape in the class.
+   */
+  static String shape(String[] terms, int queryClass, String op) {
+    StringBuilder s = new StringBuilder();
+    if (queryClass == POSITIONAL) {
+      if (terms.length < 2)
+        return null;
+      s.append("#NEAR/1(").append(terms[0]).append(' ').append(terms[1]).append(')');
+      for (int i = 2; i < terms.length; i++)
+        s.append(' ').append(terms[i]);
+      return s.toString();
+    }
+    for (String term : terms) {
+      if (s.length() > 0)
+        s.append(' ');
+      if (queryClass == STRUCTURED)
+        s.append(op).append('(').append(term).append(' ').append(term).append(".title)");
+      else
+        s.append(term);
+    }
+    return (queryClass == STRUCTURED) ? op + "(" + s + ")" : s.toString();
+  }
+
+  /**
+   *  Read the query log.
+   *  @param path The query file, one per line in format of id:query.
+   *  @param shapes The classes to replay each flat query in, or null
+   *         to replay the queries as they are.
+   *  @param op The model's default operator.
+   *  @return The queries.
+   *  @throws IOException
+   */
+  static List<Query> readLog(String path, int[] shapes, String op) throws IOException {
+    List<Query> log = new ArrayList<Query>();
+    BufferedReader in = new BufferedReader(new FileReader(path));
+    String line;
+    while ((line = in.readLine()) != null) {
+      int colon = line.indexOf(':');
+      if (colon < 0 || line.substring(colon + 1).trim().length() == 0)
+        continue;
+      String qid = line.substring(0, colon);
+      String text = line.substring(colon + 1).trim();
+      int queryClass = classify(text);
+      if (shapes == null || queryClass != FLAT) {
+        log.add(query(qid, text, queryClass));
+        continue;
+      }
+      String[] terms = text.split("\\s+");
+      for (int shape : shapes) {
+        String shaped = shape(terms, shape, op);
+        if (shaped != null)
+          log.add(query(qid, shaped, shape));
+      }
+    }
+    in.close();
+    return log;
+  }
+
+  private static Query query(String qid, String text, int queryClass) {
+    Query query = new Query();
+    query.qid = qid;
+    query.text = text;
+    query.queryClass = queryClass;
+    return query;
+  }
+
+  //  Run a query and record it.  A failed query is counted as an error
+  //  and its latency isn't recorded.
+
+  private void execute(Query query, Stats stats, Stats all, long start) {
+    try {
+      long bytes = this.target.run(query);
+      long nanos = System.nanoTime() - start;
+      for (Stats s : new Stats[] {stats, all}) {
+        s.latency.record(nanos);
+        s.bytes.addAndGet(bytes);
+      }
+    } catch (Exception e) {
+      stats.errors.incrementAndGet();
+      all.errors.incrementAndGet();
+      if (this.warned.compareAndSet(false, true)) {
+        System.err.println("Warning: Query " + query.qid + " (" + query.text + ") failed: " + e);
+      }
+    }
+  }
+
+  /**
+   *  Replay the log.
+   *  @param requests The number of queries.
+   *  @param stats The measurements of each class.  They are updated.
+   *  @param all The measurements of all of the queries.
+   *  @throws Exception
+   */
+  void replay(final int requests, final Stats[] stats, final Stats all) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(this.concurrency);
+    try {
+      if (this.qps > 0) {
+
+        //  Open loop.  Each query is due at its own time.
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+          final Query query = this.log.get(i % this.log.size());
+          final long due = start + (long) (i * 1e9 / this.qps);
+          long wait = due - System.nanoTime();
+          if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+          pool.execute(new Runnable() {
+            public void run() {
+              execute(query, stats[query.queryClass], all, due);
+            }
+          });
+        }
+      } else {
+
+        //  Closed loop.  Each client takes the next query of the log.
+
+        final AtomicInteger next = new AtomicInteger();
+        List<Future<Void>> clients = new ArrayList<Future<Void>>();
+        for (int c = 0; c < this.concurrency; c++) {
+          clients.add(pool.submit(new Callable<Void>() {
+            public Void call() {
+              int i;
+              while ((i = next.getAndIncrement()) < requests) {
+                Query query = log.get(i % log.size());
+                execute(query, stats[query.queryClass], all, System.nanoTime());
+              }
+              return null;
+            }
+          }));
+        }
+        for (Future<Void> client : clients)
+          QryEvalBatch.get(client);
+      }
+    } finally {
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  //  A line of the report.
+
+  private static void report(String name, Stats stats, double seconds) {
+    QryMetrics.Histogram h = stats.latency;
+    long n = h.count();
+    if (n == 0 && stats.errors.get() == 0)
+      return;
+    System.out.printf("%-11s %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %7d %9.1f %9.1f%n",
+        name, n, n / seconds, h.quantile(0.5) / 1e6, h.quantile(0.95) / 1e6,
+        h.quantile(0.99) / 1e6, h.quantile(0.999) / 1e6, h.max() / 1e6, stats.errors.get(),
+        (n == 0) ? 0.0 : stats.bytes.get() / 1024.0 / n,
+        stats.bytes.get() / (1024.0 * 1024.0) / seconds);
+  }
+
+  private static int getInt(Map<String, String> params, String key, int defaultValue) {
+    return params.containsKey(key) ? Integer.parseInt(params.get(key)) : defaultValue;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage:  java QryLoadTest paramFile");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+    if (!params.containsKey("queryFilePath")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+
+    int[] shapes = null;
+    if (params.containsKey("load:shapes")) {
+      String[] names = params.get("load:shapes").split(",");
+      shapes = new int[names.length];
+      for (int i = 0; i < names.length; i++) {
+        shapes[i] = Arrays.asList(CLASSES).indexOf(names[i].trim());
+        if (shapes[i] < 0) {
+          System.err.println("Error: Unknown query class " + names[i].trim() + " in load:shapes.");
+          System.exit(1);
+        }
+      }
+    }
+    String modelName = params.containsKey("load:model") ? params.get("load:model") : "bm25";
+    List<Query> log = readLog(params.get("queryFilePath"), shapes,
+        modelName.equalsIgnoreCase("indri") ? "#AND" : "#SUM");
+    if (log.isEmpty()) {
+      System.err.println("Error: There are no queries in " + params.get("queryFilePath") + ".");
+      System.exit(1);
+    }
+
+    int nDoc = getInt(params, "load:nDoc", 100);
+    double qps = params.containsKey("load:qps") ? Double.parseDouble(params.get("load:qps")) : 0;
+    int concurrency = getInt(params, "load:concurrency",
+        (qps > 0) ? 64 : Runtime.getRuntime().availableProcessors());
+    int requests = getInt(params, "load:requests", log.size());
+    int warmup = getInt(params, "load:warmup", log.size());
+
+    Target target;
+    String url = params.get("load:target");
+    if (url == null || url.equals("inprocess")) {
+      RetrievalModel model;
+      if (modelName.equalsIgnoreCase("bm25")) {
+        model = new RetrievalModelBM25();
+        model.setParameter("k_1", Double.parseDouble(params.get("BM25:k_1")));
+        model.setParameter("b", Double.parseDouble(params.get("BM25:b")));
+        model.setParameter("k_3", Double.parseDouble(params.get("BM25:k_3")));
+      } else if (modelName.equalsIgnoreCase("indri")) {
+        model = new RetrievalModelIndri();
+        model.setParameter("mu", Double.parseDouble(params.get("Indri:mu")));
+        model.setParameter("lambda", Double.parseDouble(params.get("Indri:lambda")));
+      } else {
+        System.err.println("Error: Unknown load:model " + modelName + ".");
+        System.exit(1);
+        return;
+      }
+
+      QryEval.openIndex(params);
+      QryEval.getDocLengthStore();
+      TermVectorCache.configure(params);
+      IndexWarmer.warm(params);
+      target = new InProcess(model, nDoc);
+    } else {
+      target = new Server(url, modelName.toLowerCase(), nDoc);
+    }
+
+    QryLoadTest test = new QryLoadTest(target, log, qps, Math.max(1, concurrency));
+    String mode = (qps > 0) ? String.format("open loop at %.1f queries/s, at most %d at once",
+        qps, concurrency) : "closed loop, " + concurrency + " clients";
+
+    //  The warmup is recorded in histograms of its own, which are
+    //  thrown away.  In process, its queries are also in the stage
+    //  histograms and counters of QryMetrics, which start over.
+
+    if (warmup > 0) {
+      Stats[] stats = new Stats[CLASSES.length];
+      for (int c = 0; c < CLASSES.length; c++)
+        stats[c] = new Stats(new QryMetrics.Histogram());
+      test.replay(warmup, stats, new Stats(new QryMetrics.Histogram()));
+      QryMetrics.reset();
+    }
+
+    Stats[] stats = new Stats[CLASSES.length];
+    for (int c = 0; c < CLASSES.length; c++) {
+      stats[c] = new Stats(QryMetrics.histogram("qryeval_load_latency_seconds",
+          "The latency of the replayed queries.", "class", CLASSES[c]));
+    }
+    Stats all = new Stats(new QryMetrics.Histogram());
+
+    long startGc = target.gcMillis();
+    long start = System.nanoTime();
+    test.replay(requests, stats, all);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long gcMillis = target.gcMillis() - startGc;
+
+    System.out.printf("Load test:  %d queries in %.2f s, %.1f queries/s (%s, %s, %s)%n",
+        all.latency.count(), seconds, all.latency.count() / seconds, target.name(), mode,
+        modelName);
+    System.out.printf("%-11s %8s %9s %9s %9s %9s %9s %9s %7s %9s %9s%n", "class", "queries",
+        "qps", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "KB/query",
+        "MB/s");
+    for (int c = 0; c < CLASSES.length; c++)
+      report(CLASSES[c], stats[c], seconds);
+    report("all", all, seconds);
+    System.out.printf("GC:  %d ms (%.1f%% of the run)%n", gcMillis,
+        gcMillis / (seconds * 10));
+
+    QryMetrics.write(params);
+  }
+}
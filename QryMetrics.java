@@ -0,0 +1,425 @@
+/**
+ *  QryMetrics is the process-wide registry of operational metrics:
+ *
+ *    counters    Counts that only go up, e.g., queries evaluated.
+ *    gauges      Values that are read when the metrics are written,
+ *                e.g., the heap in use.
+ *    histograms  Latencies, from which the 50th, 95th and 99th
+ *                percentiles and the maximum are reported.
+ *
+ *  The stages of query evaluation each have a latency histogram,
+ *  qryeval_stage_seconds{stage="..."} (see {@link #stage}):
+ *
+ *    parse     Parsing a query string into a query tree.
+ *    postings  Reading a term's inverted list.
+ *    score     Evaluating a query tree, which includes the postings
+ *              of its terms.
+ *    topk      Sorting a query's documents and taking the top ones.
+ *    ids       Converting between internal and external document ids.
+ *    features  Computing one LeToR feature for a query's documents.
+ *    train     Training the LeToR model.
+ *    classify  Scoring a query's feature vectors with the model.
+ *    output    Writing a query's ranking to the trec_eval file.
+ *
+ *  A histogram counts its values in log-linear buckets, 64 per power
+ *  of two, so a percentile is within 1.6% of the true value.  Values
+ *  are recorded without locks, so that the threads of a batch or of
+ *  the server can share a histogram.
+ *
+ *  The metrics are written in the Prometheus text format, at the end
+ *  of a batch if metrics:path is set, and by the server's /metrics.
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class QryMetrics {
+
+  //  A value that is read when the metrics are written.
+
+  static abstract class Gauge {
+    abstract double value();
+  }
+
+  /**
+   *  A count that only goes up.
+   */
+  static class Counter {
+    private final AtomicLong count = new AtomicLong();
+
+    void inc() {
+      this.count.incrementAndGet();
+    }
+
+    void add(long n) {
+      this.count.addAndGet(n);
+    }
+
+    long get() {
+      return this.count.get();
+    }
+
+    void reset() {
+      this.count.set(0);
+    }
+  }
+
+  /**
+   *  A histogram of latencies in nanoseconds.  A value below 128 has
+   *  its own bucket; a larger value is in one of 64 buckets between
+   *  the powers of two below and above it.
+   */
+  static class Histogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 2 * SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     *  Record a latency.
+     *  @param nanos The latency in nanoseconds.
+     */
+    void record(long nanos) {
+      if (nanos < 0)
+        nanos = 0;
+      this.buckets.incrementAndGet(bucket(nanos));
+      this.count.incrementAndGet();
+      this.sum.addAndGet(nanos);
+      long m = this.max.get();
+      while (nanos > m && !this.max.compareAndSet(m, nanos))
+        m = this.max.get();
+    }
+
+    /**
+     *  Record the time since start.
+     *  @param start A time from System.nanoTime.
+     */
+    void since(long start) {
+      record(System.nanoTime() - start);
+    }
+
+    long count() {
+      return this.count.get();
+    }
+
+    long max() {
+      return this.max.get();
+    }
+
+    /**
+     *  Forget the recorded values.  A value that is recorded at the
+     *  same time may be partly kept.
+     */
+    void reset() {
+      for (int b = 0; b < BUCKETS; b++)
+        this.buckets.set(b, 0);
+      this.count.set(0);
+      this.sum.set(0);
+      this.max.set(0);
+    }
+
+    //  The bucket of a value, and the smallest value in a bucket.
+
+    private static int bucket(long v) {
+      if (v < 2 * SUB_BUCKETS)
+        return (int) v;
+      int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+      return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (v >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long lowest(int b) {
+      if (b < 2 * SUB_BUCKETS)
+        return b;
+      int shift = (b - SUB_BUCKETS) / SUB_BUCKETS;
+      return (long) (SUB_BUCKETS + (b - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     *  Get a percentile.  It is the middle of the bucket that the
+     *  percentile is in, but no more than the maximum.
+     *  @param q The percentile, between 0 and 1.
+     *  @return The percentile in nanoseconds, or 0 if the histogram
+     *          is empty.
+     */
+    double quantile(double q) {
+      long n = this.count.get();
+      if (n == 0)
+        return 0;
+      long rank = Math.max(1, (long) Math.ceil(q * n));
+      long seen = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+        seen += this.buckets.get(b);
+        if (seen >= rank) {
+          double mid = (lowest(b) + (lowest(b + 1) - 1)) / 2.0;
+          return Math.min(mid, this.max.get());
+        }
+      }
+      return this.max.get();
+    }
+  }
+
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+  //  The metrics of one name, by label set.
+
+  private static class Family {
+    String name;
+    String help;
+    String type;
+    TreeMap<String, Object> metrics = new TreeMap<String, Object>();
+  }
+
+  private static final TreeMap<String, Family> families = new TreeMap<String, Family>();
+
+  static {
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    gauge("qryeval_heap_used_bytes", "The heap in use.", new Gauge() {
+      double value() {
+        return memory.getHeapMemoryUsage().getUsed();
+      }
+    });
+    gauge("qryeval_heap_committed_bytes", "The heap that the JVM has.", new Gauge() {
+      double value() {
+        return memory.getHeapMemoryUsage().getCommitted();
+      }
+    });
+    for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      register("qryeval_gc_seconds_total", "The time spent in garbage collection.",
+          "counter", labels("gc", gc.getName()), new Gauge() {
+        double value() {
+          return gc.getCollectionTime() / 1000.0;
+        }
+      });
+    }
+    register("qryeval_termvector_cache_hits_total", "Term vectors found in the cache.",
+        "counter", "", new Gauge() {
+      double value() {
+        return TermVectorCache.getShared().getHits();
+      }
+    });
+    register("qryeval_termvector_cache_misses_total", "Term vectors that were decoded.",
+        "counter", "", new Gauge() {
+      double value() {
+        return TermVectorCache.getShared().getMisses();
+      }
+    });
+  }
+
+  /**
+   *  Make a label set, e.g., {stage="parse"}.
+   *  @param nameValues Label names and values, alternately.
+   *  @return The label set, or "" if there are no labels.
+   */
+  static String labels(String... nameValues) {
+    if (nameValues.length == 0)
+      return "";
+    StringBuilder s = new StringBuilder("{");
+    for (int i = 0; i + 1 < nameValues.length; i += 2) {
+      if (i > 0)
+        s.append(',');
+      s.append(nameValues[i]).append("=\"");
+      String value = nameValues[i + 1];
+      for (int k = 0; k < value.length(); k++) {
+        char c = value.charAt(k);
+        if (c == '"' || c == '\\')
+          s.append('\\').append(c);
+        else if (c == '\n')
+          s.append("\\n");
+        else
+          s.append(c);
+      }
+      s.append('"');
+    }
+    return s.append('}').toString();
+  }
+
+  //  Get the metric of a name and label set, creating it if needed.
+
+  private static synchronized Object get(String name, String help, String type,
+      String labels, Object metric) {
+    Family family = families.get(name);
+    if (family == null) {
+      family = new Family();
+      family.name = name;
+      family.help = help;
+      family.type = type;
+      families.put(name, family);
+    } else if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is a " + family.type + ", not a " + type);
+    }
+    Object old = family.metrics.get(labels);
+    if (old != null)
+      return old;
+    family.metrics.put(labels, metric);
+    return metric;
+  }
+
+  /**
+   *  Get a counter, creating it the first time.
+   *  @param name The metric name.
+   *  @param help What it counts.
+   *  @param nameValues Label names and values, alternately.
+   *  @return The counter.
+   */
+  static Counter counter(String name, String help, String... nameValues) {
+    return (Counter) get(name, help, "counter", labels(nameValues), new Counter());
+  }
+
+  /**
+   *  Get a latency histogram, creating it the first time.
+   *  @param name The metric name, which should end in _seconds.
+   *  @param help What it measures.
+   *  @param nameValues Label names and values, alternately.
+   *  @return The histogram.
+   */
+  static Histogram histogram(String name, String help, String... nameValues) {
+    return (Histogram) get(name, help, "summary", labels(nameValues), new Histogram());
+  }
+
+  /**
+   *  Get the latency histogram of a stage of query evaluation.
+   *  @param stage The stage, e.g., parse.
+   *  @return The histogram.
+   */
+  static Histogram stage(String stage) {
+    return histogram("qryeval_stage_seconds", "The latency of each stage of query evaluation.",
+        "stage", stage);
+  }
+
+  /**
+   *  Register a gauge.
+   *  @param name The metric name.
+   *  @param help What it measures.
+   *  @param gauge The gauge.
+   */
+  static void gauge(String name, String help, Gauge gauge) {
+    register(name, help, "gauge", "", gauge);
+  }
+
+  //  Register a value that is read when the metrics are written.  A
+  //  counter that some other class keeps is registered this way.
+
+  private static void register(String name, String help, String type, String labels,
+      Gauge gauge) {
+    get(name, help, type, labels, gauge);
+  }
+
+  /**
+   *  Set every counter and histogram back to zero, e.g., so that the
+   *  queries of a warmup phase aren't counted.  Gauges, which other
+   *  classes keep, are unchanged.
+   */
+  public static synchronized void reset() {
+    for (Family family : families.values()) {
+      for (Object metric : family.metrics.values()) {
+        if (metric instanceof Counter)
+          ((Counter) metric).reset();
+        else if (metric instanceof Histogram)
+          ((Histogram) metric).reset();
+      }
+    }
+  }
+
+  /**
+   *  Format the metrics in the Prometheus text format.
+   *  @return The metrics.
+   */
+  public static synchronized String format() {
+    StringBuilder s = new StringBuilder();
+    for (Family family : families.values()) {
+      s.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      s.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+      boolean histograms = false;
+      for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+        String labels = entry.getKey();
+        Object metric = entry.getValue();
+        if (metric instanceof Counter) {
+          sample(s, family.name, labels, ((Counter) metric).get());
+        } else if (metric instanceof Gauge) {
+          sample(s, family.name, labels, ((Gauge) metric).value());
+        } else {
+          Histogram h = (Histogram) metric;
+          for (double q : QUANTILES) {
+            sample(s, family.name, withLabel(labels, "quantile", Double.toString(q)),
+                h.quantile(q) / 1e9);
+          }
+          sample(s, family.name + "_sum", labels, h.sum.get() / 1e9);
+          sample(s, family.name + "_count", labels, h.count());
+          histograms = true;
+        }
+      }
+
+      //  Prometheus summaries don't have a maximum, so it is a gauge.
+
+      if (histograms) {
+        s.append("# HELP ").append(family.name).append("_max The largest value of ")
+            .append(family.name).append(".\n");
+        s.append("# TYPE ").append(family.name).append("_max gauge\n");
+        for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+          sample(s, family.name + "_max", entry.getKey(),
+              ((Histogram) entry.getValue()).max.get() / 1e9);
+        }
+      }
+    }
+    return s.toString();
+  }
+
+  private static String withLabel(String labels, String name, String value) {
+    String label = labels(name, value);
+    if (labels.length() == 0)
+      return label;
+    return labels.substring(0, labels.length() - 1) + "," + label.substring(1);
+  }
+
+  private static void sample(StringBuilder s, String name, String labels, double value) {
+    s.append(name).append(labels).append(' ');
+    if (value == Math.rint(value) && Math.abs(value) < 1e15)
+      s.append((long) value);
+    else
+      s.append(value);
+    s.append('\n');
+  }
+
+  /**
+   *  Get the number of bytes that the current thread has allocated, or
+   *  0 if the JVM doesn't count them.
+   */
+  static long allocatedBytes() {
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    if (mx instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  /**
+   *  Get the time that the JVM has spent in garbage collection.
+   *  @return The time in milliseconds, summed over the collectors.
+   */
+  static long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      millis += Math.max(0, gc.getCollectionTime());
+    return millis;
+  }
+
+  /**
+   *  Write the metrics to metrics:path, if it is set.
+   *  @param params The parameters read from the parameter file.
+   *  @throws IOException
+   */
+  public static void write(Map<String, String> params) throws IOException {
+    if (!params.containsKey("metrics:path"))
+      return;
+    Writer writer = new BufferedWriter(new FileWriter(params.get("metrics:path")));
+    writer.write(format());
+    writer.close();
+  }
+}
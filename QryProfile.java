@@ -0,0 +1,321 @@
+/**
+ *  QryProfile records how a query tree was evaluated, operator by
+ *  operator, so that the slow part of a query can be found.  For
+ *  each operator it records:
+ *
+ *    time       The wall time of its evaluate calls, in total and
+ *               without the time of its arguments (self).
+ *    postings   The postings that it read: from the index for a term,
+ *               from its arguments' results otherwise.
+ *    positions  The positions that it decoded (terms) or examined
+ *               (#SYN, #NEAR, #WINDOW).
+ *    docs       The documents in its result.
+ *    defaults   The default scores that it computed.
+ *
+ *  The measurements are taken where an operator's arguments are
+ *  evaluated (see {@link #evaluate}), so the operators themselves only
+ *  count their default scores.  The profile is printed as an explain
+ *  tree in the syntax of Qryop.toString, or as JSON.
+ *
+ *  Profiling is off unless profile:enabled is true in the parameter
+ *  file, and then every query that QryEval evaluates is profiled and
+ *  reported.  When it is off, the hooks are a test of a static
+ *  boolean.  Parameters:
+ *    profile:enabled  true to profile every query.
+ *    profile:format   text (default) or json.
+ *    profile:path     The file that the profiles are written to
+ *                     (default: standard output).
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class QryProfile {
+
+  //  True if the hooks look for a profile to record to.  When it is
+  //  false, evaluate() is a plain call.
+
+  private static boolean enabled = false;
+
+  //  True if every query is profiled and reported.
+
+  private static boolean profileAll = false;
+  private static boolean json = false;
+  private static Writer out = null;
+
+  private static final ThreadLocal<QryProfile> active = new ThreadLocal<QryProfile>();
+
+  //  One operator's measurements.
+
+  private static class Node {
+    Qryop op;
+    List<Node> children = new ArrayList<Node>();
+    int calls;
+    long nanos;
+    long childNanos;
+    long postings;
+    long positions;
+    long docs;
+    long defaults;
+  }
+
+  private String query;
+  private Node root;
+  private Deque<Node> stack = new ArrayDeque<Node>();
+  private IdentityHashMap<Qryop, Node> nodes = new IdentityHashMap<Qryop, Node>();
+  private QryResult result;
+
+  /**
+   *  Configure profiling from the profile:* parameters.
+   *  @param params The parameters read from the parameter file.
+   *  @throws IOException
+   */
+  public static void configure(Map<String, String> params) throws IOException {
+    profileAll = "true".equals(params.get("profile:enabled"));
+    json = "json".equals(params.get("profile:format"));
+    if (profileAll) {
+      enabled = true;
+      if (params.containsKey("profile:path")) {
+        out = new BufferedWriter(new FileWriter(params.get("profile:path")));
+      }
+    }
+  }
+
+  /**
+   *  Turn on the hooks, so that {@link #record} can profile a query,
+   *  without profiling every query.
+   */
+  public static void enable() {
+    enabled = true;
+  }
+
+  /**
+   *  Flush the profiles that were written to profile:path.
+   *  @throws IOException
+   */
+  public static synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  /**
+   *  Evaluate an operator.  If a profile is being recorded on this
+   *  thread, the evaluation is measured and added to it.
+   *  @param op The operator.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @return The result of evaluating the operator.
+   *  @throws IOException
+   */
+  static QryResult evaluate(Qryop op, RetrievalModel r) throws IOException {
+    if (!enabled)
+      return op.evaluate(r);
+    QryProfile profile = active.get();
+    if (profile == null)
+      return op.evaluate(r);
+    return profile.measure(op, r);
+  }
+
+  /**
+   *  Evaluate the query tree of a query.  If every query is profiled,
+   *  the profile is reported.
+   *  @param qString The query string, which labels the profile.
+   *  @param qTree The query tree.
+   *  @param r A retrieval model that controls how the operators behave.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  static QryResult evaluateQuery(String qString, Qryop qTree, RetrievalModel r)
+    throws IOException {
+    if (!profileAll)
+      return qTree.evaluate(r);
+
+    QryProfile profile = record(qString, qTree, r);
+    String report = json ? profile.toJson() + "\n" : profile.toText();
+    synchronized (QryProfile.class) {
+      if (out != null) {
+        out.write(report);
+      } else {
+        System.out.print(report);
+      }
+    }
+    return profile.result;
+  }
+
+  /**
+   *  Evaluate a query tree and record its profile.  The hooks must be
+   *  enabled.
+   *  @param qString The query string, which labels the profile.
+   *  @param qTree The query tree.
+   *  @param r A retrieval model that controls how the operators behave.
+   *  @return The profile.
+   *  @throws IOException
+   */
+  static QryProfile record(String qString, Qryop qTree, RetrievalModel r) throws IOException {
+    QryProfile profile = new QryProfile();
+    profile.query = qString;
+    QryProfile outer = active.get();
+    active.set(profile);
+    try {
+      profile.result = profile.measure(qTree, r);
+    } finally {
+      active.set(outer);
+    }
+    return profile;
+  }
+
+  /**
+   *  Count a default score that an operator computed.
+   *  @param op The operator.
+   */
+  static void countDefaultScore(Qryop op) {
+    if (!enabled)
+      return;
+    QryProfile profile = active.get();
+    if (profile != null)
+      profile.node(op).defaults++;
+  }
+
+  private Node node(Qryop op) {
+    Node node = this.nodes.get(op);
+    if (node == null) {
+      node = new Node();
+      node.op = op;
+      this.nodes.put(op, node);
+    }
+    return node;
+  }
+
+  private QryResult measure(Qryop op, RetrievalModel r) throws IOException {
+    Node parent = this.stack.peek();
+    Node node = node(op);
+    if (node.calls == 0) {
+      if (parent == null)
+        this.root = node;
+      else
+        parent.children.add(node);
+    }
+
+    this.stack.push(node);
+    long start = System.nanoTime();
+    QryResult result;
+    try {
+      result = op.evaluate(r);
+    } finally {
+      this.stack.pop();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    node.calls++;
+    node.nanos += elapsed;
+    int df = result.invertedList.df;
+    long docs = (df > 0) ? df : result.docScores.scores.size();
+    long positions = 0;
+    for (int i = 0; i < df; i++)
+      positions += result.invertedList.postings.get(i).tf;
+    node.docs += docs;
+    if (op instanceof QryopIlTerm) {
+      node.postings += df;
+      node.positions += positions;
+    }
+    if (parent != null) {
+      parent.childNanos += elapsed;
+      parent.postings += docs;
+      if (parent.op instanceof QryopIl)
+        parent.positions += positions;
+    }
+    return result;
+  }
+
+  //  The operator part of an operator's toString, e.g., "#NEAR\3(" or
+  //  "apple.body".
+
+  private static String label(Qryop op) {
+    String s = op.toString();
+    int paren = s.indexOf('(');
+    return (op.args.isEmpty() || paren < 0) ? s : s.substring(0, paren + 1);
+  }
+
+  /**
+   *  Format the profile as an explain tree, one operator per line.
+   *  @return The explain tree.
+   */
+  public String toText() {
+    StringBuilder s = new StringBuilder();
+    s.append("Profile:  ").append(this.query).append('\n');
+    if (this.root != null)
+      toText(this.root, 1, s);
+    return s.toString();
+  }
+
+  private void toText(Node node, int depth, StringBuilder s) {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < depth; i++)
+      line.append("  ");
+    line.append(label(node.op));
+    while (line.length() < 40)
+      line.append(' ');
+    line.append(String.format(" %9.3f ms  self %9.3f ms  postings %8d  positions %8d" +
+        "  docs %8d  defaults %8d%n", node.nanos / 1e6, (node.nanos - node.childNanos) / 1e6,
+        node.postings, node.positions, node.docs, node.defaults));
+    s.append(line);
+
+    if (!node.op.args.isEmpty()) {
+      for (Node child : node.children)
+        toText(child, depth + 1, s);
+      for (int i = 0; i < depth; i++)
+        s.append("  ");
+      s.append(")\n");
+    }
+  }
+
+  /**
+   *  Format the profile as a JSON object.
+   *  @return The JSON text, on one line.
+   */
+  public String toJson() {
+    StringBuilder s = new StringBuilder();
+    s.append("{\"query\":").append(quote(this.query)).append(",\"tree\":");
+    if (this.root == null)
+      s.append("null");
+    else
+      toJson(this.root, s);
+    return s.append('}').toString();
+  }
+
+  private void toJson(Node node, StringBuilder s) {
+    String op = label(node.op);
+    if (op.endsWith("("))
+      op = op.substring(0, op.length() - 1);
+    s.append("{\"op\":").append(quote(op));
+    s.append(",\"calls\":").append(node.calls);
+    s.append(",\"ms\":").append(node.nanos / 1e6);
+    s.append(",\"selfMs\":").append((node.nanos - node.childNanos) / 1e6);
+    s.append(",\"postings\":").append(node.postings);
+    s.append(",\"positions\":").append(node.positions);
+    s.append(",\"docs\":").append(node.docs);
+    s.append(",\"defaults\":").append(node.defaults);
+    s.append(",\"args\":[");
+    for (int i = 0; i < node.children.size(); i++) {
+      if (i > 0)
+        s.append(',');
+      toJson(node.children.get(i), s);
+    }
+    s.append("]}");
+  }
+
+  private static String quote(String text) {
+    StringBuilder s = new StringBuilder("\"");
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\')
+        s.append('\\').append(c);
+      else if (c < 0x20)
+        s.append(String.format("\\u%04x", (int) c));
+      else
+        s.append(c);
+    }
+    return s.append('"').toString();
+  }
+}
@@ -0,0 +1,282 @@
+/**
+ *  QrySweep evaluates the queries of a query file with every point of
+ *  a grid of BM25 and Indri parameter values, and writes one trec_eval
+ *  run file per point.  The inverted lists of each query are read
+ *  once, the first time that the query is evaluated; the statistics
+ *  that the scores are computed from (tf, document length, df, ctf)
+ *  are kept, and every other point of the grid is scored and ranked
+ *  from them (see {@link InvListStats}).  The grid points are
+ *  evaluated in parallel.
+ *
+ *  The grid is a comma-separated list of values per parameter:
+ *    sweep:BM25:k_1, sweep:BM25:b, sweep:BM25:k_3
+ *    sweep:Indri:mu, sweep:Indri:lambda
+ *  A model is swept if any of its parameters has a list; the others
+ *  are fixed at their BM25:* or Indri:* value.  Other parameters:
+ *    queryFilePath   The queries, one per line in format of id:query.
+ *    sweep:outputDir The directory of the run files (default ".").
+ *                    A run file is named after its point, e.g.,
+ *                    BM25_k_1=1.2_b=0.75_k_3=0.teIn.
+ *    sweep:threads   The number of threads (default: the number of
+ *                    processors).
+ *    sweep:nDoc      The number of documents per query (default 100).
+ *    eval:qrelsPath  If it is set, each run is also evaluated in the
+ *                    JVM (see {@link TrecEval}) and its metrics are
+ *                    printed.
+ *    metrics:path    If it is set, the {@link QryMetrics} are written
+ *                    to this file at the end.
+ *
+ *  Usage:  java QrySweep paramFile
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class QrySweep {
+
+  private static final String[] BM25_PARAMS = {"k_1", "b", "k_3"};
+  private static final String[] INDRI_PARAMS = {"mu", "lambda"};
+
+  //  One point of the grid.
+
+  private static class Point {
+    String modelName;
+    String[] names;
+    double[] values;
+    String[] labels;	// the values as they are written in the parameter file
+
+    RetrievalModel newModel() {
+      RetrievalModel model = modelName.equals("BM25") ?
+          new RetrievalModelBM25() : new RetrievalModelIndri();
+      for (int i = 0; i < names.length; i++)
+        model.setParameter(names[i], values[i]);
+      return model;
+    }
+
+    String fileName() {
+      StringBuilder s = new StringBuilder(modelName);
+      for (int i = 0; i < names.length; i++)
+        s.append('_').append(names[i]).append('=').append(labels[i]);
+      return s.append(".teIn").toString();
+    }
+  }
+
+  /**
+   *  Make the grid of one model from its sweep:* parameters.
+   *  @return The points, or an empty list if the model isn't swept.
+   */
+  private static List<Point> grid(Map<String, String> params, String modelName,
+      String[] names) {
+    List<Point> points = new ArrayList<Point>();
+    String[][] lists = new String[names.length][];
+    boolean swept = false;
+    for (int i = 0; i < names.length; i++) {
+      String values = params.get("sweep:" + modelName + ":" + names[i]);
+      if (values != null) {
+        swept = true;
+      } else {
+        values = params.get(modelName + ":" + names[i]);
+        if (values == null) {
+          System.err.println("Error: Neither sweep:" + modelName + ":" + names[i] +
+              " nor " + modelName + ":" + names[i] + " is set.");
+          System.exit(1);
+        }
+      }
+      lists[i] = values.split(",");
+      for (int k = 0; k < lists[i].length; k++)
+        lists[i][k] = lists[i][k].trim();
+    }
+    if (!swept)
+      return points;
+
+    //  Every combination, with the first parameter varying slowest.
+
+    int[] index = new int[names.length];
+    while (true) {
+      Point p = new Point();
+      p.modelName = modelName;
+      p.names = names;
+      p.values = new double[names.length];
+      p.labels = new String[names.length];
+      for (int i = 0; i < names.length; i++) {
+        p.labels[i] = lists[i][index[i]];
+        p.values[i] = Double.parseDouble(p.labels[i]);
+      }
+      points.add(p);
+
+      int i = names.length - 1;
+      while (i >= 0 && ++index[i] == lists[i].length) {
+        index[i] = 0;
+        i--;
+      }
+      if (i < 0)
+        return points;
+    }
+  }
+
+  //  One query's ranking at one point of the grid.
+
+  private static class Ranking {
+    String lines;	// the query's lines of the run file
+    int[] docids;	// the top documents, best first
+  }
+
+  /**
+   *  Evaluate one query at one point of the grid.  The run file lines
+   *  are the ones that QryEval.outputResults writes.
+   *  @return The query's ranking.
+   */
+  private static Ranking evaluate(String qid, String query, Point point,
+      Map<String, InvListStats> stats, int nDoc) throws IOException {
+    RetrievalModel model = point.newModel();
+    model.invListStats = stats;
+    Qryop qTree = QryEval.parseQuery(query, model);
+    long start = System.nanoTime();
+    ScoreList scores = qTree.evaluate(model).docScores;
+    QryEval.SCORE.since(start);
+    QryEval.QUERIES.inc();
+    int[] top = QryEval.rankScoreList(scores, nDoc);
+
+    Ranking ranking = new Ranking();
+    ranking.docids = new int[top.length];
+    StringWriter s = new StringWriter();
+    BufferedWriter writer = new BufferedWriter(s);
+    if (top.length == 0) {
+      writer.write(qid + " Q0 dummy 1 0 run-1");
+      writer.newLine();
+    }
+    for (int i = 0; i < top.length; i++) {
+      ranking.docids[i] = scores.getDocid(top[i]);
+      writer.write(qid + " Q0 " + QryEval.getExternalDocid(ranking.docids[i])
+          + " " + (i+1) + " " + scores.getDocidScore(top[i])
+          + " run-1");
+      writer.newLine();
+    }
+    writer.close();
+    ranking.lines = s.toString();
+    return ranking;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage:  java QrySweep paramFile");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+    if (!params.containsKey("indexPath") || !params.containsKey("queryFilePath")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+
+    List<Point> points = grid(params, "BM25", BM25_PARAMS);
+    points.addAll(grid(params, "Indri", INDRI_PARAMS));
+    if (points.isEmpty()) {
+      System.err.println("Error: No sweep:* parameter lists were given.");
+      System.exit(1);
+    }
+
+    File outputDir = new File(params.containsKey("sweep:outputDir") ?
+        params.get("sweep:outputDir") : ".");
+    int threads = Runtime.getRuntime().availableProcessors();
+    if (params.containsKey("sweep:threads")) {
+      threads = Integer.parseInt(params.get("sweep:threads"));
+    }
+    int nDoc = 100;
+    if (params.containsKey("sweep:nDoc")) {
+      nDoc = Integer.parseInt(params.get("sweep:nDoc"));
+    }
+
+    QryEval.openIndex(params);
+    QryEval.getDocLengthStore();
+    IndexWarmer.warm(params);
+    TrecEval eval = TrecEval.create(params);
+
+    final List<String> qids = new ArrayList<String>();
+    final List<String> queries = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new FileReader(params.get("queryFilePath")));
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] query = line.split(":");
+      qids.add(query[0]);
+      queries.add(query[1]);
+    }
+    in.close();
+
+    //  Each query's statistics are shared by all of its grid points.
+
+    final List<Map<String, InvListStats>> stats = new ArrayList<Map<String, InvListStats>>();
+    for (int q = 0; q < qids.size(); q++)
+      stats.add(new ConcurrentHashMap<String, InvListStats>());
+
+    long start = System.currentTimeMillis();
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    List<List<Future<Ranking>>> runs = new ArrayList<List<Future<Ranking>>>();
+    try {
+
+      //  The first point of each model reads the inverted lists, and
+      //  the other points wait for it, so that each list is read once.
+
+      boolean[] first = new boolean[points.size()];
+      Set<String> models = new HashSet<String>();
+      for (int p = 0; p < points.size(); p++)
+        first[p] = models.add(points.get(p).modelName);
+
+      for (int pass = 0; pass < 2; pass++) {
+        for (int p = 0; p < points.size(); p++) {
+          if (pass == 0)
+            runs.add(new ArrayList<Future<Ranking>>());
+          if (first[p] != (pass == 0))
+            continue;
+          for (int q = 0; q < qids.size(); q++) {
+            final int qq = q;
+            final Point point = points.get(p);
+            final int n = nDoc;
+            runs.get(p).add(pool.submit(new Callable<Ranking>() {
+              public Ranking call() throws Exception {
+                return evaluate(qids.get(qq), queries.get(qq), point, stats.get(qq), n);
+              }
+            }));
+          }
+        }
+        if (pass == 0) {
+          for (List<Future<Ranking>> run : runs) {
+            for (Future<Ranking> f : run)
+              QryEvalBatch.get(f);
+          }
+        }
+      }
+
+      for (int p = 0; p < points.size(); p++) {
+        File file = new File(outputDir, points.get(p).fileName());
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        for (Future<Ranking> f : runs.get(p))
+          writer.write(QryEvalBatch.get(f).lines);
+        writer.close();
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    System.out.println("Sweep:  " + points.size() + " points, " + qids.size() +
+        " queries in " + (System.currentTimeMillis() - start) + " ms");
+
+    if (eval != null) {
+      start = System.nanoTime();
+      double[][] metrics = new double[points.size()][];
+      for (int p = 0; p < points.size(); p++) {
+        List<int[]> rankings = new ArrayList<int[]>();
+        for (Future<Ranking> f : runs.get(p))
+          rankings.add(QryEvalBatch.get(f).docids);
+        metrics[p] = eval.evaluate(qids, rankings);
+      }
+      System.out.printf("Evaluated %d runs in %.2f ms%n", points.size(),
+          (System.nanoTime() - start) / 1e6);
+      for (int p = 0; p < points.size(); p++)
+        System.out.println(points.get(p).fileName() + "  " + eval.format(metrics[p]));
+    }
+    QryEval.printMemoryUsage(false);
+    QryMetrics.write(params);
+  }
+}
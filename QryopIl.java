@@ -25,7 +25,7 @@ public abstract class QryopIl extends Qryop {
 
     for (int i=0; i<this.args.size(); i++) {
       DaaTPtr ptri = new DaaTPtr ();
-      ptri.invList = this.args.get(i).evaluate(r).invertedList;
+      ptri.invList = QryProfile.evaluate(this.args.get(i), r).invertedList;
       ptri.scoreList = null;
       ptri.nextDoc = 0;
 	
@@ -133,6 +133,12 @@ public class QryopIlNear extends QryopIl {
           int nextD = this.daatPtrs.get(i).nextDoc;
           locs.set(i, this.daatPtrs.get(i).invList.postings.get(nextD).positions.get(ptrs.get(i)));
     	}
+    	if (daatPtrsSize == 1)	// one argument, e.g., the others were stopwords; it matches everywhere
+    	{
+    	  positions.add(locs.get(0));
+    	  ptrs.set(0, ptrs.get(0) + 1);
+    	  continue;
+    	}
     	EVALUATECOMBO:  	// evaluate one possible term locs combination
     	for (int i = 0; i < daatPtrsSize - 1; i ++)
     	{
@@ -189,12 +195,12 @@ public class QryopIlNear extends QryopIl {
     for (int i=0; i<this.args.size(); i++) {
 
       if (! (this.args.get(i) instanceof QryopIl)) 
-	QryEval.fatalError ("Error:  Invalid argument in " +
+	QryEval.fatalError ("Invalid argument in " +
 			    this.toString());
       else
 	if ((i>0) &&
 	    (! ptrs.get(i).invList.field.equals (ptrs.get(0).invList.field)))
-	  QryEval.fatalError ("Error:  Arguments must be in the same field:  " +
+	  QryEval.fatalError ("Arguments must be in the same field:  " +
 			      this.toString());
     }
 
@@ -12,6 +12,10 @@ import java.io.*;
 
 public class QryopIlTerm extends QryopIl {
 
+  private static final QryMetrics.Histogram POSTINGS = QryMetrics.stage("postings");
+  private static final QryMetrics.Counter POSTINGS_READ = QryMetrics.counter(
+      "qryeval_postings_total", "The postings read from inverted lists.");
+
   private String term;
   private String field;
 
@@ -56,7 +60,10 @@ public class QryopIlTerm extends QryopIl {
     QryResult result = new QryResult();
     
     //System.out.println(this.term);
+    long start = System.nanoTime();
     result.invertedList = new InvList(this.term, this.field);
+    POSTINGS.since(start);
+    POSTINGS_READ.add(result.invertedList.df);
     return result;
   }
 
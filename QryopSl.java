@@ -34,7 +34,7 @@ public abstract class QryopSl extends Qryop {
       DaaTPtr ptri = new DaaTPtr ();
       ptri.invList = null;
       //QryResult tmp = this.args.get(i).evaluate(r);
-      ptri.scoreList = this.args.get(i).evaluate(r).docScores;
+      ptri.scoreList = QryProfile.evaluate(this.args.get(i), r).docScores;
       ptri.nextDoc = 0;
 	
       this.daatPtrs.add (ptri);
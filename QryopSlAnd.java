@@ -291,6 +291,7 @@ public class QryopSlAnd extends QryopSl {
    */
   public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 
+    QryProfile.countDefaultScore(this);
     if (r instanceof RetrievalModelUnrankedBoolean || r instanceof RetrievalModelRankedBoolean)
       return (0.0);
     if (r instanceof RetrievalModelIndri) {
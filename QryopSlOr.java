@@ -151,12 +151,12 @@ public class QryopSlOr extends QryopSl {
     for (int i=0; i<this.args.size(); i++) {
 
       if (! (this.args.get(i) instanceof QryopIl)) 
-	QryEval.fatalError ("Error:  Invalid argument in " +
+	QryEval.fatalError ("Invalid argument in " +
 			    this.toString());
       else
 	if ((i>0) &&
 	    (! ptrs.get(i).invList.field.equals (ptrs.get(0).invList.field)))
-	  QryEval.fatalError ("Error:  Arguments must be in the same field:  " +
+	  QryEval.fatalError ("Arguments must be in the same field:  " +
 			      this.toString());
     }
 
@@ -173,6 +173,7 @@ public class QryopSlOr extends QryopSl {
    */
   public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 
+    QryProfile.countDefaultScore(this);
     if (r instanceof RetrievalModelUnrankedBoolean || r instanceof RetrievalModelRankedBoolean)
       return (0.0);
 
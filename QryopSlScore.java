@@ -15,18 +15,6 @@ public class QryopSlScore extends QryopSl {
   
   public int ctf;		// Indri needs this
   public String field;	// Indri needs this
-  private static DocLengthStore dls;
-  
-  static {
-    try {
-      //x = new MyFileWriter("foo.txt"); 
-      dls= new DocLengthStore(QryEval.READER);
-    } catch (Exception e) {
-      //logging_and _stuff_you_might_want_to_terminate_the_app_here_blah();
-    	System.err.println("Error: Can't set up DocLengthStore in QryopScore.");
-        System.exit(1);
-    } 
-  }
 
   /**
    *  Construct a new SCORE operator.  The SCORE operator accepts just
@@ -84,7 +72,7 @@ public class QryopSlScore extends QryopSl {
 
     // Evaluate the query argument.
 
-    QryResult result = args.get(0).evaluate(r);
+    QryResult result = QryProfile.evaluate(args.get(0), r);
 
     // Each pass of the loop computes a score for one document. Note:
     // If the evaluate operation above returned a score list (which is
@@ -125,42 +113,78 @@ public class QryopSlScore extends QryopSl {
    */
   public QryResult evaluateBM25(RetrievalModelBM25 r) throws IOException {
 
+    // A parameter sweep shares the statistics of the inverted list.
+    if (r.invListStats != null)
+      return evaluateBM25(r, getInvListStats(r));
+
     // Evaluate the query argument.
-    QryResult result = args.get(0).evaluate(r);
+    QryResult result = QryProfile.evaluate(args.get(0), r);
+    InvList list = result.invertedList;
+    DocLengthStore dls = QryEval.getDocLengthStore();
     
-    int N = QryEval.READER.getDocCount(result.invertedList.field);
+    int N = QryEval.READER.getDocCount(list.field);
     //int N = QryEval.READER.numDocs();
-    double avg_doclen = QryEval.READER.getSumTotalTermFreq(result.invertedList.field) / (double)N;
-    //DocLengthStore dls = new DocLengthStore(QryEval.READER);
-    int df = result.invertedList.df;
-    double idf = Math.log((N - df + 0.5) / (df + 0.5));
+    double avg_doclen = QryEval.READER.getSumTotalTermFreq(list.field) / (double)N;
+    double idf = bm25Idf(N, list.df);
     
 
     // Each pass of the loop computes a score for one document. Note:
     // If the evaluate operation above returned a score list (which is
     // very possible), this loop gets skipped.
 
-    for (int i = 0; i < result.invertedList.df; i++) {
+    for (int i = 0; i < list.df; i++) {
 
       // DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY. 
-      long doclen = dls.getDocLength(result.invertedList.field, 
-    		  result.invertedList.postings.get(i).docid);
-      int tf = result.invertedList.postings.get(i).tf;
-      double tfWeight = tf / 
-    		  (tf + r.k_1 * (1 - r.b + r.b * doclen / avg_doclen));
+      int docid = list.postings.get(i).docid;
+      long doclen = dls.getDocLength(list.field, docid);
+      int tf = list.postings.get(i).tf;
       
-      result.docScores.add(result.invertedList.postings.get(i).docid, idf * tfWeight);
+      result.docScores.add(docid, idf * bm25TfWeight(r, tf, doclen, avg_doclen));
     }
 
     // The SCORE operator should not return a populated inverted list.
     // If there is one, replace it with an empty inverted list.
-    if (result.invertedList.df > 0)
+    if (list.df > 0)
 	  result.invertedList = new InvList();
 
     return result;
   }  
   
 
+  /**
+   *  Evaluate the query operator for BM25 retrieval model from the
+   *  shared statistics of its inverted list.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param stats The statistics of the query argument's inverted list.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  private QryResult evaluateBM25(RetrievalModelBM25 r, InvListStats stats) throws IOException {
+
+    QryResult result = new QryResult();
+    
+    int N = QryEval.READER.getDocCount(stats.field);
+    double avg_doclen = QryEval.READER.getSumTotalTermFreq(stats.field) / (double)N;
+    double idf = bm25Idf(N, stats.df);
+
+    for (int i = 0; i < stats.df; i++) {
+      result.docScores.add(stats.docids[i],
+          idf * bm25TfWeight(r, stats.tf[i], stats.doclen[i], avg_doclen));
+    }
+
+    return result;
+  }  
+  
+  private static double bm25Idf(int N, int df) {
+    return Math.log((N - df + 0.5) / (df + 0.5));
+  }
+
+  private static double bm25TfWeight(RetrievalModelBM25 r, int tf, long doclen,
+      double avg_doclen) {
+    return tf / (tf + r.k_1 * (1 - r.b + r.b * doclen / avg_doclen));
+  }
+  
+
   /**
    *  Evaluate the query operator for BM25 retrieval model.
    *  @param r A retrieval model that controls how the operator behaves.
@@ -169,42 +193,95 @@ public class QryopSlScore extends QryopSl {
    */
   public QryResult evaluateIndri(RetrievalModelIndri r) throws IOException {
 
+    // A parameter sweep shares the statistics of the inverted list.
+    if (r.invListStats != null)
+      return evaluateIndri(r, getInvListStats(r));
+
     // Evaluate the query argument.
-    QryResult result = args.get(0).evaluate(r);
+    QryResult result = QryProfile.evaluate(args.get(0), r);
+    InvList list = result.invertedList;
+    DocLengthStore dls = QryEval.getDocLengthStore();
     
-    long lengthC = QryEval.READER.getSumTotalTermFreq(result.invertedList.field);
-    int ctf = result.invertedList.ctf;
-    double p_qi_C = ctf / (double) lengthC;
-    //DocLengthStore dls = new DocLengthStore(QryEval.READER);
+    long lengthC = QryEval.READER.getSumTotalTermFreq(list.field);
+    double p_qi_C = list.ctf / (double) lengthC;
     
-    this.ctf = result.invertedList.ctf;
-    this.field = result.invertedList.field;
+    this.ctf = list.ctf;
+    this.field = list.field;
 
     // Each pass of the loop computes a score for one document. Note:
     // If the evaluate operation above returned a score list (which is
     // very possible), this loop gets skipped.
 
-    for (int i = 0; i < result.invertedList.df; i++) {
+    for (int i = 0; i < list.df; i++) {
 
       // DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY. 
-      long length_d = dls.getDocLength(result.invertedList.field, 
-    		  result.invertedList.postings.get(i).docid);
-      int tf = result.invertedList.postings.get(i).tf;
-      double p_qi_d = (tf + r.mu * p_qi_C) / (double)(length_d + r.mu);
-      double p_lambda_qi_d = r.lambda * p_qi_d + (1 - r.lambda) * p_qi_C;
+      int docid = list.postings.get(i).docid;
+      long length_d = dls.getDocLength(list.field, docid);
+      int tf = list.postings.get(i).tf;
       
-      result.docScores.add(result.invertedList.postings.get(i).docid, p_lambda_qi_d);
+      result.docScores.add(docid, indriScore(r, tf, length_d, p_qi_C));
     }
 
     // The SCORE operator should not return a populated inverted list.
     // If there is one, replace it with an empty inverted list.
-    if (result.invertedList.df > 0)
+    if (list.df > 0)
 	  result.invertedList = new InvList();
 
     return result;
   }  
   
 
+  /**
+   *  Evaluate the query operator for Indri retrieval model from the
+   *  shared statistics of its inverted list.
+   *  @param r A retrieval model that controls how the operator behaves.
+   *  @param stats The statistics of the query argument's inverted list.
+   *  @return The result of evaluating the query.
+   *  @throws IOException
+   */
+  private QryResult evaluateIndri(RetrievalModelIndri r, InvListStats stats) throws IOException {
+
+    QryResult result = new QryResult();
+    
+    long lengthC = QryEval.READER.getSumTotalTermFreq(stats.field);
+    double p_qi_C = stats.ctf / (double) lengthC;
+    
+    this.ctf = stats.ctf;
+    this.field = stats.field;
+
+    for (int i = 0; i < stats.df; i++) {
+      result.docScores.add(stats.docids[i], indriScore(r, stats.tf[i], stats.doclen[i], p_qi_C));
+    }
+
+    return result;
+  }  
+  
+  private static double indriScore(RetrievalModelIndri r, int tf, long length_d, double p_qi_C) {
+    double p_qi_d = (tf + r.mu * p_qi_C) / (length_d + r.mu);
+    return r.lambda * p_qi_d + (1 - r.lambda) * p_qi_C;
+  }
+  
+
+  /**
+   *  Get the statistics of the query argument's inverted list from the
+   *  map that the retrieval model shares.  The argument is only
+   *  evaluated if an earlier evaluation didn't add them.
+   *  @param r A retrieval model with a shared statistics map.
+   *  @return The statistics.
+   *  @throws IOException
+   */
+  private InvListStats getInvListStats(RetrievalModel r) throws IOException {
+    Map<String, InvListStats> shared = r.invListStats;
+    String key = args.get(0).toString();
+    InvListStats stats = shared.get(key);
+    if (stats == null) {
+      stats = new InvListStats(QryProfile.evaluate(args.get(0), r).invertedList);
+      shared.put(key, stats);
+    }
+    return stats;
+  }  
+  
+
   /*
    *  Calculate the default score for a document that does not match
    *  the query argument.  This score is 0 for many retrieval models,
@@ -215,6 +292,7 @@ public class QryopSlScore extends QryopSl {
    */
   public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 
+    QryProfile.countDefaultScore(this);
     if (r instanceof RetrievalModelUnrankedBoolean || r instanceof RetrievalModelRankedBoolean
     		|| r instanceof RetrievalModelBM25)
       return (0.0);
@@ -223,8 +301,7 @@ public class QryopSlScore extends QryopSl {
       long lengthC = QryEval.READER.getSumTotalTermFreq(this.field);
       double p_qi_C = this.ctf / (double) lengthC;
     	
-      //DocLengthStore dls = new DocLengthStore(QryEval.READER);
-      long length_d = dls.getDocLength(this.field, (int)docid);
+      long length_d = QryEval.getDocLengthStore().getDocLength(this.field, (int)docid);
       int tf = 0;
       double p_qi_d = (tf + ((RetrievalModelIndri)r).mu * p_qi_C) /
     		  (double)(length_d + ((RetrievalModelIndri)r).mu);
@@ -146,6 +146,7 @@ public class QryopSlSum extends QryopSl {
    */
   public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 
+    QryProfile.countDefaultScore(this);
     if (r instanceof RetrievalModelUnrankedBoolean || r instanceof RetrievalModelRankedBoolean)
       return (0.0);
 
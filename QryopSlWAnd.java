@@ -245,6 +245,7 @@ public class QryopSlWAnd extends QryopSl {
    */
   public double getDefaultScore (RetrievalModel r, long docid) throws IOException {
 
+    QryProfile.countDefaultScore(this);
     if (r instanceof RetrievalModelUnrankedBoolean || r instanceof RetrievalModelRankedBoolean)
       return (0.0);
     if (r instanceof RetrievalModelIndri) {
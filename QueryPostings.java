@@ -0,0 +1,147 @@
+/**
+ *  QueryPostings collects the term frequencies of a query's stems in
+ *  the query's candidate documents by reading the stems' postings,
+ *  instead of decoding each candidate's term vector.  The candidates'
+ *  docids are sorted, and each stem's postings are opened once per
+ *  field and advanced from one candidate to the next, so the cost
+ *  depends on the query's length and the number of candidates, not on
+ *  the length of the documents.
+ *
+ *  A field's frequencies are collected the first time that a feature
+ *  asks for them.  The feature tasks of a query share one
+ *  QueryPostings, so that is synchronized.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+public class QueryPostings {
+
+  /**
+   *  The postings of a query's stems in one field.  The stems are the
+   *  query's distinct stems in index term order, which is the order
+   *  that a TermVector lists them in.
+   */
+  public static class FieldPostings {
+    String field;
+    String[] stems;
+    int[] df;
+    long[] ctf;
+
+    private int[] docIDs;	// sorted
+    private int[][] tf;	// tf[candidate][stem], null if the field is empty
+
+    /**
+     *  Get the index of a stem in {@link #stems}.
+     *  @return The index, or -1 if the stem isn't one of the query's.
+     */
+    public int indexOf(String stem) {
+      for (int k = 0; k < stems.length; k++) {
+        if (stems[k].equals(stem))
+          return k;
+      }
+      return -1;
+    }
+
+    /**
+     *  Get the frequencies of the stems in a candidate document.
+     *  @param docID The internal id of a candidate document.
+     *  @return tf[k] is the frequency of stems[k], or null if the
+     *          document has no terms in the field.
+     */
+    public int[] getTf(int docID) {
+      return tf[Arrays.binarySearch(docIDs, docID)];
+    }
+  }
+
+  private int[] docIDs;
+  private ArrayList<String> queryStems;
+  private HashMap<String, FieldPostings> fields = new HashMap<String, FieldPostings>();
+
+  /**
+   *  Constructor.
+   *  @param docIDs The internal ids of the query's candidate documents.
+   *  @param queryStems The query's stems.
+   */
+  public QueryPostings(int[] docIDs, ArrayList<String> queryStems) {
+    TreeSet<Integer> sorted = new TreeSet<Integer>();
+    for (int docID : docIDs)
+      sorted.add(docID);
+
+    this.docIDs = new int[sorted.size()];
+    int i = 0;
+    for (int docID : sorted)
+      this.docIDs[i++] = docID;
+    this.queryStems = queryStems;
+  }
+
+  /**
+   *  Get the postings of the query's stems in a field.
+   *  @param field The field.
+   *  @return The postings.
+   *  @throws IOException
+   */
+  public synchronized FieldPostings get(String field) throws IOException {
+    FieldPostings p = this.fields.get(field);
+    if (p == null) {
+      p = read(field);
+      this.fields.put(field, p);
+    }
+    return p;
+  }
+
+  private FieldPostings read(String field) throws IOException {
+    IndexReader reader = QryEval.READER;
+
+    //  BytesRef order is the order of the terms in the index.
+
+    TreeSet<BytesRef> distinct = new TreeSet<BytesRef>();
+    for (String stem : this.queryStems)
+      distinct.add(new BytesRef(stem));
+
+    FieldPostings p = new FieldPostings();
+    p.field = field;
+    p.stems = new String[distinct.size()];
+    p.df = new int[distinct.size()];
+    p.ctf = new long[distinct.size()];
+    p.docIDs = this.docIDs;
+    p.tf = new int[this.docIDs.length][distinct.size()];
+
+    int k = 0;
+    for (BytesRef bytes : distinct) {
+      p.stems[k] = bytes.utf8ToString();
+      Term term = new Term(field, bytes);
+      p.df[k] = reader.docFreq(term);
+      p.ctf[k] = reader.totalTermFreq(term);
+
+      DocsEnum docs = MultiFields.getTermDocsEnum(reader, null, field, bytes,
+          DocsEnum.FLAG_FREQS);
+      if (docs != null) {
+        int doc = -1;
+        for (int i = 0; i < this.docIDs.length; i++) {
+          if (doc < this.docIDs[i])
+            doc = docs.advance(this.docIDs[i]);
+          if (doc == DocIdSetIterator.NO_MORE_DOCS)
+            break;
+          if (doc == this.docIDs[i])
+            p.tf[i][k] = docs.freq();
+        }
+      }
+      k++;
+    }
+
+    //  A document without terms in the field has no term vector for it,
+    //  so its features are missing, as they are for the TermVector path.
+
+    DocLengthStore lengths = QryEval.getDocLengthStore();
+    for (int i = 0; i < this.docIDs.length; i++) {
+      if (lengths.getDocLength(field, this.docIDs[i]) == 0)
+        p.tf[i] = null;
+    }
+    return p;
+  }
+}
@@ -0,0 +1,207 @@
+/**
+ *  RankSvmTrainer trains a linear pairwise ranking SVM in the JVM, as
+ *  an alternative to running svm_rank_learn.  It minimizes the same
+ *  objective as svm_rank_learn with the same -c value:
+ *
+ *    1/2 |w|^2 + C/n * sum over pairs of max(0, 1 - w.(x_i - x_j))
+ *
+ *  where n is the number of training queries, and the pairs are the
+ *  documents i, j of one query with rel_i > rel_j.  The solver is
+ *  primal subgradient descent with the Pegasos step size 1/(lambda t)
+ *  on the objective divided by C P / n (P is the number of pairs), so
+ *  lambda = n / (C P).  The averaged weights of the second half of the
+ *  iterations are the result.
+ *
+ *  Each iteration's subgradient is computed per query by a pool of
+ *  threads and summed in query order, so the model doesn't depend on
+ *  the number of threads.  The model file has the same format as the
+ *  one svm_rank_learn writes, so {@link SvmRankModel} and
+ *  svm_rank_classify can read it.
+ *
+ *  Parameters:
+ *    letor:svmRankParamC      C
+ *    letor:svmRankIterations  The number of iterations (default 1000).
+ *    letor:trainerThreads     The number of threads (default: the
+ *                             number of processors).
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class RankSvmTrainer {
+
+  private double c;
+  private int iterations;
+  private int threads;
+
+  private List<double[][]> vectors = new ArrayList<double[][]>();
+  private List<int[]> rels = new ArrayList<int[]>();
+  private int dimension = 0;
+  private long numPairs = 0;
+
+  /**
+   *  Constructor.
+   *  @param params The parameters read from the parameter file.
+   */
+  public RankSvmTrainer(Map<String, String> params) {
+    this.c = Double.parseDouble(params.get("letor:svmRankParamC"));
+    this.iterations = 1000;
+    if (params.containsKey("letor:svmRankIterations")) {
+      this.iterations = Integer.parseInt(params.get("letor:svmRankIterations"));
+    }
+    this.threads = Runtime.getRuntime().availableProcessors();
+    if (params.containsKey("letor:trainerThreads")) {
+      this.threads = Integer.parseInt(params.get("letor:trainerThreads"));
+    }
+  }
+
+  /**
+   *  Add the training data of one query.
+   *  @param queryVectors queryVectors[i][j] is the value of feature j
+   *         of document i; [i][0] is ignored.
+   *  @param queryRels The relevance of each document.
+   */
+  public synchronized void addQuery(double[][] queryVectors, int[] queryRels) {
+    this.vectors.add(queryVectors);
+    this.rels.add(queryRels);
+    for (int i = 0; i < queryVectors.length; i++) {
+      this.dimension = Math.max(this.dimension, queryVectors[i].length);
+      for (int k = 0; k < queryVectors.length; k++) {
+        if (queryRels[i] > queryRels[k])
+          this.numPairs++;
+      }
+    }
+  }
+
+  /**
+   *  Train the model.
+   *  @return The weights; w[j] is the weight of feature j.
+   *  @throws Exception
+   */
+  public double[] train() throws Exception {
+    int d = this.dimension;
+    double[] w = new double[d];
+    double[] average = new double[d];
+
+    if (this.numPairs == 0) {
+      System.err.println("Warning: The training data has no preference pairs.");
+      return w;
+    }
+
+    double lambda = this.vectors.size() / (this.c * this.numPairs);
+    double radius = 1.0 / Math.sqrt(lambda);
+    int averageFrom = this.iterations / 2;
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, this.threads));
+    try {
+      for (int t = 1; t <= this.iterations; t++) {
+        final double[] wt = w;
+
+        //  The loss subgradient: the sum of (x_i - x_j) over the pairs
+        //  that are inside the margin.
+
+        List<Future<double[]>> parts = new ArrayList<Future<double[]>>();
+        for (int q = 0; q < this.vectors.size(); q++) {
+          final double[][] x = this.vectors.get(q);
+          final int[] rel = this.rels.get(q);
+          parts.add(pool.submit(new Callable<double[]>() {
+            public double[] call() {
+              return violations(wt, x, rel);
+            }
+          }));
+        }
+        double[] g = new double[d];
+        for (Future<double[]> part : parts) {
+          double[] v = QryEvalBatch.get(part);
+          for (int j = 0; j < d; j++)
+            g[j] += v[j];
+        }
+
+        double eta = 1.0 / (lambda * t);
+        double shrink = 1.0 - eta * lambda;
+        double norm = 0.0;
+        for (int j = 0; j < d; j++) {
+          w[j] = shrink * w[j] + eta * g[j] / this.numPairs;
+          norm += w[j] * w[j];
+        }
+        norm = Math.sqrt(norm);
+        if (norm > radius) {
+          for (int j = 0; j < d; j++)
+            w[j] *= radius / norm;
+        }
+
+        if (t > averageFrom) {
+          for (int j = 0; j < d; j++)
+            average[j] += w[j] / (this.iterations - averageFrom);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    average[0] = 0.0;
+    return average;
+  }
+
+  /**
+   *  Sum x_i - x_k over the pairs of one query with rel_i > rel_k and
+   *  w.(x_i - x_k) < 1.
+   */
+  private static double[] violations(double[] w, double[][] x, int[] rel) {
+    int n = x.length;
+    double[] s = new double[n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < x[i].length && j < w.length; j++)
+        s[i] += w[j] * x[i][j];
+    }
+
+    double[] v = new double[w.length];
+    for (int i = 0; i < n; i++) {
+      for (int k = 0; k < n; k++) {
+        if (rel[i] > rel[k] && s[i] - s[k] < 1.0) {
+          for (int j = 0; j < x[i].length; j++)
+            v[j] += x[i][j];
+          for (int j = 0; j < x[k].length; j++)
+            v[j] -= x[k][j];
+        }
+      }
+    }
+    return v;
+  }
+
+  /**
+   *  Write a model in the format that svm_rank_learn writes.
+   *  @param file The model file.
+   *  @param w The weights.
+   *  @throws IOException
+   */
+  public void writeModel(File file, double[] w) throws IOException {
+    int documents = 0;
+    for (double[][] x : this.vectors)
+      documents += x.length;
+
+    BufferedWriter out = new BufferedWriter(new FileWriter(file));
+    try {
+      out.write("SVM-light Version V6.20\n");
+      out.write("0 # kernel type\n");
+      out.write("3 # kernel parameter -d \n");
+      out.write("1 # kernel parameter -g \n");
+      out.write("1 # kernel parameter -s \n");
+      out.write("1 # kernel parameter -r \n");
+      out.write("empty# kernel parameter -u \n");
+      out.write((w.length - 1) + " # highest feature index \n");
+      out.write(documents + " # number of training documents \n");
+      out.write("2 # number of support vectors plus 1 \n");
+      out.write("0 # threshold b, each following line is a SV (starting with alpha*y)\n");
+      out.write("1 ");
+      for (int j = 1; j < w.length; j++) {
+        if (w[j] != 0.0)
+          out.write(j + ":" + Double.toString(w[j]) + " ");
+      }
+      out.write("#\n");
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,338 @@
+/**
+ *  ResidencyDirectory is a read-only Directory that decides, file by
+ *  file, where the index data lives:
+ *
+ *    heap  The file is copied into a RAMDirectory when the index is
+ *          opened.
+ *    mmap  The file is read through an MMapDirectory.  If
+ *          residency:preload is true, the file is read once when the
+ *          index is opened, so that its pages are in memory.
+ *    nio   The file is read through an NIOFSDirectory, which reads
+ *          (and buffers) only what the queries touch.
+ *
+ *  A file's policy is set by these parameters, in order of precedence:
+ *
+ *    residency:field:FIELD  The postings files (terms, docs, positions)
+ *                           of FIELD.  A field only has its own
+ *                           postings files if the index was written
+ *                           with a per-field postings format; fields
+ *                           that share files get the least resident
+ *                           policy of any of them, so that a small
+ *                           field can't pull a large one onto the
+ *                           heap.
+ *    residency:ext:EXT      The files with extension EXT, e.g., tvd
+ *                           (term vectors) or nvd (norms).
+ *    residency:default      All other files (default mmap).
+ *
+ *  If no residency:* parameter is set, the index is opened with
+ *  FSDirectory.open, as before.
+ *
+ *  {@link #report} lists each file's policy and an estimate of how
+ *  much of the file is in memory (the working set), from the pages of
+ *  the file that are in the operating system's page cache.
+ */
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import org.apache.lucene.codecs.perfield.PerFieldPostingsFormat;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.*;
+
+public class ResidencyDirectory extends Directory {
+
+  static final int HEAP = 0;
+  static final int MMAP = 1;
+  static final int NIO = 2;
+
+  private static final String[] POLICY_NAMES = {"heap", "mmap", "nio"};
+
+  private File path;
+  private Directory[] directories = new Directory[3];
+  private TreeMap<String, Integer> policies = new TreeMap<String, Integer>();
+
+  //  The 1MB mappings that the report checks, by file.  The index is
+  //  read-only, so each file is mapped once and the mappings are
+  //  reused by later reports.
+
+  private HashMap<String, MappedByteBuffer[]> chunks = new HashMap<String, MappedByteBuffer[]>();
+
+  /**
+   *  Open an index directory with the residency:* parameters.
+   *  @param params The parameters read from the parameter file.
+   *  @return A ResidencyDirectory, or an FSDirectory if no residency:*
+   *          parameter is set.
+   *  @throws IOException
+   */
+  public static Directory open(Map<String, String> params) throws IOException {
+    File path = new File(params.get("indexPath"));
+    boolean configured = false;
+    for (String key : params.keySet()) {
+      if (key.startsWith("residency:"))
+        configured = true;
+    }
+    if (!configured)
+      return FSDirectory.open(path);
+    return new ResidencyDirectory(path, params);
+  }
+
+  /**
+   *  Constructor.  The heap files are copied, and the mmap files are
+   *  preloaded if that is wanted.
+   *  @param path The index directory.
+   *  @param params The parameters read from the parameter file.
+   *  @throws IOException
+   */
+  public ResidencyDirectory(File path, Map<String, String> params) throws IOException {
+    this.path = path;
+    this.directories[HEAP] = new RAMDirectory();
+    this.directories[MMAP] = new MMapDirectory(path);
+    this.directories[NIO] = new NIOFSDirectory(path);
+    setLockFactory(NoLockFactory.getNoLockFactory());
+
+    int defaultPolicy = MMAP;
+    if (params.containsKey("residency:default")) {
+      defaultPolicy = parsePolicy(params.get("residency:default"));
+    }
+    Map<String, Integer> fieldPolicies = getFieldPolicies(params);
+
+    for (String name : this.directories[NIO].listAll()) {
+      int policy = defaultPolicy;
+      int dot = name.lastIndexOf('.');
+      String ext = (dot < 0) ? "" : name.substring(dot + 1);
+      if (params.containsKey("residency:ext:" + ext)) {
+        policy = parsePolicy(params.get("residency:ext:" + ext));
+      }
+      Integer fieldPolicy = fieldPolicies.get(stripExtension(name));
+      if (fieldPolicy != null) {
+        policy = fieldPolicy;
+      }
+      this.policies.put(name, policy);
+    }
+
+    boolean preload = "true".equals(params.get("residency:preload"));
+    for (Map.Entry<String, Integer> entry : this.policies.entrySet()) {
+      String name = entry.getKey();
+      if (entry.getValue() == HEAP) {
+        this.directories[NIO].copy(this.directories[HEAP], name, name, IOContext.READONCE);
+      } else if (entry.getValue() == MMAP && preload) {
+        touch(this.directories[MMAP], name);
+      }
+    }
+  }
+
+  /**
+   *  Map the postings files of each field that has a residency:field:*
+   *  policy to that policy.  The files are named by their segment and
+   *  per-field suffix, without an extension.
+   */
+  private Map<String, Integer> getFieldPolicies(Map<String, String> params)
+    throws IOException {
+    Map<String, Integer> files = new HashMap<String, Integer>();
+    Map<String, Integer> fields = new HashMap<String, Integer>();
+    for (String key : params.keySet()) {
+      if (key.startsWith("residency:field:")) {
+        fields.put(key.substring("residency:field:".length()), parsePolicy(params.get(key)));
+      }
+    }
+    if (fields.isEmpty())
+      return files;
+
+    //  The field infos say which per-field format and suffix each
+    //  field's postings were written with.
+
+    Map<String, TreeSet<String>> sharing = new TreeMap<String, TreeSet<String>>();
+    DirectoryReader reader = DirectoryReader.open(this.directories[NIO]);
+    try {
+      for (AtomicReaderContext leaf : reader.leaves()) {
+        String segment = ((SegmentReader) leaf.reader()).getSegmentName();
+        for (FieldInfo info : leaf.reader().getFieldInfos()) {
+          String format = info.getAttribute(PerFieldPostingsFormat.PER_FIELD_FORMAT_KEY);
+          String suffix = info.getAttribute(PerFieldPostingsFormat.PER_FIELD_SUFFIX_KEY);
+          Integer policy = fields.get(info.name);
+          if (format == null || suffix == null || policy == null)
+            continue;
+
+          String file = segment + "_" + format + "_" + suffix;
+          Integer old = files.get(file);
+          files.put(file, (old == null) ? policy : Math.max(old, policy));
+          if (!sharing.containsKey(file))
+            sharing.put(file, new TreeSet<String>());
+          sharing.get(file).add(info.name);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    for (Map.Entry<String, TreeSet<String>> entry : sharing.entrySet()) {
+      if (entry.getValue().size() > 1) {
+        System.err.println("Warning: Fields " + entry.getValue() + " share the postings files " +
+            entry.getKey() + ".*; they are " + POLICY_NAMES[files.get(entry.getKey())] +
+            ", the least resident of their policies.");
+      }
+    }
+    return files;
+  }
+
+  private static String stripExtension(String name) {
+    int dot = name.lastIndexOf('.');
+    return (dot < 0) ? name : name.substring(0, dot);
+  }
+
+  private static int parsePolicy(String name) {
+    for (int i = 0; i < POLICY_NAMES.length; i++) {
+      if (POLICY_NAMES[i].equalsIgnoreCase(name))
+        return i;
+    }
+    throw new IllegalArgumentException("Unknown residency policy " + name);
+  }
+
+  //  Read a whole file, so that its pages are in memory.
+
+  private static void touch(Directory dir, String name) throws IOException {
+    IndexInput in = dir.openInput(name, IOContext.READONCE);
+    try {
+      byte[] buffer = new byte[1 << 16];
+      long remaining = in.length();
+      while (remaining > 0) {
+        int n = (int) Math.min(buffer.length, remaining);
+        in.readBytes(buffer, 0, n);
+        remaining -= n;
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private Directory directory(String name) {
+    Integer policy = this.policies.get(name);
+    return this.directories[(policy == null) ? NIO : policy];
+  }
+
+  /**
+   *  Describe where each file lives, and how much of it is in memory.
+   *  A heap file is all in memory.  For the other files, the estimate
+   *  is the part of the file that is in the page cache, which is
+   *  checked 1MB at a time.  The first report maps the files.
+   *  @return The report, one line per file and a line of totals.
+   *  @throws IOException
+   */
+  public synchronized String report() throws IOException {
+    StringBuilder s = new StringBuilder();
+    long[] sizes = new long[3];
+    long[] resident = new long[3];
+    for (Map.Entry<String, Integer> entry : this.policies.entrySet()) {
+      String name = entry.getKey();
+      int policy = entry.getValue();
+      long size = fileLength(name);
+      long inMemory = (policy == HEAP) ? size : pageCacheBytes(name);
+      sizes[policy] += size;
+      resident[policy] += inMemory;
+      s.append(String.format("  %-24s %-4s %10d bytes %5.1f%% resident%n", name,
+          POLICY_NAMES[policy], size, (size == 0) ? 100.0 : 100.0 * inMemory / size));
+    }
+    s.append("Residency:");
+    for (int i = 0; i < POLICY_NAMES.length; i++) {
+      s.append(String.format("  %s %.1f MB (%.1f MB resident)", POLICY_NAMES[i],
+          sizes[i] / 1048576.0, resident[i] / 1048576.0));
+    }
+    s.append(String.format("; working set %.1f MB%n",
+        (resident[HEAP] + resident[MMAP] + resident[NIO]) / 1048576.0));
+    return s.toString();
+  }
+
+  /**
+   *  Print the residency report of an index, if it was opened with a
+   *  ResidencyDirectory.
+   *  @param reader The index.
+   *  @throws IOException
+   */
+  public static void printReport(IndexReader reader) throws IOException {
+    if (reader instanceof DirectoryReader
+        && ((DirectoryReader) reader).directory() instanceof ResidencyDirectory) {
+      System.out.print(((ResidencyDirectory) ((DirectoryReader) reader).directory()).report());
+    }
+  }
+
+  //  Estimate how much of a file is in the page cache.
+
+  private long pageCacheBytes(String name) throws IOException {
+    MappedByteBuffer[] buffers = this.chunks.get(name);
+    if (buffers == null) {
+      buffers = mapChunks(new File(this.path, name));
+      this.chunks.put(name, buffers);
+    }
+    long bytes = 0;
+    for (MappedByteBuffer buffer : buffers) {
+      if (buffer.isLoaded())
+        bytes += buffer.capacity();
+    }
+    return bytes;
+  }
+
+  //  Map a file in 1MB chunks.  The mappings stay valid after the
+  //  file is closed.
+
+  private static MappedByteBuffer[] mapChunks(File file) throws IOException {
+    final long chunk = 1 << 20;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long length = channel.size();
+      MappedByteBuffer[] buffers = new MappedByteBuffer[(int) ((length + chunk - 1) / chunk)];
+      for (int i = 0; i < buffers.length; i++) {
+        long pos = i * chunk;
+        buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(chunk, length - pos));
+      }
+      return buffers;
+    } finally {
+      raf.close();
+    }
+  }
+
+  //  Directory methods.  The index is only read.
+
+  public String[] listAll() throws IOException {
+    return this.directories[NIO].listAll();
+  }
+
+  public boolean fileExists(String name) throws IOException {
+    return this.directories[NIO].fileExists(name);
+  }
+
+  public long fileLength(String name) throws IOException {
+    return directory(name).fileLength(name);
+  }
+
+  public IndexInput openInput(String name, IOContext context) throws IOException {
+    return directory(name).openInput(name, context);
+  }
+
+  public IndexInputSlicer createSlicer(String name, IOContext context) throws IOException {
+    return directory(name).createSlicer(name, context);
+  }
+
+  public void deleteFile(String name) throws IOException {
+    throw new UnsupportedOperationException("ResidencyDirectory is read-only");
+  }
+
+  public IndexOutput createOutput(String name, IOContext context) throws IOException {
+    throw new UnsupportedOperationException("ResidencyDirectory is read-only");
+  }
+
+  public void sync(Collection<String> names) throws IOException {
+    throw new UnsupportedOperationException("ResidencyDirectory is read-only");
+  }
+
+  public void close() throws IOException {
+    for (Directory dir : this.directories)
+      dir.close();
+  }
+
+  public String toString() {
+    return "ResidencyDirectory(" + this.path + ")";
+  }
+}
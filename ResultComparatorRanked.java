@@ -0,0 +1,16 @@
+/**
+ *  Orders a result list by descending score, breaking ties by
+ *  external document id.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.util.*;
+
+public class ResultComparatorRanked implements Comparator<ResultElement> {
+  public int compare(ResultElement res1, ResultElement res2) {
+    if (res1.score < res2.score)  return 1;
+    else if (res1.score > res2.score)  return -1;
+    else  return res1.id.compareTo(res2.id);
+  }
+}
@@ -0,0 +1,13 @@
+/**
+ *  Orders a result list by external document id.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.util.*;
+
+public class ResultComparatorUnranked implements Comparator<ResultElement> {
+  public int compare(ResultElement res1, ResultElement res2) {
+    return res1.id.compareTo(res2.id);
+  }
+}
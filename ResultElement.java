@@ -0,0 +1,24 @@
+/**
+ *  The element of a result list for output.  Includes the doc id and
+ *  score.
+ *
+ *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+public class ResultElement {
+  public String id;
+  public double score;
+  
+  public ResultElement(String id, double score) {
+	this.id = id;
+	this.score = score;
+  }
+  
+  public String getId() {
+	return id;
+  }
+  
+  public double getScore() {
+	return score;
+  }
+}
@@ -8,8 +8,21 @@
  *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
  */
 
+import java.util.Map;
+
 public abstract class RetrievalModel {
 
+  /**
+   *  The statistics of the inverted lists of a query's SCORE operators,
+   *  by the SCORE operator's argument, or null (the default) if every
+   *  evaluation reads the inverted lists again.  If it is set, an
+   *  inverted list is only read the first time that the query is
+   *  evaluated, so the same query can be evaluated with many parameter
+   *  values cheaply (see QrySweep).  It must be thread-safe if it is
+   *  shared by threads.
+   */
+  Map<String, InvListStats> invListStats = null;
+
   /**
    *  Set a retrieval model parameter.
    *  @param parameterName The name of the parameter to set.
@@ -0,0 +1,97 @@
+/**
+ *  SvmRankModel is a linear model that was trained by svm_rank_learn
+ *  (or any SVM-light compatible learner).  It reads the model file
+ *  and scores feature vectors in the JVM, which replaces writing the
+ *  vectors to a file and running svm_rank_classify on them.
+ *
+ *  The model file has 11 header lines, each a value followed by a
+ *  "#" comment (the kernel type is on line 2 and the threshold b is
+ *  on line 11), then one line per support vector:
+ *    alpha*y featureId:value featureId:value ... #
+ *  The weight vector is the sum of alpha*y times each support vector.
+ *  svm_rank_learn writes a single support vector that is already the
+ *  weight vector.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class SvmRankModel {
+
+  private double[] weights;
+  private double threshold;
+
+  /**
+   *  Read a linear model file.
+   *  @param file The model file, e.g., the letor:svmRankModelFile.
+   *  @throws Exception The file isn't a linear SVM-light model.
+   */
+  public SvmRankModel(File file) throws Exception {
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String[] header = new String[11];
+      for (int i = 0; i < header.length; i++) {
+        header[i] = in.readLine();
+        if (header[i] == null) {
+          throw new Exception("The model file " + file + " is truncated.");
+        }
+        header[i] = header[i].split("#")[0].trim();
+      }
+      if (!header[1].equals("0")) {
+        throw new Exception("The model file " + file + " isn't a linear model.");
+      }
+      this.weights = new double[Integer.parseInt(header[7]) + 1];
+      this.threshold = Double.parseDouble(header[10]);
+
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] tokens = line.split("#")[0].trim().split("\\s+");
+        if (tokens[0].length() == 0)
+          continue;
+
+        double alpha = Double.parseDouble(tokens[0]);
+        for (int i = 1; i < tokens.length; i++) {
+          int colon = tokens[i].indexOf(':');
+          int j = Integer.parseInt(tokens[i].substring(0, colon));
+          if (j >= this.weights.length) {
+            this.weights = Arrays.copyOf(this.weights, j + 1);
+          }
+          this.weights[j] += alpha * Double.parseDouble(tokens[i].substring(colon + 1));
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   *  Get the weight of a feature.
+   *  @param featureId The feature id (1..n).
+   *  @return The weight, or 0 if the model doesn't use the feature.
+   */
+  public double getWeight(int featureId) {
+    return (featureId < this.weights.length) ? this.weights[featureId] : 0.0;
+  }
+
+  /**
+   *  Get the threshold b, which is subtracted from every score.
+   */
+  public double getThreshold() {
+    return this.threshold;
+  }
+
+  /**
+   *  Score a feature vector, the way svm_rank_classify does.
+   *  @param features features[j] is the value of feature j; features[0]
+   *         is ignored.
+   *  @return The score.
+   */
+  public double score(double[] features) {
+    double score = 0.0;
+    int n = Math.min(features.length, this.weights.length);
+    for (int j = 1; j < n; j++) {
+      score += this.weights[j] * features[j];
+    }
+    return score - this.threshold;
+  }
+}
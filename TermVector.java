@@ -5,6 +5,7 @@
  *                It indicates a stopword.
  *    stemsFreq:  The frequency (tf) of each entry in stems.
  *    positions:  The index of the stem that occurred at this position. 
+ *                A frequency-only TermVector decodes it on first use.
  *
  *  Copyright (c) 2014, Carnegie Mellon University.  All Rights Reserved.
  */
@@ -22,71 +23,170 @@ public class TermVector {
    * Class variables.
    */
   Terms luceneTerms;
-  int[] positions;
+  String fieldName;
+  volatile int[] positions;	// null until decoded
   String[] stems;
   int[] stemsFreq;
   Term[] terms;
+  TermVectorCache cache;	// the cache that holds this vector, if any
+  Object cacheKey;
 
   /**
    *  Constructor.  Create a TermVector for a field in a document.
    *  @return {@link TermVector}
    */
   public TermVector(int docId, String fieldName) throws IOException {
+    this(QryEval.READER.getTermVector(docId, fieldName), fieldName);
+  }
 
-    //  Fetch the term vector.
+  /**
+   *  Constructor.  Create a TermVector from a Lucene term vector that
+   *  the caller has already fetched, e.g., to check that it exists.
+   *  @param luceneTerms The field's Lucene term vector.
+   *  @param fieldName The field name.
+   *  @return {@link TermVector}
+   */
+  public TermVector(Terms luceneTerms, String fieldName) throws IOException {
+    this(luceneTerms, fieldName, true);
+  }
 
-    this.luceneTerms = QryEval.READER.getTermVector(docId, fieldName);
+  /**
+   *  Constructor.  Create a TermVector from a Lucene term vector.  A
+   *  frequency-only TermVector decodes just the stems and their
+   *  frequencies, which is all that bag-of-words scorers need.  Its
+   *  positions are decoded the first time that they are used.
+   *  @param luceneTerms The field's Lucene term vector.
+   *  @param fieldName The field name.
+   *  @param loadPositions If false, don't decode positions until needed.
+   *  @return {@link TermVector}
+   */
+  public TermVector(Terms luceneTerms, String fieldName, boolean loadPositions)
+    throws IOException {
+
+    this.luceneTerms = luceneTerms;
+    this.fieldName = fieldName;
 
     //  Allocate space for stems. The 0'th stem indicates a stopword.
 
     int stemsLength = (int) this.luceneTerms.size();
     stems = new String[stemsLength + 1];
-    terms = new Term[stemsLength + 1];
     stemsFreq = new int[stemsLength + 1];
 
     //  Iterate through the terms, filling in the stem and frequency
-    //  information, and finding the position of the last term. The
-    //  0'th term indicates a stopword, so this loop starts at i=1.
+    //  information. The 0'th term indicates a stopword, so this loop
+    //  starts at i=1.
 
     TermsEnum ithTerm = this.luceneTerms.iterator(null);
-    
-    int positionsLength = 0;
+
     for (int i = 1; ithTerm.next() != null; i++) {
       stems[i] = ithTerm.term().utf8ToString();
-      terms[i] = new Term(fieldName, ithTerm.term().utf8ToString());
       stemsFreq[i] = (int) ithTerm.totalTermFreq();
+    }
+
+    if (loadPositions)
+      loadPositions();
+  }
+
+  /**
+   *  Decode the positions, if that hasn't been done yet.  Each term's
+   *  positions are read once; the largest position seen determines
+   *  the size of the positions array.
+   */
+  private synchronized void loadPositions() throws IOException {
+
+    if (this.positions != null)
+      return;
+
+    //  Read every (position, stem) pair, tracking the position of the
+    //  last (indexed) term in the document.
 
-      //  Find the position of the last (indexed) term in the
-      //  document, so that the positions array can be created and
-      //  populated later. The last position for each term is the
-      //  largest, so ignore the positions before it.
+    int total = 0;
+    for (int i = 1; i < stemsFreq.length; i++)
+      total += stemsFreq[i];
+
+    int[] pos = new int[total];
+    int[] stem = new int[total];
+    int n = 0;
+    int positionsLength = 0;
 
+    TermsEnum ithTerm = this.luceneTerms.iterator(null);
+
+    for (int i = 1; ithTerm.next() != null; i++) {
       DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
 
-      ithPositions.nextDoc(); /* Initialize iPositions */
+      if (ithPositions == null)
+        continue;		/* Positions are not stored */
 
-      for (int j = 0; j < ithPositions.freq() - 1; j++)
-        ithPositions.nextPosition();
+      ithPositions.nextDoc(); /* Initialize iPositions */
 
-      positionsLength = Math.max(positionsLength, ithPositions.nextPosition());
+      for (int j = 0; j < ithPositions.freq(); j++) {
+        pos[n] = ithPositions.nextPosition();
+        stem[n] = i;
+        positionsLength = Math.max(positionsLength, pos[n]);
+        n++;
+      }
     }
 
     //  Create and fill the positions array. Note that the stems array
     //  uses stem 0 to indicate a stopword, so "real" stems have
     //  indexs 1 through length+1.
 
-    positions = new int[positionsLength + 1];
+    int[] p = new int[positionsLength + 1];
 
-    ithTerm = this.luceneTerms.iterator(null);
+    for (int j = 0; j < n; j++)
+      p[pos[j]] = stem[j];
 
-    for (int i = 0; ithTerm.next() != null; i++) {
-      DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
+    this.positions = p;
+    if (this.cache != null)
+      this.cache.charge(this, 16 + 4L * p.length);
+  }
 
-      ithPositions.nextDoc(); /* Initialize iPositions */
+  /**
+   *  Get the positions array, decoding it if necessary.
+   */
+  private int[] positions() {
+    if (this.positions == null) {
+      try {
+        loadPositions();
+      } catch (IOException e) {
+        throw new RuntimeException("Can't read positions of field " + fieldName, e);
+      }
+    }
+    return this.positions;
+  }
+
+  /**
+   *  Get the Lucene Term for the i'th stem.  Terms are created on
+   *  demand, because most callers never need them.
+   */
+  private synchronized Term term(int i) {
+    if (terms == null)
+      terms = new Term[stems.length];
+    if (terms[i] == null)
+      terms[i] = new Term(fieldName, stems[i]);
+    return terms[i];
+  }
 
-      for (int j = 0; j < ithPositions.freq(); j++)
-        positions[ithPositions.nextPosition()] = i + 1;
+  /**
+   *  Estimate the heap used by this TermVector, including the Lucene
+   *  term vector that it keeps for decoding positions on demand.
+   *  @return The approximate size in bytes.
+   */
+  public long ramBytesUsed() {
+    long size = 64 + 16 + 8L * stems.length + 16 + 4L * stemsFreq.length;
+    long occurrences = 0;
+
+    for (int i = 1; i < stems.length; i++) {
+      size += 48 + 2L * stems[i].length();	// String and its chars
+      occurrences += stemsFreq[i];
     }
+
+    size += 16 * stems.length + 4 * occurrences;	// luceneTerms
+    if (this.positions != null)
+      size += 16 + 4L * this.positions.length;
+    if (this.terms != null)
+      size += 16 + 40L * this.terms.length;
+    return size;
   }
 
   /**
@@ -95,7 +195,7 @@ public class TermVector {
    *  @return The number of positionsin this field (the field length).
    */
   public int positionsLength() {
-    return this.positions.length;
+    return positions().length;
   }
 
   /**
@@ -105,6 +205,7 @@ public class TermVector {
    *  @return Index of the stem.
    */
   public int stemAt(int i) {
+    int[] positions = positions();
     if (i < positions.length)
       return positions[i];
     else
@@ -152,7 +253,7 @@ public class TermVector {
    * @throws IOException.
    */
   public long totalStemFreq(int i) throws IOException {
-    return QryEval.READER.totalTermFreq(terms[i]);
+    return QryEval.READER.totalTermFreq(term(i));
   }
   
   /**
@@ -162,7 +263,7 @@ public class TermVector {
    * @throws IOException.
    */
   public int stemDf(int i) throws IOException {
-    return QryEval.READER.docFreq(terms[i]);
+    return QryEval.READER.docFreq(term(i));
   }
   
 }
@@ -0,0 +1,202 @@
+/**
+ *  TermVectorCache is a process-wide cache of decoded, frequency-only
+ *  term vectors, keyed by (internal docid, field).  The same documents
+ *  are judged for several queries, and test candidates overlap with
+ *  training documents, so many vectors are requested more than once
+ *  during a run.
+ *
+ *  The cache has a memory budget.  When the estimated size of the
+ *  cached vectors exceeds it, the least recently used vectors are
+ *  evicted.  A vector's positions count against the budget once it
+ *  decodes them.  Fields that a document doesn't have are cached too,
+ *  so that they aren't looked up again.
+ *
+ *  The budget is set by letor:termVectorCacheMB in the parameter file
+ *  (default 128).  A budget of 0 disables the cache.
+ *
+ *  All methods are thread-safe.  Vectors are decoded outside of the
+ *  cache lock, so two threads that miss on the same vector at the
+ *  same time may both decode it; the second one simply replaces the
+ *  first.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.index.Terms;
+
+public class TermVectorCache {
+
+  //  The cache that is shared by the whole process.
+
+  private static TermVectorCache shared = new TermVectorCache(128L * 1024 * 1024);
+
+  private static class Key {
+    final int docid;
+    final String field;
+
+    Key(int docid, String field) {
+      this.docid = docid;
+      this.field = field;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      return this.docid == k.docid && this.field.equals(k.field);
+    }
+
+    public int hashCode() {
+      return this.docid * 31 + this.field.hashCode();
+    }
+  }
+
+  private static class Entry {
+    final TermVector vector;	// null if the field doesn't exist
+    long bytes;		// grows if the vector decodes its positions
+
+    Entry(TermVector vector, long bytes) {
+      this.vector = vector;
+      this.bytes = bytes;
+    }
+  }
+
+  private final long budget;
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  //  An access-ordered LinkedHashMap keeps the least recently used
+  //  entry first.
+
+  private final LinkedHashMap<Key, Entry> entries =
+      new LinkedHashMap<Key, Entry>(1024, 0.75f, true);
+
+  /**
+   *  Constructor.
+   *  @param budget The memory budget in bytes.  0 disables caching.
+   */
+  public TermVectorCache(long budget) {
+    this.budget = budget;
+  }
+
+  /**
+   *  Replace the process-wide cache with one that uses the budget in
+   *  letor:termVectorCacheMB.  Call this before any vector is requested.
+   *  @param params The parameters read from the parameter file.
+   */
+  public static void configure(Map<String, String> params) {
+    if (params.containsKey("letor:termVectorCacheMB")) {
+      long mb = Long.parseLong(params.get("letor:termVectorCacheMB"));
+      shared = new TermVectorCache(mb * 1024 * 1024);
+    }
+  }
+
+  /**
+   *  Get the process-wide cache.
+   *  @return The shared {@link TermVectorCache}.
+   */
+  public static TermVectorCache getShared() {
+    return shared;
+  }
+
+  /**
+   *  Get the frequency-only term vector of a field in a document,
+   *  decoding it if it isn't cached.
+   *  @param docid The internal document id.
+   *  @param field The field name.
+   *  @return The term vector, or null if the document has no such field.
+   *  @throws IOException
+   */
+  public TermVector get(int docid, String field) throws IOException {
+    Key key = new Key(docid, field);
+
+    synchronized (this) {
+      Entry e = this.entries.get(key);
+      if (e != null) {
+        this.hits++;
+        return e.vector;
+      }
+      this.misses++;
+    }
+
+    Terms terms = QryEval.READER.getTermVector(docid, field);
+    TermVector tv = (terms == null) ? null : new TermVector(terms, field, false);
+
+    if (this.budget > 0) {
+      if (tv != null) {
+        tv.cache = this;
+        tv.cacheKey = key;
+      }
+      put(key, new Entry(tv, (tv == null) ? 64 : 64 + tv.ramBytesUsed()));
+    }
+    return tv;
+  }
+
+  /**
+   *  Add an entry and evict least recently used entries until the
+   *  cache fits in its budget again.
+   */
+  private synchronized void put(Key key, Entry e) {
+    Entry old = this.entries.put(key, e);
+    if (old != null)
+      this.bytes -= old.bytes;
+    this.bytes += e.bytes;
+    evict();
+  }
+
+  /**
+   *  Charge a cached vector's positions, which it decodes after it is
+   *  added, to the budget, and evict entries until the cache fits in
+   *  its budget again.
+   *  @param tv The vector.
+   *  @param bytes The size of its positions.
+   */
+  synchronized void charge(TermVector tv, long bytes) {
+    Entry e = this.entries.get(tv.cacheKey);
+    if (e == null || e.vector != tv)
+      return;			// evicted or replaced
+    e.bytes += bytes;
+    this.bytes += bytes;
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Entry> it = this.entries.values().iterator();
+    while (this.bytes > this.budget && it.hasNext()) {
+      this.bytes -= it.next().bytes;
+      it.remove();
+      this.evictions++;
+    }
+  }
+
+  /**
+   *  @return The number of lookups that found their vector.
+   */
+  public synchronized long getHits() {
+    return this.hits;
+  }
+
+  /**
+   *  @return The number of lookups that decoded their vector.
+   */
+  public synchronized long getMisses() {
+    return this.misses;
+  }
+
+  /**
+   *  Print the cache statistics.
+   */
+  public synchronized void printStats() {
+    long lookups = this.hits + this.misses;
+    double hitRate = (lookups == 0) ? 0.0 : this.hits / (double) lookups;
+
+    System.out.println("TermVector cache:  " + this.hits + " hits, " +
+        this.misses + " misses (" + String.format("%.1f", 100.0 * hitRate) +
+        "% hit rate), " + this.evictions + " evictions, " +
+        this.entries.size() + " entries, " +
+        (this.bytes / (1024L * 1024L)) + " MB");
+  }
+}
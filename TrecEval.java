@@ -0,0 +1,357 @@
+/**
+ *  TrecEval computes trec_eval-style effectiveness metrics in the JVM,
+ *  so that a run can be evaluated without writing it to a file and
+ *  running trec_eval.  The qrels file (qid 0 externalDocid rel per
+ *  line) is loaded once, and its external ids are resolved to
+ *  internal docids then, so evaluating a ranking only compares ints.
+ *  Each query's judgments are a sorted docid array and a parallel
+ *  array of relevance values, which are searched with binary search.
+ *
+ *  The metrics of a ranking are:
+ *    map      Average precision.  The number of relevant documents
+ *             includes relevant documents that aren't in the index,
+ *             as it does in trec_eval.
+ *    P@k      Precision at k.
+ *    NDCG@k   Normalized discounted cumulative gain at k, with the
+ *             relevance value as the gain and a log2(rank + 1)
+ *             discount, as ndcg_cut in trec_eval.
+ *    ERR@k    Expected reciprocal rank at k, with the stopping
+ *             probability (2^rel - 1) / 2^maxRel.
+ *  The cutoffs k are set by eval:cutoffs (default 5,10,20).  Mean
+ *  values are averaged over the queries of the run that have
+ *  judgments, as trec_eval does by default.
+ *
+ *  Usage:  java TrecEval paramFile runFile...
+ *  The parameter file has indexPath and eval:qrelsPath.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class TrecEval {
+
+  //  One query's judgments.
+
+  private static class Judgments {
+    int[] docids;	// sorted
+    int[] rels;
+    int numRel;	// judged relevant, including documents not in the index
+    double[] idealDcg;	// idealDcg[k] is the DCG of the best ranking of k documents
+  }
+
+  private int[] cutoffs;
+  private String[] names;
+  private HashMap<String, Judgments> judgments = new HashMap<String, Judgments>();
+  private int maxRel = 0;
+
+  /**
+   *  Create an evaluator from the eval:* parameters.
+   *  @param params The parameters read from the parameter file.
+   *  @return The evaluator, or null if eval:qrelsPath isn't set.
+   *  @throws Exception
+   */
+  public static TrecEval create(Map<String, String> params) throws Exception {
+    if (!params.containsKey("eval:qrelsPath"))
+      return null;
+
+    int[] cutoffs = {5, 10, 20};
+    if (params.containsKey("eval:cutoffs")) {
+      String[] tokens = params.get("eval:cutoffs").split(",");
+      cutoffs = new int[tokens.length];
+      for (int i = 0; i < tokens.length; i++)
+        cutoffs[i] = Integer.parseInt(tokens[i].trim());
+    }
+    return new TrecEval(new File(params.get("eval:qrelsPath")), cutoffs);
+  }
+
+  /**
+   *  Load a qrels file.  The index must already be open.
+   *  @param qrelsFile The qrels file.
+   *  @param cutoffs The cutoffs of P@k, NDCG@k and ERR@k.
+   *  @throws Exception
+   */
+  public TrecEval(File qrelsFile, int[] cutoffs) throws Exception {
+    this.cutoffs = cutoffs;
+    this.names = new String[1 + 3 * cutoffs.length];
+    this.names[0] = "map";
+    for (int c = 0; c < cutoffs.length; c++) {
+      this.names[1 + c] = "P@" + cutoffs[c];
+      this.names[1 + cutoffs.length + c] = "NDCG@" + cutoffs[c];
+      this.names[1 + 2 * cutoffs.length + c] = "ERR@" + cutoffs[c];
+    }
+
+    LinkedHashMap<String, ArrayList<String>> qidToExDocIDs =
+        new LinkedHashMap<String, ArrayList<String>>();
+    LinkedHashMap<String, ArrayList<Integer>> qidToRels =
+        new LinkedHashMap<String, ArrayList<Integer>>();
+    BufferedReader in = new BufferedReader(new FileReader(qrelsFile));
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] qrels = line.trim().split("\\s+");
+      if (qrels.length < 4)
+        continue;
+      if (!qidToExDocIDs.containsKey(qrels[0])) {
+        qidToExDocIDs.put(qrels[0], new ArrayList<String>());
+        qidToRels.put(qrels[0], new ArrayList<Integer>());
+      }
+      qidToExDocIDs.get(qrels[0]).add(qrels[2]);
+      qidToRels.get(qrels[0]).add(Integer.parseInt(qrels[3]));
+    }
+    in.close();
+
+    for (String qid : qidToExDocIDs.keySet()) {
+      ArrayList<String> exDocIDs = qidToExDocIDs.get(qid);
+      ArrayList<Integer> rels = qidToRels.get(qid);
+      int[] docids = resolve(exDocIDs);
+
+      Judgments j = new Judgments();
+      TreeMap<Integer, Integer> sorted = new TreeMap<Integer, Integer>();
+      ArrayList<Integer> gains = new ArrayList<Integer>();
+      for (int i = 0; i < docids.length; i++) {
+        int rel = rels.get(i);
+        this.maxRel = Math.max(this.maxRel, rel);
+        if (rel > 0) {
+          j.numRel++;
+          gains.add(rel);
+        }
+        if (docids[i] >= 0)
+          sorted.put(docids[i], rel);
+      }
+
+      j.docids = new int[sorted.size()];
+      j.rels = new int[sorted.size()];
+      int k = 0;
+      for (Map.Entry<Integer, Integer> e : sorted.entrySet()) {
+        j.docids[k] = e.getKey();
+        j.rels[k] = e.getValue();
+        k++;
+      }
+
+      Collections.sort(gains, Collections.reverseOrder());
+      j.idealDcg = new double[gains.size() + 1];
+      for (int r = 0; r < gains.size(); r++)
+        j.idealDcg[r + 1] = j.idealDcg[r] + gains.get(r) / log2(r + 2);
+
+      this.judgments.put(qid, j);
+    }
+  }
+
+  //  Resolve external ids to internal docids; -1 for documents that
+  //  aren't in the index.
+
+  private static int[] resolve(ArrayList<String> exDocIDs) throws Exception {
+    if (QryEval.DOCIDS != null)
+      return QryEval.DOCIDS.lookup(exDocIDs);
+
+    int[] docids = new int[exDocIDs.size()];
+    for (int i = 0; i < docids.length; i++) {
+      try {
+        docids[i] = QryEval.getInternalDocid(exDocIDs.get(i));
+      } catch (Exception e) {
+        docids[i] = -1;
+      }
+    }
+    return docids;
+  }
+
+  private static double log2(double x) {
+    return Math.log(x) / Math.log(2);
+  }
+
+  /**
+   *  @return The names of the metrics, in the order that
+   *          {@link #evaluate} returns them.
+   */
+  public String[] getMetricNames() {
+    return this.names;
+  }
+
+  /**
+   *  @param qid A query id.
+   *  @return True if the query has judgments.
+   */
+  public boolean hasJudgments(String qid) {
+    return this.judgments.containsKey(qid);
+  }
+
+  /**
+   *  Get the relevance of a document.
+   *  @param qid The query id.
+   *  @param docid The internal docid.
+   *  @return The relevance value, or 0 if the document isn't judged.
+   */
+  public int getRel(String qid, int docid) {
+    Judgments j = this.judgments.get(qid);
+    if (j == null)
+      return 0;
+    int i = Arrays.binarySearch(j.docids, docid);
+    return (i < 0) ? 0 : j.rels[i];
+  }
+
+  /**
+   *  Evaluate the ranking of one query.
+   *  @param qid The query id.
+   *  @param ranked The internal docids, best first.
+   *  @return The metrics, in {@link #getMetricNames} order, or null if
+   *          the query has no judgments.
+   */
+  public double[] evaluate(String qid, int[] ranked) {
+    Judgments j = this.judgments.get(qid);
+    if (j == null)
+      return null;
+
+    double[] m = new double[this.names.length];
+    int n = this.cutoffs.length;
+    double maxGain = Math.pow(2, this.maxRel);
+
+    int relRetrieved = 0;
+    double sumPrecision = 0.0;
+    double dcg = 0.0;
+    double err = 0.0;
+    double notStopped = 1.0;
+    int c = 0;	// the next cutoff
+
+    //  Walk the ranking once, and record the cutoff metrics as each
+    //  cutoff is passed.  The cutoffs may be in any order.
+
+    int[] order = cutoffOrder();
+    int last = 0;
+    for (int k : this.cutoffs)
+      last = Math.max(last, k);
+    last = Math.max(last, ranked.length);
+
+    for (int r = 0; r < last; r++) {
+      int rel = 0;
+      if (r < ranked.length) {
+        int i = Arrays.binarySearch(j.docids, ranked[r]);
+        rel = (i < 0) ? 0 : j.rels[i];
+      }
+      if (rel > 0) {
+        relRetrieved++;
+        sumPrecision += relRetrieved / (double) (r + 1);
+        dcg += rel / log2(r + 2);
+        double stop = (Math.pow(2, rel) - 1) / maxGain;
+        err += notStopped * stop / (r + 1);
+        notStopped *= 1 - stop;
+      }
+      while (c < n && this.cutoffs[order[c]] == r + 1) {
+        int o = order[c];
+        int k = this.cutoffs[o];
+        m[1 + o] = relRetrieved / (double) k;
+        double ideal = j.idealDcg[Math.min(k, j.idealDcg.length - 1)];
+        m[1 + n + o] = (ideal > 0) ? dcg / ideal : 0.0;
+        m[1 + 2 * n + o] = err;
+        c++;
+      }
+    }
+    m[0] = (j.numRel > 0) ? sumPrecision / j.numRel : 0.0;
+    return m;
+  }
+
+  //  The indexes of the cutoffs, in increasing order of cutoff.
+
+  private int[] cutoffOrder() {
+    Integer[] order = new Integer[this.cutoffs.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return cutoffs[a] - cutoffs[b];
+      }
+    });
+    int[] result = new int[order.length];
+    for (int i = 0; i < order.length; i++)
+      result[i] = order[i];
+    return result;
+  }
+
+  /**
+   *  Evaluate a run, and average the metrics over its queries that
+   *  have judgments.
+   *  @param qids The query ids.
+   *  @param rankings The ranking of each query (internal docids).
+   *  @return The mean metrics, in {@link #getMetricNames} order.
+   */
+  public double[] evaluate(List<String> qids, List<int[]> rankings) {
+    double[] mean = new double[this.names.length];
+    int queries = 0;
+    for (int q = 0; q < qids.size(); q++) {
+      double[] m = evaluate(qids.get(q), rankings.get(q));
+      if (m == null)
+        continue;
+      for (int i = 0; i < m.length; i++)
+        mean[i] += m[i];
+      queries++;
+    }
+    for (int i = 0; i < mean.length; i++)
+      mean[i] = (queries > 0) ? mean[i] / queries : 0.0;
+    return mean;
+  }
+
+  /**
+   *  Format mean metrics on one line.
+   *  @param m The metrics, in {@link #getMetricNames} order.
+   *  @return The line.
+   */
+  public String format(double[] m) {
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < m.length; i++) {
+      if (i > 0)
+        s.append("  ");
+      s.append(this.names[i]).append(' ').append(String.format("%.4f", m[i]));
+    }
+    return s.toString();
+  }
+
+  /**
+   *  Read a run file in trec_eval format.
+   *  @param runFile The run file.
+   *  @param qids Gets the query ids, in the order that they appear.
+   *  @param rankings Gets each query's ranking (internal docids), by
+   *         the rank column.
+   *  @throws Exception
+   */
+  public static void readRun(File runFile, List<String> qids, List<int[]> rankings)
+    throws Exception {
+    LinkedHashMap<String, TreeMap<Integer, String>> run =
+        new LinkedHashMap<String, TreeMap<Integer, String>>();
+    BufferedReader in = new BufferedReader(new FileReader(runFile));
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] tokens = line.trim().split("\\s+");
+      if (tokens.length < 4)
+        continue;
+      if (!run.containsKey(tokens[0]))
+        run.put(tokens[0], new TreeMap<Integer, String>());
+      run.get(tokens[0]).put(Integer.parseInt(tokens[3]), tokens[2]);
+    }
+    in.close();
+
+    for (Map.Entry<String, TreeMap<Integer, String>> e : run.entrySet()) {
+      qids.add(e.getKey());
+      rankings.add(resolve(new ArrayList<String>(e.getValue().values())));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage:  java TrecEval paramFile runFile...");
+      System.exit(1);
+    }
+
+    Map<String, String> params = QryEval.readParameters(args[0]);
+    if (!params.containsKey("indexPath") || !params.containsKey("eval:qrelsPath")) {
+      System.err.println("Error: Parameters were missing.");
+      System.exit(1);
+    }
+    QryEval.openIndex(params);
+    TrecEval eval = create(params);
+
+    for (int i = 1; i < args.length; i++) {
+      List<String> qids = new ArrayList<String>();
+      List<int[]> rankings = new ArrayList<int[]>();
+      readRun(new File(args[i]), qids, rankings);
+      System.out.println(args[i] + "  " + eval.format(eval.evaluate(qids, rankings)));
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ *  BenchIndex is the index that the benchmarks run against.  It is a
+ *  synthetic index with the schema that QryEval expects (an analyzed
+ *  body field with term vectors, a stored externalId, document
+ *  lengths from DocLenStoreSimilarity), so that the benchmarks don't
+ *  need a copy of ClueWeb.
+ *
+ *  The body of a document is filler words w0, w1, ... with a Zipfian
+ *  distribution, and a log-normal length.  The benchmark terms have
+ *  inverted lists of known sizes:  the terms a1, b1, c1 and d1 occur in
+ *  every document, a10 ... d10 in about one document in 10, and so on
+ *  for 100 and 1000.  So a query's list sizes are chosen by its terms,
+ *  e.g., postings=1000 in a 100000-document index uses a100, b100, ...
+ *  When a document has both aK and bK, bK usually follows an aK, so
+ *  that #NEAR and #WINDOW have matches.
+ *
+ *  The index is built the first time that it is needed and is kept for
+ *  later runs.  System properties:
+ *    bench.index  The index directory (default bench-index in the
+ *                 directory of the benchmarks jar, i.e., bench/target,
+ *                 wherever the benchmarks are run from).
+ *    bench.docs   The number of documents (default 100000).
+ */
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.*;
+import org.apache.lucene.util.Version;
+
+public class BenchIndex {
+
+  static final String[] LETTERS = {"a", "b", "c", "d"};
+  static final int[] TIERS = {1, 10, 100, 1000};
+
+  private static final int VOCABULARY = 20000;
+
+  private static boolean open = false;
+  private static int docs;
+
+  /**
+   *  Open the benchmark index, building it if it doesn't exist.
+   *  @throws IOException
+   */
+  static synchronized void open() throws IOException {
+    if (open)
+      return;
+
+    String index = System.getProperty("bench.index");
+    File path = (index != null) ? new File(index) : defaultPath();
+    docs = Integer.parseInt(System.getProperty("bench.docs", "100000"));
+    if (!DirectoryReader.indexExists(FSDirectory.open(path)) || numDocs(path) != docs) {
+      build(path, docs);
+    }
+
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("indexPath", path.getPath());
+    QryEval.openIndex(params);
+    QryEval.getDocLengthStore();
+    open = true;
+  }
+
+  //  The default index directory, next to the benchmarks jar (or the
+  //  classes directory, if the benchmarks aren't run from the jar).
+
+  private static File defaultPath() {
+    try {
+      File location = new File(BenchIndex.class.getProtectionDomain().getCodeSource()
+          .getLocation().toURI());
+      return new File(location.getParentFile(), "bench-index");
+    } catch (Exception e) {
+      return new File("target", "bench-index");
+    }
+  }
+
+  /**
+   *  @return The number of documents in the index.
+   */
+  static int docs() {
+    return docs;
+  }
+
+  /**
+   *  Get the benchmark terms whose inverted lists have a size.
+   *  @param postings The size of each list.  The index size divided
+   *         by it must be one of the tiers (1, 10, 100, 1000).
+   *  @param n The number of terms (at most 4).
+   *  @return The terms, which have different but overlapping lists.
+   */
+  static String[] terms(int postings, int n) {
+    int tier = docs / postings;
+    if (tier * postings != docs || Arrays.binarySearch(TIERS, tier) < 0) {
+      throw new IllegalArgumentException("postings=" + postings + " isn't the index size (" +
+          docs + ") divided by one of " + Arrays.toString(TIERS));
+    }
+    if (n > LETTERS.length) {
+      throw new IllegalArgumentException("There are only " + LETTERS.length + " terms per tier");
+    }
+    String[] terms = new String[n];
+    for (int i = 0; i < n; i++)
+      terms[i] = LETTERS[i] + tier;
+    return terms;
+  }
+
+  private static int numDocs(File path) throws IOException {
+    IndexReader reader = DirectoryReader.open(FSDirectory.open(path));
+    try {
+      return reader.numDocs();
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void build(File path, int docs) throws IOException {
+    System.out.println("Building a " + docs + " document benchmark index in " + path);
+    long start = System.currentTimeMillis();
+
+    IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43, QryEval.analyzer);
+    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    config.setSimilarity(new DocLenStoreSimilarity());
+    config.setRAMBufferSizeMB(64);
+    IndexWriter writer = new IndexWriter(FSDirectory.open(path), config);
+
+    FieldType bodyType = new FieldType(TextField.TYPE_NOT_STORED);
+    bodyType.setStoreTermVectors(true);
+    bodyType.setStoreTermVectorPositions(true);
+    bodyType.freeze();
+
+    Random random = new Random(42);
+    for (int d = 0; d < docs; d++) {
+      Document doc = new Document();
+      doc.add(new StringField("externalId", String.format("bench-%08d", d), Field.Store.YES));
+      doc.add(new Field("body", body(random), bodyType));
+      writer.addDocument(doc);
+    }
+    writer.forceMerge(1);
+    writer.close();
+    System.out.println("Built the benchmark index in " + (System.currentTimeMillis() - start) +
+        " ms");
+  }
+
+  //  One document's body.  The benchmark terms replace filler words.
+
+  private static String body(Random random) {
+    int length = (int) Math.min(2000, 20 + Math.exp(4.5 + 0.7 * random.nextGaussian()));
+    String[] words = new String[length];
+    for (int i = 0; i < length; i++)
+      words[i] = "w" + (int) (Math.pow(VOCABULARY + 1, random.nextDouble()) - 1);
+
+    for (int tier : TIERS) {
+      int aPosition = -1;
+      for (String letter : LETTERS) {
+        if (random.nextInt(tier) != 0)
+          continue;
+        int tf = 1 + (int) (-Math.log(1 - random.nextDouble()) * 1.5);
+        for (int k = 0; k < tf; k++) {
+          int p = random.nextInt(length);
+          if (letter.equals("b") && aPosition >= 0 && aPosition + 1 < length
+              && random.nextInt(4) != 0) {
+            p = aPosition + 1;
+          }
+          words[p] = letter + tier;
+          if (letter.equals("a"))
+            aPosition = p;
+        }
+      }
+    }
+
+    StringBuilder s = new StringBuilder();
+    for (String word : words)
+      s.append(word).append(' ');
+    return s.toString();
+  }
+}
@@ -0,0 +1,277 @@
+/**
+ *  BenchWorkloads holds the operations that the benchmarks in
+ *  qryeval.bench measure.  Each one prepares its inputs in its
+ *  constructor, from the benchmark's parameters, so that run() only
+ *  does the work being measured.
+ *
+ *  The query operators are measured apart from the index:  their
+ *  arguments are {@link FixedIl} and {@link FixedScore} operators that
+ *  return results that were computed in advance.  InvListRead measures
+ *  reading an inverted list from the index.
+ */
+
+import java.io.*;
+import java.util.*;
+
+import qryeval.bench.Workload;
+
+public class BenchWorkloads {
+
+  //  An inverted list operator whose result is computed once.
+
+  static class FixedIl extends QryopIl {
+    private QryResult result;
+    private String name;
+
+    FixedIl(String term) throws IOException {
+      this.result = new QryopIlTerm(term).evaluate(null);
+      this.name = term + ".body";
+    }
+
+    public void add(Qryop q) {
+    }
+
+    public QryResult evaluate(RetrievalModel r) {
+      return this.result;
+    }
+
+    public String toString() {
+      return this.name;
+    }
+  }
+
+  //  A SCORE operator whose result is computed once, the first time it
+  //  is evaluated.  It is still a QryopSlScore, so #AND computes its
+  //  default scores.
+
+  static class FixedScore extends QryopSlScore {
+    private QryResult result;
+
+    FixedScore(String term) throws IOException {
+      super(new FixedIl(term));
+    }
+
+    public QryResult evaluate(RetrievalModel r) throws IOException {
+      if (this.result == null)
+        this.result = super.evaluate(r);
+      return this.result;
+    }
+  }
+
+  static RetrievalModel model(String name) {
+    if (name.equals("bm25")) {
+      RetrievalModel model = new RetrievalModelBM25();
+      model.setParameter("k_1", 1.2);
+      model.setParameter("b", 0.75);
+      model.setParameter("k_3", 0);
+      return model;
+    } else if (name.equals("indri")) {
+      RetrievalModel model = new RetrievalModelIndri();
+      model.setParameter("mu", 2500);
+      model.setParameter("lambda", 0.4);
+      return model;
+    }
+    throw new IllegalArgumentException("Unknown model " + name);
+  }
+
+  private static int getInt(Map<String, String> params, String name) {
+    return Integer.parseInt(params.get(name));
+  }
+
+  /**
+   *  Read an inverted list from the index (new InvList).
+   *  Parameters:  postings.
+   */
+  public static class InvListRead implements Workload {
+    private String term;
+
+    public InvListRead(Map<String, String> params) throws IOException {
+      BenchIndex.open();
+      this.term = BenchIndex.terms(getInt(params, "postings"), 1)[0];
+    }
+
+    public Object run() throws IOException {
+      return new InvList(this.term, "body");
+    }
+  }
+
+  /**
+   *  Score an inverted list with #SCORE.
+   *  Parameters:  postings, model (bm25 or indri).
+   */
+  public static class Score implements Workload {
+    private Qryop op;
+    private RetrievalModel model;
+
+    public Score(Map<String, String> params) throws IOException {
+      BenchIndex.open();
+      this.op = new QryopSlScore(new FixedIl(BenchIndex.terms(getInt(params, "postings"), 1)[0]));
+      this.model = model(params.get("model"));
+    }
+
+    public Object run() throws IOException {
+      return this.op.evaluate(this.model);
+    }
+  }
+
+  /**
+   *  Merge score lists with #AND (Indri), which computes default scores
+   *  for the documents that an argument doesn't match, or #SUM (BM25).
+   *  Parameters:  postings, terms, op (and or sum).
+   */
+  public static class Merge implements Workload {
+    private Qryop op;
+    private RetrievalModel model;
+
+    public Merge(Map<String, String> params) throws IOException {
+      BenchIndex.open();
+      String name = params.get("op");
+      if (name.equals("and")) {
+        this.op = new QryopSlAnd();
+        this.model = model("indri");
+      } else if (name.equals("sum")) {
+        this.op = new QryopSlSum();
+        this.model = model("bm25");
+      } else {
+        throw new IllegalArgumentException("Unknown operator " + name);
+      }
+      for (String term : BenchIndex.terms(getInt(params, "postings"), getInt(params, "terms")))
+        this.op.add(new FixedScore(term));
+      this.op.evaluate(this.model);
+    }
+
+    public Object run() throws IOException {
+      return this.op.evaluate(this.model);
+    }
+  }
+
+  /**
+   *  Combine inverted lists with #SYN, #NEAR/3 or #WINDOW/8.
+   *  Parameters:  postings, terms, op (syn, near or window).
+   */
+  public static class Positional implements Workload {
+    private Qryop op;
+
+    public Positional(Map<String, String> params) throws IOException {
+      BenchIndex.open();
+      String name = params.get("op");
+      if (name.equals("syn")) {
+        this.op = new QryopIlSyn();
+      } else if (name.equals("near")) {
+        this.op = new QryopIlNear(3);
+      } else if (name.equals("window")) {
+        this.op = new QryopIlWindow(8);
+      } else {
+        throw new IllegalArgumentException("Unknown operator " + name);
+      }
+      for (String term : BenchIndex.terms(getInt(params, "postings"), getInt(params, "terms")))
+        this.op.add(new FixedIl(term));
+    }
+
+    public Object run() throws IOException {
+      return this.op.evaluate(null);
+    }
+  }
+
+  /**
+   *  Decode a document's body term vector, with or without its
+   *  positions.  Each run decodes the next of 1024 random documents.
+   *  Parameters:  positions (true or false).
+   */
+  public static class TermVectors implements Workload {
+    private int[] docids = new int[1024];
+    private boolean positions;
+    private int next = 0;
+
+    public TermVectors(Map<String, String> params) throws IOException {
+      BenchIndex.open();
+      Random random = new Random(1);
+      for (int i = 0; i < this.docids.length; i++)
+        this.docids[i] = random.nextInt(BenchIndex.docs());
+      this.positions = Boolean.parseBoolean(params.get("positions"));
+    }
+
+    public Object run() throws IOException {
+      int docid = this.docids[this.next];
+      this.next = (this.next + 1) % this.docids.length;
+      return new TermVector(QryEval.READER.getTermVector(docid, "body"), "body", this.positions);
+    }
+  }
+
+  /**
+   *  Parse a query (QryEval.parseQuery), or just tokenize it
+   *  (QryEval.tokenizeQuery).
+   *  Parameters:  shape (flat, structured or positional), method
+   *  (parse or tokenize).
+   */
+  public static class Parse implements Workload {
+    private static final Map<String, String> QUERIES = new HashMap<String, String>();
+    static {
+      QUERIES.put("flat", "a10 b10 c10 w12 w345 w6789");
+      QUERIES.put("structured", "#AND(#OR(a10 b10) #WAND(0.3 c10.body 0.7 d10) w12 w345)");
+      QUERIES.put("positional", "#AND(#NEAR/3(a10 b10) #WINDOW/8(c10 d10) #SYN(a100 b100) w12)");
+    }
+
+    private String query;
+    private boolean tokenize;
+    private RetrievalModel model = model("indri");
+
+    public Parse(Map<String, String> params) {
+      this.query = QUERIES.get(params.get("shape"));
+      if (this.query == null) {
+        throw new IllegalArgumentException("Unknown query shape " + params.get("shape"));
+      }
+      this.tokenize = params.get("method").equals("tokenize");
+    }
+
+    public Object run() throws IOException {
+      if (this.tokenize)
+        return QryEval.tokenizeQuery(this.query);
+      return QryEval.parseQuery(this.query, this.model);
+    }
+  }
+
+  /**
+   *  Rank a query's documents and write the top 100, the way QryEval
+   *  does (outputResults), or rank them with QryEval.rankScoreList.
+   *  Parameters:  results, method (outputResults or rankScoreList).
+   */
+  public static class Output implements Workload {
+    private QryResult result = new QryResult();
+    private boolean rankScoreList;
+    private BufferedWriter writer = new BufferedWriter(new Writer() {
+      public void write(char[] buffer, int offset, int length) {
+      }
+
+      public void flush() {
+      }
+
+      public void close() {
+      }
+    });
+
+    public Output(Map<String, String> params) throws IOException {
+      BenchIndex.open();
+      int results = getInt(params, "results");
+      if (results > BenchIndex.docs()) {
+        throw new IllegalArgumentException("There are only " + BenchIndex.docs() + " documents");
+      }
+
+      //  Distinct documents in docid order, with a few tied scores.
+
+      Random random = new Random(1);
+      int step = BenchIndex.docs() / results;
+      for (int i = 0; i < results; i++) {
+        this.result.docScores.add(i * step + random.nextInt(step), random.nextInt(1000000) / 1e5);
+      }
+      this.rankScoreList = params.get("method").equals("rankScoreList");
+    }
+
+    public Object run() throws IOException {
+      if (this.rankScoreList)
+        return QryEval.rankScoreList(this.result.docScores, 100);
+      QryEval.outputResults(this.writer, "1", this.result, 100, null);
+      return this.writer;
+    }
+  }
+}
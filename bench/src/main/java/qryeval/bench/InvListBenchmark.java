@@ -0,0 +1,32 @@
+package qryeval.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Reading an inverted list from the index into an InvList.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvListBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int postings;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    this.workload = Workloads.create("BenchWorkloads$InvListRead", "postings", this.postings);
+  }
+
+  @Benchmark
+  public Object invList() throws Exception {
+    return this.workload.run();
+  }
+}
@@ -0,0 +1,39 @@
+package qryeval.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Merging score lists with #AND (Indri, with default scores) and #SUM (BM25).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int postings;
+
+  @Param({"2", "4"})
+  public int terms;
+
+  @Param({"and", "sum"})
+  public String op;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    this.workload = Workloads.create("BenchWorkloads$Merge",
+        "postings", this.postings, "terms", this.terms, "op", this.op);
+  }
+
+  @Benchmark
+  public Object merge() throws Exception {
+    return this.workload.run();
+  }
+}
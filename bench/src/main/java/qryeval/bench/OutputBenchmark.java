@@ -0,0 +1,37 @@
+package qryeval.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Ranking a query's documents and writing the top 100 (outputResults),
+ *  or ranking them with rankScoreList.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int results;
+
+  @Param({"outputResults", "rankScoreList"})
+  public String method;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    this.workload = Workloads.create("BenchWorkloads$Output",
+        "results", this.results, "method", this.method);
+  }
+
+  @Benchmark
+  public Object output() throws Exception {
+    return this.workload.run();
+  }
+}
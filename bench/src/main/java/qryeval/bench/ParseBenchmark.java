@@ -0,0 +1,36 @@
+package qryeval.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Parsing (parseQuery) and tokenizing (tokenizeQuery) queries of each shape.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+  @Param({"flat", "structured", "positional"})
+  public String shape;
+
+  @Param({"parse", "tokenize"})
+  public String method;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    this.workload = Workloads.create("BenchWorkloads$Parse",
+        "shape", this.shape, "method", this.method);
+  }
+
+  @Benchmark
+  public Object parse() throws Exception {
+    return this.workload.run();
+  }
+}
@@ -0,0 +1,39 @@
+package qryeval.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Combining inverted lists with #SYN, #NEAR/3 and #WINDOW/8.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionalBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int postings;
+
+  @Param({"2", "3"})
+  public int terms;
+
+  @Param({"syn", "near", "window"})
+  public String op;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    this.workload = Workloads.create("BenchWorkloads$Positional",
+        "postings", this.postings, "terms", this.terms, "op", this.op);
+  }
+
+  @Benchmark
+  public Object combine() throws Exception {
+    return this.workload.run();
+  }
+}
@@ -0,0 +1,36 @@
+package qryeval.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Turning an inverted list into a score list with #SCORE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int postings;
+
+  @Param({"bm25", "indri"})
+  public String model;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    this.workload = Workloads.create("BenchWorkloads$Score",
+        "postings", this.postings, "model", this.model);
+  }
+
+  @Benchmark
+  public Object score() throws Exception {
+    return this.workload.run();
+  }
+}
@@ -0,0 +1,32 @@
+package qryeval.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ *  Decoding a document's term vector, with and without positions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermVectorBenchmark {
+
+  @Param({"false", "true"})
+  public boolean positions;
+
+  private Workload workload;
+
+  @Setup
+  public void setup() throws Exception {
+    this.workload = Workloads.create("BenchWorkloads$TermVectors", "positions", this.positions);
+  }
+
+  @Benchmark
+  public Object termVector() throws Exception {
+    return this.workload.run();
+  }
+}
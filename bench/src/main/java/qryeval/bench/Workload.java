@@ -0,0 +1,19 @@
+package qryeval.bench;
+
+/**
+ *  A Workload is one operation of QryEval that a benchmark measures,
+ *  with its inputs already prepared.  The workloads are written in the
+ *  default package, next to the QryEval classes that they use, and the
+ *  benchmarks (which JMH requires to be in a named package) create
+ *  them by name with {@link Workloads#create}.
+ */
+public interface Workload {
+
+  /**
+   *  Run the operation once.
+   *  @return The result, which the benchmark returns so that the JIT
+   *          can't discard the work.
+   *  @throws Exception
+   */
+  Object run() throws Exception;
+}
@@ -0,0 +1,24 @@
+package qryeval.bench;
+
+import java.util.*;
+
+/**
+ *  Creates the workloads that are written in the default package.
+ */
+public class Workloads {
+
+  /**
+   *  Create a workload.  Its class must have a public constructor that
+   *  takes the parameters as a Map&lt;String, String&gt;.
+   *  @param name The class name, e.g., BenchWorkloads$Score.
+   *  @param nameValues Parameter names and values, alternately.
+   *  @return The workload.
+   *  @throws Exception
+   */
+  public static Workload create(String name, Object... nameValues) throws Exception {
+    Map<String, String> params = new HashMap<String, String>();
+    for (int i = 0; i + 1 < nameValues.length; i += 2)
+      params.put(nameValues[i].toString(), String.valueOf(nameValues[i + 1]));
+    return (Workload) Class.forName(name).getConstructor(Map.class).newInstance(params);
+  }
+}